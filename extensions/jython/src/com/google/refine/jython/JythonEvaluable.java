@@ -36,15 +36,22 @@ package com.google.refine.jython;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
+import org.python.core.CompileMode;
+import org.python.core.CompilerFlags;
 import org.python.core.Py;
+import org.python.core.PyCode;
 import org.python.core.PyException;
 import org.python.core.PyFunction;
 import org.python.core.PyNone;
 import org.python.core.PyObject;
 import org.python.core.PyString;
+import org.python.core.PyStringMap;
+import org.python.core.PySystemState;
 import org.python.util.PythonInterpreter;
 
 import com.google.refine.expr.EvalError;
@@ -67,7 +74,21 @@ public class JythonEvaluable implements Evaluable {
     
     private static final String s_functionName = "___temp___";
     
-    private static PythonInterpreter _engine; 
+    static final protected int s_maxCachedCodes = 256;
+    
+    /**
+     * Compiled function definitions, by expression text, so that parsing the same
+     * expression again (e.g., once per request) does not compile it again.
+     */
+    static final protected Map<String, PyCode> s_codeCache =
+        new LinkedHashMap<String, PyCode>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PyCode> eldest) {
+                return size() > s_maxCachedCodes;
+            }
+        };
     
     // FIXME(SM): this initialization logic depends on the fact that the JVM's 
     // current working directory is the root of the Google Refine distributions
@@ -88,10 +109,18 @@ public class JythonEvaluable implements Evaluable {
             Properties props = new Properties();
             props.setProperty("python.path", libPath.getAbsolutePath());
             PythonInterpreter.initialize(System.getProperties(), props, new String[] { "" });
+        } else {
+            PySystemState.initialize();
         }
-        
-        _engine = new PythonInterpreter();
     }
+    
+    /*
+     * Each evaluable defines its function in a namespace of its own rather than in
+     * a shared interpreter, so that evaluables never overwrite each other's function.
+     * Jython keeps interpreter state per thread, so the function can be called from
+     * several threads at once, e.g., by parallel row scans.
+     */
+    final protected PyFunction _function;
 
     public JythonEvaluable(String s) {
         // indent and create a function out of the code
@@ -106,14 +135,33 @@ public class JythonEvaluable implements Evaluable {
             sb.append(line);
         }
 
-        _engine.exec(sb.toString());
+        PyObject namespace = new PyStringMap();
+        namespace.__setitem__("__name__", new PyString("__main__"));
+        Py.runCode(compile(sb.toString()), namespace, namespace);
+        
+        _function = (PyFunction) namespace.__finditem__(s_functionName);
+    }
+    
+    static protected PyCode compile(String source) {
+        synchronized (s_codeCache) {
+            PyCode code = s_codeCache.get(source);
+            if (code != null) {
+                return code;
+            }
+        }
+        
+        PyCode code = Py.compile_flags(source, "<string>", CompileMode.exec, new CompilerFlags());
+        synchronized (s_codeCache) {
+            s_codeCache.put(source, code);
+        }
+        return code;
     }
     
     @Override
     public Object evaluate(Properties bindings) {
         try {
-            // call the temporary PyFunction directly
-            Object result = ((PyFunction)_engine.get(s_functionName)).__call__(
+            // call the PyFunction directly
+            Object result = _function.__call__(
                 new PyObject[] {
                     Py.java2py( bindings.get("value") ),
                     new JythonHasFieldsWrapper((HasFields) bindings.get("cell"), bindings),
@@ -40,16 +40,30 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.tools.tar.TarOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.refine.history.HistoryEntryManager;
+import com.google.refine.model.Cell;
+import com.google.refine.model.ColumnarRowStore;
+import com.google.refine.model.MappedRowList;
 import com.google.refine.model.Project;
+import com.google.refine.model.Row;
 import com.google.refine.preference.PreferenceStore;
 import com.google.refine.preference.TopList;
 
@@ -81,20 +95,55 @@ public abstract class ProjectManager {
      *  While each project's metadata is loaded completely at start-up, each project's raw data
      *  is loaded only when the project is accessed by the user. This is because project
      *  metadata is tiny compared to raw project data. This hash map from project ID to project
-     *  is more like a last accessed-last out cache.
+     *  is a least recently used cache, kept in access order, whose projects get evicted once
+     *  their estimated sizes add up to more than the cache's memory budget.
      */
     transient protected Map<Long, Project> _projects;
+    transient protected Map<Long, Long> _projectSizes;
+    
+    transient protected long _cacheHits = 0;
+    transient protected long _cacheMisses = 0;
+    transient protected long _cacheEvictions = 0;
+    
+    /**
+     *  Loading, saving or evicting a project holds one of these locks, picked by project ID,
+     *  rather than the whole project manager, so that different projects can be loaded
+     *  and saved at the same time.
+     */
+    transient final protected Object[] _projectLocks = new Object[64];
+    
+    /**
+     *  Projects get saved in the background, by a few threads at most.
+     */
+    static protected final ExecutorService s_saveExecutor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "project-saver");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    
+    transient final protected Set<Long> _projectsBeingSaved = new HashSet<Long>();
 
     static public ProjectManager singleton;
 
     protected ProjectManager(){
         _projectsMetadata = new HashMap<Long, ProjectMetadata>();
         _preferenceStore = new PreferenceStore();
-        _projects = new HashMap<Long, Project>();
+        _projects = new LinkedHashMap<Long, Project>(16, 0.75f, true);
+        _projectSizes = new HashMap<Long, Long>();
+        for (int i = 0; i < _projectLocks.length; i++) {
+            _projectLocks[i] = new Object();
+        }
 
         preparePreferenceStore(_preferenceStore);
     }
     
+    protected Object getProjectLock(long id) {
+        return _projectLocks[(int) (id ^ (id >>> 32)) & (_projectLocks.length - 1)];
+    }
+    
     public void dispose() {
         save(true); // complete save
 
@@ -114,10 +163,14 @@ public abstract class ProjectManager {
      * @param projectMetadata
      */
     public void registerProject(Project project, ProjectMetadata projectMetadata) {
+        prepareProjectStorage(project);
+        long size = estimateProjectSize(project);
         synchronized (this) {
             _projects.put(project.id, project);
+            _projectSizes.put(project.id, size);
             _projectsMetadata.put(project.id, projectMetadata);
         }
+        scheduleEviction(project.id);
     }
  //----------Load from data store to memory----------------
 
@@ -160,7 +213,7 @@ public abstract class ProjectManager {
      * @param id
      */
     public void ensureProjectSaved(long id) {
-        synchronized(this){
+        synchronized (getProjectLock(id)) {
             ProjectMetadata metadata = this.getProjectMetadata(id);
             if (metadata != null) {
                 try {
@@ -239,11 +292,15 @@ public abstract class ProjectManager {
         Date startTimeOfSave = new Date();
         
         synchronized (this) {
-            for (long id : _projectsMetadata.keySet()) {
+            // iterate rather than call get() so as not to change which projects were used last
+            Iterator<Entry<Long, Project>> iterator = _projects.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Entry<Long, Project> entry = iterator.next();
+                long id = entry.getKey();
+                Project project = entry.getValue();
                 ProjectMetadata metadata = getProjectMetadata(id);
-                Project project = _projects.get(id); // don't call getProject() as that will load the project.
 
-                if (project != null) {
+                if (metadata != null) {
                     boolean hasUnsavedChanges =
                         metadata.getModified().getTime() >= project.getLastSave().getTime();
                     // We use >= instead of just > to avoid the case where a newly created project
@@ -260,12 +317,17 @@ public abstract class ProjectManager {
                          *  It's been a while since the project was last saved and it hasn't been
                          *  modified. We can safely remove it from the cache to save some memory.
                          */
-                        _projects.remove(id).dispose();
+                        iterator.remove();
+                        _projectSizes.remove(id);
+                        _cacheEvictions++;
+                        project.dispose();
                     }
                 }
             }
         }
         
+        refreshProjectSizes();
+        
         if (records.size() > 0) {
             Collections.sort(records, new Comparator<SaveRecord>() {
                 @Override
@@ -285,17 +347,258 @@ public abstract class ProjectManager {
                 "Saving some modified projects ..."
             );
 
-            for (int i = 0;
-                 i < records.size() &&
-                    (allModified || (new Date().getTime() - startTimeOfSave.getTime() < s_quickSaveTimeout));
-                 i++) {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (SaveRecord record : records) {
+                final Project project = record.project;
+                synchronized (_projectsBeingSaved) {
+                    if (!_projectsBeingSaved.add(project.id)) {
+                        continue; // still being saved from an earlier round
+                    }
+                }
+                
+                futures.add(s_saveExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            synchronized (getProjectLock(project.id)) {
+                                saveProject(project);
+                            }
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        } finally {
+                            synchronized (_projectsBeingSaved) {
+                                _projectsBeingSaved.remove(project.id);
+                            }
+                        }
+                    }
+                }));
+            }
+            
+            // projects not saved by the timeout carry on saving in the background
+            for (Future<?> future : futures) {
+                try {
+                    if (allModified) {
+                        future.get();
+                    } else {
+                        long timeLeft = s_quickSaveTimeout - (new Date().getTime() - startTimeOfSave.getTime());
+                        future.get(Math.max(timeLeft, 0), TimeUnit.MILLISECONDS);
+                    }
+                } catch (TimeoutException e) {
+                    break;
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        
+        evictProjects(-1);
+    }
+
+    //--------------Project cache--------------
+
+    static protected final long s_rowOverhead = 64; // row object, its cell list and the reference to it
+    static protected final long s_cellOverhead = 40; // cell object, its reference and a boxed value
+    static protected final long s_compactedCellSize = 12; // type tag and value in a cell vector
+    static protected final long s_unloadedRowSize = 16; // offset and empty slot of a mapped row
+    static protected final long s_reconSize = 400; // recon with a few candidates
+    static protected final int s_rowSampleSize = 1000;
+
+    /**
+     * Gets the memory budget of the project cache, in bytes, either as set by the
+     * "project.cache.maxMemory" preference in megabytes or else half the heap.
+     */
+    public long getProjectCacheBudget() {
+        Object v = _preferenceStore.get("project.cache.maxMemory");
+        if (v != null) {
+            try {
+                return Long.parseLong(v.toString().trim()) * 1024 * 1024;
+            } catch (NumberFormatException e) {
+                logger.warn("Ignoring invalid project.cache.maxMemory preference: {}", v);
+            }
+        }
+        return Runtime.getRuntime().maxMemory() / 2;
+    }
+
+    synchronized public long getProjectCacheSize() {
+        long total = 0;
+        for (long size : _projectSizes.values()) {
+            total += size;
+        }
+        return total;
+    }
+
+    synchronized public long getCacheHits() {
+        return _cacheHits;
+    }
+
+    synchronized public long getCacheMisses() {
+        return _cacheMisses;
+    }
+
+    synchronized public long getCacheEvictions() {
+        return _cacheEvictions;
+    }
+
+    /**
+     * Estimates how much memory a project takes up, from a sample of its rows, including
+     * the recons their cells hold. Rows of a mapped project that have not been read
+     * yet cost next to nothing.
+     * @param project
+     * @return estimated size in bytes
+     */
+    protected long estimateProjectSize(Project project) {
+        List<Row> rows = project.rows;
+        long size = 0;
+        if (rows != null && rows.size() > 0) {
+            int rowCount = rows.size();
+            int step = Math.max(1, rowCount / s_rowSampleSize);
+            int sampled = 0;
+            long sampleSize = 0;
+            for (int r = 0; r < rowCount; r += step) {
+                sampleSize += estimateRowSize(MappedRowList.peek(rows, r));
+                sampled++;
+            }
+            size += sampleSize * rowCount / sampled;
+        }
+        return size;
+    }
+
+    static protected long estimateRowSize(Row row) {
+        if (row == null) {
+            return s_unloadedRowSize;
+        }
+        
+        long size = s_rowOverhead;
+        if (ColumnarRowStore.isCompacted(row)) {
+            return size + s_compactedCellSize * row.cells.size();
+        }
+        for (Cell cell : row.cells) {
+            if (cell != null) {
+                size += s_cellOverhead;
+                if (cell.value instanceof String) {
+                    size += 40 + 2 * ((String) cell.value).length();
+                }
+                if (cell.recon != null) {
+                    size += s_reconSize;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Gets a cached project without counting it as used.
+     */
+    synchronized protected Project peekProject(long id) {
+        for (Entry<Long, Project> entry : _projects.entrySet()) {
+            if (entry.getKey() == id) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Re-estimates the sizes of the cached projects, as they grow with edits and
+     * as rows of mapped projects get read.
+     */
+    protected void refreshProjectSizes() {
+        List<Project> projects;
+        synchronized (this) {
+            projects = new ArrayList<Project>(_projects.values());
+        }
+        for (Project project : projects) {
+            long size = estimateProjectSize(project);
+            synchronized (this) {
+                if (peekProject(project.id) == project) {
+                    _projectSizes.put(project.id, size);
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts projects in the background if the cache has grown over its budget.
+     * Evictions take other projects' locks, so they are never done by a thread that
+     * might already hold one.
+     * @param keepID the project just used, which should not be evicted
+     */
+    protected void scheduleEviction(final long keepID) {
+        if (getProjectCacheSize() > getProjectCacheBudget()) {
+            s_saveExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    evictProjects(keepID);
+                }
+            });
+        }
+    }
+
+    /**
+     * Evicts the least recently used projects until the cache fits within its budget,
+     * saving those with unsaved changes first. The most recently used project is
+     * always kept, however large.
+     * @param keepID a project not to evict, or -1
+     */
+    protected void evictProjects(long keepID) {
+        long budget = getProjectCacheBudget();
+        List<Project> victims = new ArrayList<Project>();
+        synchronized (this) {
+            long excess = getProjectCacheSize() - budget;
+            int left = _projects.size();
+            for (Project project : _projects.values()) { // least recently used first
+                if (excess <= 0 || left <= 1) {
+                    break;
+                }
+                if (project.id != keepID) {
+                    victims.add(project);
+                    excess -= _projectSizes.containsKey(project.id) ? _projectSizes.get(project.id) : 0;
+                    left--;
+                }
+            }
+        }
+        
+        for (Project project : victims) {
+            evictProject(project);
+        }
+    }
 
+    protected void evictProject(Project project) {
+        synchronized (getProjectLock(project.id)) {
+            synchronized (this) {
+                if (peekProject(project.id) != project) {
+                    return; // already gone
+                }
+            }
+            if (project.getProcessManager().hasPending()) {
+                return; // leave it be until its operations are done
+            }
+            
+            long changeVersion = project.getChangeVersion();
+            ProjectMetadata metadata = getProjectMetadata(project.id);
+            if (metadata == null || metadata.getModified().getTime() >= project.getLastSave().getTime()) {
                 try {
-                    saveProject(records.get(i).project);
+                    saveProject(project);
                 } catch (Exception e) {
                     e.printStackTrace();
+                    return; // better to run short of memory than to lose changes
                 }
             }
+            
+            // edits only need the project's own lock, so one may have come in while it was being saved
+            synchronized (project) {
+                if (project.getChangeVersion() != changeVersion || project.getProcessManager().hasPending()) {
+                    return; // leave it for the next eviction, which saves it again
+                }
+                synchronized (this) {
+                    _projects.remove(project.id);
+                    _projectSizes.remove(project.id);
+                    _cacheEvictions++;
+                    logger.info("Evicted project {} from the cache ({} hits, {} misses, {} evictions)",
+                        new Object[] { project.id, _cacheHits, _cacheMisses, _cacheEvictions });
+                }
+            }
+            project.dispose();
         }
     }
 
@@ -369,16 +672,50 @@ public abstract class ProjectManager {
      */
     public Project getProject(long id) {
         synchronized (this) {
-            if (_projects.containsKey(id)) {
-                return _projects.get(id);
-            } else {
-                Project project = loadProject(id);
+            Project project = _projects.get(id);
+            if (project != null) {
+                _cacheHits++;
+                return project;
+            }
+        }
+        
+        // load the project without holding up requests for other projects
+        Project project;
+        synchronized (getProjectLock(id)) {
+            synchronized (this) {
+                project = _projects.get(id);
                 if (project != null) {
-                    _projects.put(id, project);                    
+                    _cacheHits++;
+                    return project;
+                }
+                _cacheMisses++;
+            }
+            
+            project = loadProject(id);
+            if (project != null) {
+                prepareProjectStorage(project);
+                long size = estimateProjectSize(project);
+                synchronized (this) {
+                    _projects.put(id, project);
+                    _projectSizes.put(id, size);
                 }
-                return project;
             }
         }
+        if (project != null) {
+            scheduleEviction(id);
+        }
+        return project;
+    }
+
+    /**
+     * Moves the project's rows into columnar storage if the workspace is set to use it.
+     * @param project
+     */
+    protected void prepareProjectStorage(Project project) {
+        Object v = _preferenceStore.get("project.storage.columnar");
+        if (v != null && Boolean.parseBoolean(v.toString())) {
+            ColumnarRowStore.compact(project);
+        }
     }
 
     /**
@@ -426,6 +763,7 @@ public abstract class ProjectManager {
     protected void removeProject(long projectID){
         if (_projects.containsKey(projectID)) {
             _projects.remove(projectID).dispose();
+            _projectSizes.remove(projectID);
         }
         if (_projectsMetadata.containsKey(projectID)) {
             _projectsMetadata.remove(projectID);
@@ -33,8 +33,11 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.google.refine.browsing;
 
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import org.json.JSONArray;
@@ -49,10 +52,16 @@ import com.google.refine.browsing.facets.RangeFacet;
 import com.google.refine.browsing.facets.ScatterplotFacet;
 import com.google.refine.browsing.facets.TextSearchFacet;
 import com.google.refine.browsing.facets.TimeRangeFacet;
+import com.google.refine.browsing.util.BitSetFilteredRecords;
+import com.google.refine.browsing.util.BitSetFilteredRows;
 import com.google.refine.browsing.util.ConjunctiveFilteredRecords;
 import com.google.refine.browsing.util.ConjunctiveFilteredRows;
+import com.google.refine.browsing.util.FacetCache;
+import com.google.refine.browsing.util.FilteredIndex;
 import com.google.refine.browsing.util.FilteredRecordsAsFilteredRows;
+import com.google.refine.browsing.util.ParallelFilteredRows;
 import com.google.refine.model.Project;
+import com.google.refine.model.Record;
 import com.google.refine.model.Row;
 
 /**
@@ -71,6 +80,7 @@ public class Engine implements Jsonizable {
 
     protected Project _project;
     protected List<Facet> _facets = new LinkedList<Facet>();
+    protected Map<Facet, String> _facetConfigs = new HashMap<Facet, String>();
     protected Mode _mode = Mode.RowBased;
 
     static public String modeToString(Mode mode) {
@@ -92,22 +102,7 @@ public class Engine implements Jsonizable {
     }
 
     public FilteredRows getAllRows() {
-        return new FilteredRows() {
-            @Override
-            public void accept(Project project, RowVisitor visitor) {
-                try {
-                    visitor.start(project);
-
-                    int c = project.rows.size();
-                    for (int rowIndex = 0; rowIndex < c; rowIndex++) {
-                        Row row = project.rows.get(rowIndex);
-                        visitor.visit(project, rowIndex, row);
-                    }
-                } finally {
-                    visitor.end(project);
-                }
-            }
-        };
+        return new ParallelFilteredRows();
     }
 
     public FilteredRows getAllFilteredRows() {
@@ -118,7 +113,7 @@ public class Engine implements Jsonizable {
         if (_mode == Mode.RecordBased) {
             return new FilteredRecordsAsFilteredRows(getFilteredRecords(except));
         } else if (_mode == Mode.RowBased) {
-            ConjunctiveFilteredRows cfr = new ConjunctiveFilteredRows();
+            ConjunctiveFilteredRows cfr = new ParallelFilteredRows();
             for (Facet facet : _facets) {
                 if (facet != except) {
                     RowFilter rowFilter = facet.getRowFilter(_project);
@@ -199,6 +194,9 @@ public class Engine implements Jsonizable {
                 if (facet != null) {
                     facet.initializeFromJSON(_project, fo);
                     _facets.add(facet);
+                    if (facet.isCacheable()) {
+                        _facetConfigs.put(facet, fo.toString());
+                    }
                 }
             }
         }
@@ -213,16 +211,29 @@ public class Engine implements Jsonizable {
         }
     }
 
+    /**
+     * Compute the choices of all facets. Each facet's filter is evaluated only once
+     * per row (or record), after which each facet's choices are computed over the
+     * rows (or records) that match all other facets' filters.
+     */
     public void computeFacets() throws JSONException {
         if (_mode == Mode.RowBased) {
+            BitSet[] matches = computeRowFilterMatches();
+            BitSet[] exceptMatches = combineMatchesExcept(matches, _project.rows.size());
+            
+            int i = 0;
             for (Facet facet : _facets) {
-                FilteredRows filteredRows = getFilteredRows(facet);
+                FilteredRows filteredRows = new BitSetFilteredRows(exceptMatches[i++]);
 
                 facet.computeChoices(_project, filteredRows);
             }
         } else if (_mode == Mode.RecordBased) {
+            BitSet[] matches = computeRecordFilterMatches();
+            BitSet[] exceptMatches = combineMatchesExcept(matches, _project.recordModel.getRecordCount());
+            
+            int i = 0;
             for (Facet facet : _facets) {
-                FilteredRecords filteredRecords = getFilteredRecords(facet);
+                FilteredRecords filteredRecords = new BitSetFilteredRecords(exceptMatches[i++]);
 
                 facet.computeChoices(_project, filteredRecords);
             }
@@ -230,6 +241,274 @@ public class Engine implements Jsonizable {
             throw new InternalError("Unknown mode.");
         }
     }
+    
+    /**
+     * Evaluate all facets' row filters in a single pass over the project's rows. Facets
+     * whose matches have already been cached for the same configuration and the same
+     * version of the project's data are not evaluated again.
+     * 
+     * @return for each facet, the set of indices of rows that its filter lets through,
+     *         or null if the facet doesn't filter out any row
+     */
+    protected BitSet[] computeRowFilterMatches() {
+        FacetCache cache = FacetCache.getCache(_project);
+        long version = _project.getChangeVersion();
+        
+        int facetCount = _facets.size();
+        RowFilter[] rowFilters = new RowFilter[facetCount];
+        BitSet[] matches = new BitSet[facetCount];
+        boolean evaluate = false;
+        
+        int i = 0;
+        for (Facet facet : _facets) {
+            RowFilter rowFilter = facet.getRowFilter(_project);
+            if (rowFilter != null) {
+                matches[i] = getCachedMatches(cache, facet, MODE_ROW_BASED);
+                if (matches[i] == null) {
+                    rowFilters[i] = rowFilter;
+                    evaluate = true;
+                }
+            }
+            i++;
+        }
+        
+        if (evaluate) {
+            RowFilterMatcher matcher = new RowFilterMatcher(rowFilters);
+            new ParallelFilteredRows().accept(_project, matcher);
+            
+            i = 0;
+            for (Facet facet : _facets) {
+                if (rowFilters[i] != null) {
+                    matches[i] = matcher.matches[i];
+                    putCachedMatches(cache, facet, MODE_ROW_BASED, version, matches[i]);
+                }
+                i++;
+            }
+        }
+        return matches;
+    }
+    
+    /**
+     * Evaluate all facets' record filters in a single pass over the project's records.
+     * Facets whose matches have already been cached for the same configuration and the
+     * same version of the project's data are not evaluated again.
+     * 
+     * @return for each facet, the set of indices of records that its filter lets through,
+     *         or null if the facet doesn't filter out any record
+     */
+    protected BitSet[] computeRecordFilterMatches() {
+        FacetCache cache = FacetCache.getCache(_project);
+        long version = _project.getChangeVersion();
+        
+        int facetCount = _facets.size();
+        RecordFilter[] recordFilters = new RecordFilter[facetCount];
+        BitSet[] matches = new BitSet[facetCount];
+        boolean evaluate = false;
+        
+        int recordCount = _project.recordModel.getRecordCount();
+        int i = 0;
+        for (Facet facet : _facets) {
+            RecordFilter recordFilter = facet.getRecordFilter(_project);
+            if (recordFilter != null) {
+                matches[i] = getCachedMatches(cache, facet, MODE_RECORD_BASED);
+                if (matches[i] == null) {
+                    recordFilters[i] = recordFilter;
+                    matches[i] = new BitSet(recordCount);
+                    evaluate = true;
+                }
+            }
+            i++;
+        }
+        
+        if (evaluate) {
+            for (int r = 0; r < recordCount; r++) {
+                Record record = _project.recordModel.getRecord(r);
+                for (int f = 0; f < facetCount; f++) {
+                    if (recordFilters[f] != null && recordFilters[f].filterRecord(_project, record)) {
+                        matches[f].set(r);
+                    }
+                }
+            }
+            
+            i = 0;
+            for (Facet facet : _facets) {
+                if (recordFilters[i] != null) {
+                    putCachedMatches(cache, facet, MODE_RECORD_BASED, version, matches[i]);
+                }
+                i++;
+            }
+        }
+        return matches;
+    }
+    
+    /**
+     * Evaluate a number of row filters on each row, and record which rows each filter
+     * lets through. Partial visitors record their matches relative to the first row
+     * they visit, so that they don't need to allocate bits for all the rows before it.
+     */
+    static protected class RowFilterMatcher implements MergeableRowVisitor {
+        final protected RowFilter[] _rowFilters;
+        final public BitSet[]       matches;
+        protected int               _offset;
+        
+        public RowFilterMatcher(RowFilter[] rowFilters) {
+            this(rowFilters, 0);
+        }
+        
+        protected RowFilterMatcher(RowFilter[] rowFilters, int offset) {
+            _rowFilters = rowFilters;
+            _offset = offset;
+            
+            matches = new BitSet[rowFilters.length];
+            for (int f = 0; f < rowFilters.length; f++) {
+                if (rowFilters[f] != null) {
+                    matches[f] = new BitSet();
+                }
+            }
+        }
+        
+        @Override
+        public void start(Project project) {
+            // nothing to do
+        }
+        
+        @Override
+        public boolean visit(Project project, int rowIndex, Row row) {
+            if (_offset < 0) {
+                _offset = rowIndex;
+            }
+            for (int f = 0; f < _rowFilters.length; f++) {
+                if (_rowFilters[f] != null && _rowFilters[f].filterRow(project, rowIndex, row)) {
+                    matches[f].set(rowIndex - _offset);
+                }
+            }
+            return false;
+        }
+        
+        @Override
+        public void end(Project project) {
+            // nothing to do
+        }
+        
+        @Override
+        public MergeableRowVisitor createPartialVisitor() {
+            return new RowFilterMatcher(_rowFilters, -1);
+        }
+        
+        @Override
+        public void merge(MergeableRowVisitor partialVisitor) {
+            RowFilterMatcher matcher = (RowFilterMatcher) partialVisitor;
+            if (matcher._offset < 0) {
+                return; // visited no row
+            } else if (_offset < 0) {
+                _offset = matcher._offset;
+            }
+            
+            int shift = matcher._offset - _offset;
+            for (int f = 0; f < _rowFilters.length; f++) {
+                if (matches[f] != null) {
+                    BitSet bits = matcher.matches[f];
+                    for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                        matches[f].set(i + shift);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Get the indices of the rows (or, in record mode, records) that all facets let
+     * through, cached for the same facet configurations and the same version of the
+     * project's data, so that paging through them doesn't filter the project again.
+     */
+    public FilteredIndex getFilteredIndex() {
+        String key = getConfigKey();
+        FacetCache cache = FacetCache.getCache(_project);
+        long version = _project.getChangeVersion();
+        
+        FilteredIndex index = key == null ? null : cache.getFilteredIndex(_project, key);
+        if (index == null) {
+            BitSet[] matches;
+            int count;
+            if (_mode == Mode.RowBased) {
+                matches = computeRowFilterMatches();
+                count = _project.rows.size();
+            } else {
+                matches = computeRecordFilterMatches();
+                count = _project.recordModel.getRecordCount();
+            }
+            
+            BitSet bits = null;
+            for (BitSet facetMatches : matches) {
+                if (facetMatches != null) {
+                    if (bits == null) {
+                        bits = (BitSet) facetMatches.clone();
+                    } else {
+                        bits.and(facetMatches);
+                    }
+                }
+            }
+            
+            index = new FilteredIndex(bits, count);
+            if (key != null) {
+                cache.putFilteredIndex(key, version, index);
+            }
+        }
+        return index;
+    }
+    
+    /**
+     * @return a key identifying the mode and all facet configurations, for caching what
+     *         is computed from the rows or records that the facets let through, or null
+     *         if some facet has not been configured from JSON or isn't cacheable
+     */
+    public String getConfigKey() {
+        StringBuffer sb = new StringBuffer(modeToString(_mode));
+        for (Facet facet : _facets) {
+            String config = _facetConfigs.get(facet);
+            if (config == null) {
+                return null;
+            }
+            sb.append('\n');
+            sb.append(config);
+        }
+        return sb.toString();
+    }
+    
+    protected BitSet getCachedMatches(FacetCache cache, Facet facet, String mode) {
+        String config = _facetConfigs.get(facet);
+        return config == null ? null : cache.getMatches(_project, mode + ":" + config);
+    }
+    
+    protected void putCachedMatches(FacetCache cache, Facet facet, String mode, long version, BitSet matches) {
+        String config = _facetConfigs.get(facet);
+        if (config != null) {
+            cache.putMatches(mode + ":" + config, version, matches);
+        }
+    }
+    
+    /**
+     * For each facet, intersect the matches of all the other facets.
+     * 
+     * @param matches per facet matches, null meaning everything matches
+     * @param count total number of rows or records
+     * @return per facet sets of rows or records that all other facets let through
+     */
+    static protected BitSet[] combineMatchesExcept(BitSet[] matches, int count) {
+        BitSet[] exceptMatches = new BitSet[matches.length];
+        for (int i = 0; i < matches.length; i++) {
+            BitSet bits = new BitSet(count);
+            bits.set(0, count);
+            
+            for (int j = 0; j < matches.length; j++) {
+                if (j != i && matches[j] != null) {
+                    bits.and(matches[j]);
+                }
+            }
+            exceptMatches[i] = bits;
+        }
+        return exceptMatches;
+    }
 
     @Override
     public void write(JSONWriter writer, Properties options)
@@ -55,4 +55,10 @@ public interface Facet extends Jsonizable {
     public void computeChoices(Project project, FilteredRecords filteredRecords);
     
     public void initializeFromJSON(Project project, JSONObject o) throws Exception;
+    
+    /**
+     * @return whether what this facet computes from a project's rows stays the same
+     *         for as long as the project's data doesn't change, so that it can be cached
+     */
+    public boolean isCacheable();
 }
@@ -46,17 +46,20 @@ import com.google.refine.ProjectManager;
 import com.google.refine.browsing.DecoratedValue;
 import com.google.refine.browsing.FilteredRecords;
 import com.google.refine.browsing.FilteredRows;
+import com.google.refine.browsing.MergeableRowVisitor;
 import com.google.refine.browsing.RecordFilter;
 import com.google.refine.browsing.RowFilter;
 import com.google.refine.browsing.filters.AllRowsRecordFilter;
 import com.google.refine.browsing.filters.AnyRowRecordFilter;
 import com.google.refine.browsing.filters.ExpressionEqualRowFilter;
 import com.google.refine.browsing.util.ExpressionNominalValueGrouper;
+import com.google.refine.browsing.util.FacetCache;
 import com.google.refine.expr.Evaluable;
 import com.google.refine.expr.MetaParser;
 import com.google.refine.expr.ParsingException;
 import com.google.refine.model.Column;
 import com.google.refine.model.Project;
+import com.google.refine.model.Row;
 import com.google.refine.util.JSONUtilities;
 
 public class ListFacet implements Facet {
@@ -198,22 +201,38 @@ public class ListFacet implements Facet {
         _selectBlank = JSONUtilities.getBoolean(o, "selectBlank", false);
         _selectError = JSONUtilities.getBoolean(o, "selectError", false);
     }
+    
+    @Override
+    public boolean isCacheable() {
+        return FacetCache.isCacheable(_eval);
+    }
 
     @Override
     public RowFilter getRowFilter(Project project) {
-        return 
-            _eval == null || 
+        if (_eval == null || 
             _errorMessage != null ||
-            (_selection.size() == 0 && !_selectBlank && !_selectError) ? 
-                null :
-                new ExpressionEqualRowFilter(
-                    _eval, 
-                    _columnName,
-                    _cellIndex, 
-                    createMatches(), 
-                    _selectBlank, 
-                    _selectError,
-                    _invert);
+            (_selection.size() == 0 && !_selectBlank && !_selectError)) {
+            return null;
+        }
+        
+        // resolved before the filter gets used, possibly by several threads at once
+        final Object[] values = getRowValues(project);
+        
+        return new ExpressionEqualRowFilter(
+            _eval, 
+            _columnName,
+            _cellIndex, 
+            createMatches(), 
+            _selectBlank, 
+            _selectError,
+            _invert) {
+            
+            @Override
+            protected Object evaluateRow(Project project, int rowIndex, Row row) {
+                return rowIndex < values.length ?
+                        values[rowIndex] : super.evaluateRow(project, rowIndex, row);
+            }
+        };
     }
     
     @Override
@@ -228,8 +247,7 @@ public class ListFacet implements Facet {
     @Override
     public void computeChoices(Project project, FilteredRows filteredRows) {
         if (_eval != null && _errorMessage == null) {
-            ExpressionNominalValueGrouper grouper = 
-                new ExpressionNominalValueGrouper(_eval, _columnName, _cellIndex);
+            ExpressionNominalValueGrouper grouper = createGrouper(project);
             
             filteredRows.accept(project, grouper);
             
@@ -240,8 +258,7 @@ public class ListFacet implements Facet {
     @Override
     public void computeChoices(Project project, FilteredRecords filteredRecords) {
         if (_eval != null && _errorMessage == null) {
-            ExpressionNominalValueGrouper grouper = 
-                new ExpressionNominalValueGrouper(_eval, _columnName, _cellIndex);
+            ExpressionNominalValueGrouper grouper = createGrouper(project);
             
             filteredRecords.accept(project, grouper);
             
@@ -249,6 +266,35 @@ public class ListFacet implements Facet {
         }
     }
     
+    protected ExpressionNominalValueGrouper createGrouper(Project project) {
+        return createGrouper(getRowValues(project));
+    }
+    
+    protected ExpressionNominalValueGrouper createGrouper(final Object[] values) {
+        return new ExpressionNominalValueGrouper(_eval, _columnName, _cellIndex) {
+            @Override
+            protected Object evalRow(Project project, int rowIndex, Row row, Properties bindings) {
+                return rowIndex < values.length ?
+                        values[rowIndex] : super.evalRow(project, rowIndex, row, bindings);
+            }
+            
+            @Override
+            public MergeableRowVisitor createPartialVisitor() {
+                return createGrouper(values);
+            }
+        };
+    }
+    
+    /**
+     * Get the values of this facet's expression on all rows. These are evaluated only
+     * once per version of the project's data, so that changing the selection of this
+     * facet or of other facets doesn't require evaluating the expression again.
+     */
+    protected Object[] getRowValues(Project project) {
+        return FacetCache.getCache(project).getRowValues(
+            project, _expression, _eval, _columnName, _cellIndex);
+    }
+    
     protected void postProcessGrouper(ExpressionNominalValueGrouper grouper) {
         _choices.clear();
         _choices.addAll(grouper.choices.values());
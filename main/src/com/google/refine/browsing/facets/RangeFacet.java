@@ -47,6 +47,7 @@ import com.google.refine.browsing.filters.AnyRowRecordFilter;
 import com.google.refine.browsing.filters.ExpressionNumberComparisonRowFilter;
 import com.google.refine.browsing.util.ExpressionBasedRowEvaluable;
 import com.google.refine.browsing.util.ExpressionNumericValueBinner;
+import com.google.refine.browsing.util.FacetCache;
 import com.google.refine.browsing.util.NumericBinIndex;
 import com.google.refine.browsing.util.NumericBinRecordIndex;
 import com.google.refine.browsing.util.NumericBinRowIndex;
@@ -196,6 +197,11 @@ public class RangeFacet implements Facet {
             _selected = true;
         }
     }
+    
+    @Override
+    public boolean isCacheable() {
+        return FacetCache.isCacheable(_eval);
+    }
 
     @Override
     public RowFilter getRowFilter(Project project) {
@@ -58,6 +58,7 @@ import com.google.refine.browsing.RowFilter;
 import com.google.refine.browsing.filters.AnyRowRecordFilter;
 import com.google.refine.browsing.filters.DualExpressionsNumberComparisonRowFilter;
 import com.google.refine.browsing.util.ExpressionBasedRowEvaluable;
+import com.google.refine.browsing.util.FacetCache;
 import com.google.refine.browsing.util.NumericBinIndex;
 import com.google.refine.browsing.util.NumericBinRecordIndex;
 import com.google.refine.browsing.util.NumericBinRowIndex;
@@ -286,6 +287,11 @@ public class ScatterplotFacet implements Facet {
         }
         
     }
+    
+    @Override
+    public boolean isCacheable() {
+        return FacetCache.isCacheable(eval_x) && FacetCache.isCacheable(eval_y);
+    }
 
     @Override
     public RowFilter getRowFilter(Project project) {
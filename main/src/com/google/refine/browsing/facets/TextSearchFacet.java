@@ -111,6 +111,11 @@ public class TextSearchFacet implements Facet {
             }
         }
     }
+    
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
 
     @Override
     public RowFilter getRowFilter(Project project) {
@@ -90,12 +90,7 @@ public class ExpressionEqualRowFilter implements RowFilter {
     }
     
     public boolean internalFilterRow(Project project, int rowIndex, Row row) {
-        Cell cell = _cellIndex < 0 ? null : row.getCell(_cellIndex);
-        
-        Properties bindings = ExpressionUtils.createBindings(project);
-        ExpressionUtils.bind(bindings, row, rowIndex, _columnName, cell);
-        
-        Object value = _evaluable.evaluate(bindings);
+        Object value = evaluateRow(project, rowIndex, row);
         if (value != null) {
             if (value.getClass().isArray()) {
                 Object[] a = (Object[]) value;
@@ -133,12 +128,7 @@ public class ExpressionEqualRowFilter implements RowFilter {
     }
     
     public boolean internalInvertedFilterRow(Project project, int rowIndex, Row row) {
-        Cell cell = _cellIndex < 0 ? null : row.getCell(_cellIndex);
-        
-        Properties bindings = ExpressionUtils.createBindings(project);
-        ExpressionUtils.bind(bindings, row, rowIndex, _columnName, cell);
-        
-        Object value = _evaluable.evaluate(bindings);
+        Object value = evaluateRow(project, rowIndex, row);
         if (value != null) {
             if (value.getClass().isArray()) {
                 Object[] a = (Object[]) value;
@@ -175,6 +165,15 @@ public class ExpressionEqualRowFilter implements RowFilter {
         return !testValue(value);
     }
     
+    protected Object evaluateRow(Project project, int rowIndex, Row row) {
+        Cell cell = _cellIndex < 0 ? null : row.getCell(_cellIndex);
+        
+        Properties bindings = ExpressionUtils.createBindings(project);
+        ExpressionUtils.bind(bindings, row, rowIndex, _columnName, cell);
+        
+        return _evaluable.evaluate(bindings);
+    }
+    
     protected boolean testValue(Object v) {
         if (ExpressionUtils.isError(v)) {
             return _selectError;
@@ -0,0 +1,82 @@
+/*
+
+Copyright 2010, Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,           
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY           
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package com.google.refine.browsing.util;
+
+import java.util.BitSet;
+
+import com.google.refine.browsing.FilteredRows;
+import com.google.refine.browsing.MergeableRowVisitor;
+import com.google.refine.browsing.RowFilter;
+import com.google.refine.browsing.RowVisitor;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+
+/**
+ * Visit the rows whose indices are set in a bit set that has already been computed,
+ * e.g., by evaluating a number of row filters ahead of time.
+ */
+public class BitSetFilteredRows implements FilteredRows {
+    final protected BitSet _matches;
+    
+    public BitSetFilteredRows(BitSet matches) {
+        _matches = matches;
+    }
+    
+    @Override
+    public void accept(Project project, RowVisitor visitor) {
+        if (ParallelFilteredRows.canVisitInParallel(project, visitor)) {
+            ParallelFilteredRows.visitInParallel(project, (MergeableRowVisitor) visitor, new RowFilter() {
+                @Override
+                public boolean filterRow(Project project, int rowIndex, Row row) {
+                    return _matches.get(rowIndex);
+                }
+            });
+            return;
+        }
+        
+        try {
+            visitor.start(project);
+
+            int c = project.rows.size();
+            for (int rowIndex = _matches.nextSetBit(0);
+                 rowIndex >= 0 && rowIndex < c;
+                 rowIndex = _matches.nextSetBit(rowIndex + 1)) {
+                
+                visitor.visit(project, rowIndex, project.rows.get(rowIndex));
+            }
+        } finally {
+            visitor.end(project);
+        }
+    }
+}
@@ -41,8 +41,8 @@ import java.util.Map;
 import java.util.Properties;
 
 import com.google.refine.browsing.DecoratedValue;
+import com.google.refine.browsing.MergeableRowVisitor;
 import com.google.refine.browsing.RecordVisitor;
-import com.google.refine.browsing.RowVisitor;
 import com.google.refine.browsing.facets.NominalFacetChoice;
 import com.google.refine.expr.Evaluable;
 import com.google.refine.expr.ExpressionUtils;
@@ -55,7 +55,7 @@ import com.google.refine.model.Row;
  * Visit matched rows or records and group them into facet choices based on the values computed
  * from a given expression.
  */
-public class ExpressionNominalValueGrouper implements RowVisitor, RecordVisitor {
+public class ExpressionNominalValueGrouper implements MergeableRowVisitor, RecordVisitor {
     static public class IndexedNominalFacetChoice extends NominalFacetChoice {
         int _latestIndex;
 
@@ -84,6 +84,7 @@ public class ExpressionNominalValueGrouper implements RowVisitor, RecordVisitor
      */
     protected boolean hasBlank;
     protected boolean hasError;
+    protected Properties bindings;
 
     public ExpressionNominalValueGrouper(Evaluable evaluable, String columnName, int cellIndex) {
         _evaluable = evaluable;
@@ -93,7 +94,7 @@ public class ExpressionNominalValueGrouper implements RowVisitor, RecordVisitor
 
     @Override
     public void start(Project project) {
-        // nothing to do
+        bindings = ExpressionUtils.createBindings(project);
     }
 
     @Override
@@ -106,8 +107,6 @@ public class ExpressionNominalValueGrouper implements RowVisitor, RecordVisitor
         hasError = false;
         hasBlank = false;
 
-        Properties bindings = ExpressionUtils.createBindings(project);
-
         visitRow(project, rowIndex, row, bindings, rowIndex);
 
         if (hasError) {
@@ -125,8 +124,6 @@ public class ExpressionNominalValueGrouper implements RowVisitor, RecordVisitor
         hasError = false;
         hasBlank = false;
 
-        Properties bindings = ExpressionUtils.createBindings(project);
-
         for (int r = record.fromRowIndex; r < record.toRowIndex; r++) {
             Row row = project.rows.get(r);
             visitRow(project, r, row, bindings, record.recordIndex);
@@ -142,6 +139,28 @@ public class ExpressionNominalValueGrouper implements RowVisitor, RecordVisitor
         return false;
     }
 
+    @Override
+    public MergeableRowVisitor createPartialVisitor() {
+        return new ExpressionNominalValueGrouper(_evaluable, _columnName, _cellIndex);
+    }
+
+    @Override
+    public void merge(MergeableRowVisitor partialVisitor) {
+        ExpressionNominalValueGrouper grouper = (ExpressionNominalValueGrouper) partialVisitor;
+        for (Map.Entry<Object, IndexedNominalFacetChoice> entry : grouper.choices.entrySet()) {
+            IndexedNominalFacetChoice facetChoice = choices.get(entry.getKey());
+            IndexedNominalFacetChoice otherChoice = entry.getValue();
+            if (facetChoice != null) {
+                facetChoice.count += otherChoice.count;
+                facetChoice._latestIndex = Math.max(facetChoice._latestIndex, otherChoice._latestIndex);
+            } else {
+                choices.put(entry.getKey(), otherChoice);
+            }
+        }
+        blankCount += grouper.blankCount;
+        errorCount += grouper.errorCount;
+    }
+
     protected void visitRow(Project project, int rowIndex, Row row, Properties bindings, int index) {
         Object value = evalRow(project, rowIndex, row, bindings);
         if (value != null) {
@@ -36,8 +36,8 @@ package com.google.refine.browsing.util;
 import java.util.Collection;
 import java.util.Properties;
 
+import com.google.refine.browsing.MergeableRowVisitor;
 import com.google.refine.browsing.RecordVisitor;
-import com.google.refine.browsing.RowVisitor;
 import com.google.refine.expr.ExpressionUtils;
 import com.google.refine.model.Project;
 import com.google.refine.model.Record;
@@ -47,7 +47,7 @@ import com.google.refine.model.Row;
  * Visit matched rows or records and slot them into bins based on the numbers computed
  * from a given expression.
  */
-public class ExpressionNumericValueBinner implements RowVisitor, RecordVisitor {
+public class ExpressionNumericValueBinner implements MergeableRowVisitor, RecordVisitor {
     /*
      * Configuration
      */
@@ -70,6 +70,7 @@ public class ExpressionNumericValueBinner implements RowVisitor, RecordVisitor {
     protected boolean hasBlank;
     protected boolean hasNumeric;
     protected boolean hasNonNumeric;
+    protected Properties bindings;
     
     public ExpressionNumericValueBinner(RowEvaluable rowEvaluable, NumericBinIndex index) {
         _rowEvaluable = rowEvaluable;
@@ -79,7 +80,7 @@ public class ExpressionNumericValueBinner implements RowVisitor, RecordVisitor {
     
     @Override
     public void start(Project project) {
-        // nothing to do
+        bindings = ExpressionUtils.createBindings(project);
     }
     
     @Override
@@ -91,7 +92,6 @@ public class ExpressionNumericValueBinner implements RowVisitor, RecordVisitor {
     public boolean visit(Project project, int rowIndex, Row row) {
         resetFlags();
         
-        Properties bindings = ExpressionUtils.createBindings(project);
         processRow(project, rowIndex, row, bindings);
         
         updateCounts();
@@ -103,7 +103,6 @@ public class ExpressionNumericValueBinner implements RowVisitor, RecordVisitor {
     public boolean visit(Project project, Record record) {
         resetFlags();
         
-        Properties bindings = ExpressionUtils.createBindings(project);
         for (int r = record.fromRowIndex; r < record.toRowIndex; r++) {
             processRow(project, r, project.rows.get(r), bindings);
         }
@@ -113,6 +112,23 @@ public class ExpressionNumericValueBinner implements RowVisitor, RecordVisitor {
         return false;
     }
     
+    @Override
+    public MergeableRowVisitor createPartialVisitor() {
+        return new ExpressionNumericValueBinner(_rowEvaluable, _index);
+    }
+    
+    @Override
+    public void merge(MergeableRowVisitor partialVisitor) {
+        ExpressionNumericValueBinner binner = (ExpressionNumericValueBinner) partialVisitor;
+        for (int i = 0; i < bins.length; i++) {
+            bins[i] += binner.bins[i];
+        }
+        numericCount += binner.numericCount;
+        nonNumericCount += binner.nonNumericCount;
+        blankCount += binner.blankCount;
+        errorCount += binner.errorCount;
+    }
+    
     protected void resetFlags() {
         hasError = false;
         hasBlank = false;
@@ -0,0 +1,342 @@
+/*
+
+Copyright 2010, Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,           
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY           
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package com.google.refine.browsing.util;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.google.refine.browsing.MergeableRowVisitor;
+import com.google.refine.expr.Evaluable;
+import com.google.refine.expr.ExpressionUtils;
+import com.google.refine.grel.Parser;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+
+/**
+ * Per-project cache of what facets compute from the project's rows: the values that
+ * facet expressions evaluate to on each row, the sets of rows (or records) that
+ * facets' filters let through, the rows (or records) that whole engine
+ * configurations let through, and the orders in which those get sorted. Entries are tied to the project's change version, so
+ * they are dropped as soon as the project's data changes.
+ * 
+ * This lets us recompute only the facet whose selection has changed while the user is
+ * clicking around, instead of re-evaluating every facet's expression on every row.
+ */
+public class FacetCache {
+    static final protected Map<Project, FacetCache> s_caches = new WeakHashMap<Project, FacetCache>();
+    
+    static final protected int s_maxRowValuesEntries = 8;
+    static final protected int s_maxMatchesEntries = 64;
+    static final protected int s_maxFilteredIndexEntries = 16;
+    static final protected int s_maxSortedIndicesEntries = 8;
+    
+    /**
+     * @param evaluable a parsed expression, or null
+     * @return whether what the expression evaluates to on the project's rows can be
+     *         cached by the project's change version, that is, it doesn't read other
+     *         projects or the current time
+     */
+    static public boolean isCacheable(Evaluable evaluable) {
+        return evaluable == null || Parser.dependsOnlyOnProject(evaluable);
+    }
+    
+    static public FacetCache getCache(Project project) {
+        synchronized (s_caches) {
+            FacetCache cache = s_caches.get(project);
+            if (cache == null) {
+                cache = new FacetCache();
+                s_caches.put(project, cache);
+            }
+            return cache;
+        }
+    }
+    
+    static protected class CachedResult {
+        final long      version;
+        final Object    data;
+        
+        CachedResult(long version, Object data) {
+            this.version = version;
+            this.data = data;
+        }
+    }
+    
+    static protected class LRUMap extends LinkedHashMap<String, CachedResult> {
+        private static final long serialVersionUID = 4529425138221493470L;
+        
+        final protected int _maxEntries;
+        
+        LRUMap(int maxEntries) {
+            super(16, 0.75f, true);
+            _maxEntries = maxEntries;
+        }
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+            return size() > _maxEntries;
+        }
+    }
+    
+    /**
+     * Evaluate an expression on rows and store the results by row index. Partial
+     * visitors all write into the same array, but each only to the slots of the rows
+     * it visits, and each with its own bindings.
+     */
+    static protected class RowValuesEvaluator implements MergeableRowVisitor {
+        final protected Evaluable   _evaluable;
+        final protected String      _columnName;
+        final protected int         _cellIndex;
+        final protected Object[]    _values;
+        
+        protected Properties        _bindings;
+        
+        RowValuesEvaluator(Evaluable evaluable, String columnName, int cellIndex, Object[] values) {
+            _evaluable = evaluable;
+            _columnName = columnName;
+            _cellIndex = cellIndex;
+            _values = values;
+        }
+        
+        @Override
+        public void start(Project project) {
+            _bindings = ExpressionUtils.createBindings(project);
+        }
+        
+        @Override
+        public boolean visit(Project project, int rowIndex, Row row) {
+            Cell cell = _cellIndex < 0 ? null : row.getCell(_cellIndex);
+            
+            ExpressionUtils.bind(_bindings, row, rowIndex, _columnName, cell);
+            
+            _values[rowIndex] = _evaluable.evaluate(_bindings);
+            return false;
+        }
+        
+        @Override
+        public void end(Project project) {
+            // nothing to do
+        }
+        
+        @Override
+        public MergeableRowVisitor createPartialVisitor() {
+            return new RowValuesEvaluator(_evaluable, _columnName, _cellIndex, _values);
+        }
+        
+        @Override
+        public void merge(MergeableRowVisitor partialVisitor) {
+            // nothing to do, as the values are already in place
+        }
+    }
+    
+    final protected Map<String, CachedResult> _rowValues = new LRUMap(s_maxRowValuesEntries);
+    final protected Map<String, CachedResult> _matches = new LRUMap(s_maxMatchesEntries);
+    final protected Map<String, CachedResult> _filteredIndices = new LRUMap(s_maxFilteredIndexEntries);
+    final protected Map<String, CachedResult> _sortedIndices = new LRUMap(s_maxSortedIndicesEntries);
+    
+    /**
+     * Row values being evaluated, by version and key, so that threads asking for the
+     * same values at the same time wait for one evaluation rather than each doing it.
+     */
+    final protected Map<String, FutureTask<Object[]>> _pendingRowValues =
+        new HashMap<String, FutureTask<Object[]>>();
+    
+    /**
+     * Get the values that an expression evaluates to on every row of the project,
+     * evaluating it only if they haven't been cached for the current version of
+     * the project's data. Expressions that aren't cacheable are evaluated every time.
+     * 
+     * @param project
+     * @param expression the expression's source, used as cache key
+     * @param evaluable the parsed expression
+     * @param columnName
+     * @param cellIndex the expression is based on this column, -1 if none
+     * @return array of values indexed by row index
+     */
+    public Object[] getRowValues(
+        final Project project, String expression, final Evaluable evaluable,
+        final String columnName, final int cellIndex) {
+        
+        if (!isCacheable(evaluable)) {
+            Object[] values = new Object[project.rows.size()];
+            new ParallelFilteredRows().accept(
+                project, new RowValuesEvaluator(evaluable, columnName, cellIndex, values));
+            return values;
+        }
+        
+        long version = project.getChangeVersion();
+        String key = cellIndex + ":" + columnName + ":" + expression;
+        String pendingKey = version + ":" + key;
+        
+        FutureTask<Object[]> task;
+        boolean evaluate = false;
+        synchronized (this) {
+            Object[] values = (Object[]) get(_rowValues, key, version);
+            if (values != null && values.length == project.rows.size()) {
+                return values;
+            }
+            
+            task = _pendingRowValues.get(pendingKey);
+            if (task == null || ParallelFilteredRows.isOnPoolThread()) {
+                // threads of the pool must not wait for an evaluation that might need the pool
+                task = new FutureTask<Object[]>(new Callable<Object[]>() {
+                    @Override
+                    public Object[] call() {
+                        Object[] values = new Object[project.rows.size()];
+                        new ParallelFilteredRows().accept(
+                            project, new RowValuesEvaluator(evaluable, columnName, cellIndex, values));
+                        return values;
+                    }
+                });
+                if (!_pendingRowValues.containsKey(pendingKey)) {
+                    _pendingRowValues.put(pendingKey, task);
+                }
+                evaluate = true;
+            }
+        }
+        
+        if (evaluate) {
+            task.run();
+        }
+        
+        try {
+            Object[] values = task.get();
+            if (evaluate) {
+                put(_rowValues, key, new CachedResult(version, values));
+            }
+            return values;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            if (evaluate) {
+                synchronized (this) {
+                    if (_pendingRowValues.get(pendingKey) == task) {
+                        _pendingRowValues.remove(pendingKey);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Get the rows or records that some facet's filter was found to let through
+     * on the current version of the project's data.
+     * 
+     * @param project
+     * @param key identifies the facet's configuration
+     * @return the set of matching row or record indices, or null if not cached
+     */
+    public BitSet getMatches(Project project, String key) {
+        return (BitSet) get(_matches, key, project.getChangeVersion());
+    }
+    
+    /**
+     * @param version the version of the project's data as it was before computing what
+     *        gets cached, so that it is not cached as current if the data changed since
+     */
+    public void putMatches(String key, long version, BitSet matches) {
+        put(_matches, key, new CachedResult(version, matches));
+    }
+    
+    /**
+     * Get the rows or records that all of an engine's facets were found to let through
+     * on the current version of the project's data.
+     * 
+     * @param project
+     * @param key identifies the engine's configuration
+     * @return the filtered index, or null if not cached
+     */
+    public FilteredIndex getFilteredIndex(Project project, String key) {
+        return (FilteredIndex) get(_filteredIndices, key, project.getChangeVersion());
+    }
+    
+    /**
+     * @param version the version of the project's data as it was before computing what
+     *        gets cached, so that it is not cached as current if the data changed since
+     */
+    public void putFilteredIndex(String key, long version, FilteredIndex index) {
+        put(_filteredIndices, key, new CachedResult(version, index));
+    }
+    
+    /**
+     * Get the indices of rows or records in the order that some sorting criteria put
+     * them in, on the current version of the project's data.
+     * 
+     * @param project
+     * @param key identifies the sorting criteria and the engine's configuration
+     * @return the sorted indices, or null if not cached
+     */
+    public int[] getSortedIndices(Project project, String key) {
+        return (int[]) get(_sortedIndices, key, project.getChangeVersion());
+    }
+    
+    /**
+     * @param version the version of the project's data as it was before computing what
+     *        gets cached, so that it is not cached as current if the data changed since
+     */
+    public void putSortedIndices(String key, long version, int[] indices) {
+        put(_sortedIndices, key, new CachedResult(version, indices));
+    }
+    
+    synchronized protected Object get(Map<String, CachedResult> map, String key, long version) {
+        CachedResult entry = map.get(key);
+        if (entry != null) {
+            if (entry.version == version) {
+                return entry.data;
+            }
+            map.remove(key);
+        }
+        return null;
+    }
+    
+    synchronized protected void put(Map<String, CachedResult> map, String key, CachedResult entry) {
+        map.put(key, entry);
+    }
+}
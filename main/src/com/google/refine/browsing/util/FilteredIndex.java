@@ -0,0 +1,114 @@
+/*
+
+Copyright 2010, Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,           
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY           
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+
+package com.google.refine.browsing.util;
+
+import java.util.BitSet;
+
+/**
+ * The indices of the rows (or records) that an engine's filters let through, kept so
+ * that pages of them can be served without filtering the whole project again. Every
+ * s_sampleInterval-th match is remembered, so that finding the n-th match only takes
+ * a short walk from the nearest sample before it.
+ */
+public class FilteredIndex {
+    static final protected int s_sampleInterval = 1024;
+    
+    final protected BitSet  _matches; // null if everything matches
+    final protected int     _count;   // total number of rows or records
+    final protected int     _size;
+    final protected int[]   _samples;
+    
+    /**
+     * @param matches indices of matching rows or records, null if all match
+     * @param count total number of rows or records
+     */
+    public FilteredIndex(BitSet matches, int count) {
+        _matches = matches;
+        _count = count;
+        
+        if (matches == null) {
+            _size = count;
+            _samples = null;
+        } else {
+            int size = 0;
+            int[] samples = new int[matches.cardinality() / s_sampleInterval + 1];
+            for (int i = matches.nextSetBit(0); i >= 0 && i < count; i = matches.nextSetBit(i + 1)) {
+                if (size % s_sampleInterval == 0) {
+                    samples[size / s_sampleInterval] = i;
+                }
+                size++;
+            }
+            _size = size;
+            _samples = samples;
+        }
+    }
+    
+    /**
+     * @return how many rows or records match
+     */
+    public int size() {
+        return _size;
+    }
+    
+    /**
+     * @param n
+     * @return the index of the n-th matching row or record, or -1 if there are fewer matches
+     */
+    public int get(int n) {
+        if (n < 0 || n >= _size) {
+            return -1;
+        } else if (_matches == null) {
+            return n;
+        }
+        
+        int i = _samples[n / s_sampleInterval];
+        for (int skip = n % s_sampleInterval; skip > 0; skip--) {
+            i = _matches.nextSetBit(i + 1);
+        }
+        return i;
+    }
+    
+    /**
+     * @param from
+     * @return the index of the first matching row or record at or after from, or -1 if none
+     */
+    public int next(int from) {
+        if (_matches == null) {
+            return from < _count ? from : -1;
+        }
+        int i = _matches.nextSetBit(from);
+        return i < _count ? i : -1;
+    }
+}
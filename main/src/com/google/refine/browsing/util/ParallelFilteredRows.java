@@ -0,0 +1,173 @@
+/*
+
+Copyright 2010, Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,           
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY           
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package com.google.refine.browsing.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.google.refine.browsing.MergeableRowVisitor;
+import com.google.refine.browsing.RowFilter;
+import com.google.refine.browsing.RowVisitor;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+
+/**
+ * Visit rows that match all given row filters, splitting the rows into chunks that are
+ * visited on a thread pool when the visitor supports it. Visitors that don't implement
+ * MergeableRowVisitor, and small projects, are visited on the calling thread, and so are
+ * visits started from the pool's own threads, which must not wait on the pool.
+ */
+public class ParallelFilteredRows extends ConjunctiveFilteredRows {
+    static final protected int s_chunkSize = 8192;
+    static final protected int s_minParallelRowCount = 4 * s_chunkSize;
+    static final protected int s_threadCount = Runtime.getRuntime().availableProcessors();
+    
+    static final protected ThreadLocal<Boolean> s_onPoolThread = new ThreadLocal<Boolean>();
+    
+    static final protected ExecutorService s_executor = Executors.newFixedThreadPool(
+        s_threadCount, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        s_onPoolThread.set(Boolean.TRUE);
+                        r.run();
+                    }
+                }, "row-visit");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    
+    @Override
+    public void accept(final Project project, RowVisitor visitor) {
+        if (canVisitInParallel(project, visitor)) {
+            visitInParallel(project, (MergeableRowVisitor) visitor, new RowFilter() {
+                @Override
+                public boolean filterRow(Project project, int rowIndex, Row row) {
+                    return matchRow(project, rowIndex, row);
+                }
+            });
+        } else {
+            super.accept(project, visitor);
+        }
+    }
+    
+    static public boolean isOnPoolThread() {
+        return s_onPoolThread.get() != null;
+    }
+    
+    static public boolean canVisitInParallel(Project project, RowVisitor visitor) {
+        return visitor instanceof MergeableRowVisitor &&
+            project.rows.size() >= s_minParallelRowCount &&
+            s_threadCount > 1 &&
+            !isOnPoolThread();
+    }
+    
+    /**
+     * Visit the rows that match the given filter, a chunk at a time on the thread pool,
+     * and merge the results into the given visitor in row order.
+     */
+    static public void visitInParallel(
+        final Project project, MergeableRowVisitor visitor, final RowFilter rowFilter) {
+        
+        try {
+            visitor.start(project);
+            
+            int rowCount = project.rows.size();
+            List<Future<MergeableRowVisitor>> futures = new ArrayList<Future<MergeableRowVisitor>>();
+            for (int from = 0; from < rowCount; from += s_chunkSize) {
+                final int fromRowIndex = from;
+                final int toRowIndex = Math.min(rowCount, from + s_chunkSize);
+                final MergeableRowVisitor partialVisitor = visitor.createPartialVisitor();
+                
+                futures.add(s_executor.submit(new Callable<MergeableRowVisitor>() {
+                    @Override
+                    public MergeableRowVisitor call() {
+                        visitChunk(project, partialVisitor, rowFilter, fromRowIndex, toRowIndex);
+                        return partialVisitor;
+                    }
+                }));
+            }
+            
+            try {
+                for (Future<MergeableRowVisitor> future : futures) {
+                    visitor.merge(future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new RuntimeException(cause);
+            } finally {
+                for (Future<MergeableRowVisitor> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        } finally {
+            visitor.end(project);
+        }
+    }
+    
+    static protected void visitChunk(
+        Project project, MergeableRowVisitor partialVisitor, RowFilter rowFilter,
+        int fromRowIndex, int toRowIndex) {
+        
+        try {
+            partialVisitor.start(project);
+            
+            for (int rowIndex = fromRowIndex; rowIndex < toRowIndex; rowIndex++) {
+                Row row = project.rows.get(rowIndex);
+                if (rowFilter.filterRow(project, rowIndex, row)) {
+                    partialVisitor.visit(project, rowIndex, row);
+                }
+            }
+        } finally {
+            partialVisitor.end(project);
+        }
+    }
+}
@@ -47,10 +47,9 @@ import org.json.JSONWriter;
 
 import com.google.refine.browsing.Engine;
 import com.google.refine.browsing.Engine.Mode;
-import com.google.refine.browsing.FilteredRecords;
-import com.google.refine.browsing.FilteredRows;
 import com.google.refine.browsing.RecordVisitor;
 import com.google.refine.browsing.RowVisitor;
+import com.google.refine.browsing.util.FilteredIndex;
 import com.google.refine.commands.Command;
 import com.google.refine.importing.ImportingJob;
 import com.google.refine.importing.ImportingManager;
@@ -129,40 +128,56 @@ public class GetRowsCommand extends Command {
             }
 
             if (engine.getMode() == Mode.RowBased) {
-                FilteredRows filteredRows = engine.getAllFilteredRows();
-                RowVisitor visitor = rwv;
-                
+                SortingRowVisitor srv = null;
                 if (sortingJson != null) {
-                    SortingRowVisitor srv = new SortingRowVisitor(visitor);
-                    
+                    srv = new SortingRowVisitor(rwv);
                     srv.initializeFromJSON(project, sortingJson);
-                    if (srv.hasCriteria()) {
-                        visitor = srv;
-                    }
                 }
                 
                 jsonWriter.key("mode"); jsonWriter.value("row-based");
                 jsonWriter.key("rows"); jsonWriter.array();
-                filteredRows.accept(project, visitor);
+                if (srv != null && srv.hasCriteria()) {
+                    // sorted pages get served out of the cached sort order
+                    int[] indices = srv.sort(project, engine);
+                    for (int i = start; i < indices.length && i < start + limit; i++) {
+                        rwv.internalVisit(project, indices[i], project.rows.get(indices[i]));
+                    }
+                    rwv.total = indices.length;
+                } else {
+                    // unsorted pages get served straight out of the cached filtered rows
+                    FilteredIndex index = engine.getFilteredIndex();
+                    int count = 0;
+                    for (int r = index.get(start); r >= 0 && count < limit; r = index.next(r + 1), count++) {
+                        rwv.internalVisit(project, r, project.rows.get(r));
+                    }
+                    rwv.total = index.size();
+                }
                 jsonWriter.endArray();
                 jsonWriter.key("filtered"); jsonWriter.value(rwv.total);
                 jsonWriter.key("total"); jsonWriter.value(project.rows.size());
             } else {
-                FilteredRecords filteredRecords = engine.getFilteredRecords();
-                RecordVisitor visitor = rwv;
-                
+                SortingRecordVisitor srv = null;
                 if (sortingJson != null) {
-                    SortingRecordVisitor srv = new SortingRecordVisitor(visitor);
-                    
+                    srv = new SortingRecordVisitor(rwv);
                     srv.initializeFromJSON(project, sortingJson);
-                    if (srv.hasCriteria()) {
-                        visitor = srv;
-                    }
                 }
                 
                 jsonWriter.key("mode"); jsonWriter.value("record-based");
                 jsonWriter.key("rows"); jsonWriter.array();
-                filteredRecords.accept(project, visitor);
+                if (srv != null && srv.hasCriteria()) {
+                    int[] indices = srv.sort(project, engine);
+                    for (int i = start; i < indices.length && i < start + limit; i++) {
+                        rwv.internalVisit(project, project.recordModel.getRecord(indices[i]));
+                    }
+                    rwv.total = indices.length;
+                } else {
+                    FilteredIndex index = engine.getFilteredIndex();
+                    int count = 0;
+                    for (int r = index.get(start); r >= 0 && count < limit; r = index.next(r + 1), count++) {
+                        rwv.internalVisit(project, project.recordModel.getRecord(r));
+                    }
+                    rwv.total = index.size();
+                }
                 jsonWriter.endArray();
                 jsonWriter.key("filtered"); jsonWriter.value(rwv.total);
                 jsonWriter.key("total"); jsonWriter.value(project.recordModel.getRecordCount());
@@ -0,0 +1,169 @@
+/*
+
+Copyright 2010, Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,           
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY           
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package com.google.refine.expr;
+
+import java.util.Properties;
+
+import com.google.refine.model.Cell;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+
+/**
+ * Bindings for evaluating expressions on one row after another. The variables that
+ * get rebound on every row are kept in slots rather than in the underlying hash table,
+ * and the row and cell wrappers are only created if an expression reads them. Binding
+ * a row thus costs a few field writes, and an expression like value.trim() evaluates
+ * without allocating anything for its bindings.
+ * 
+ * All other variables, such as those of binders and of GREL controls, live in the hash
+ * table as before, so this can be used wherever bindings are passed as Properties.
+ */
+public class BindingFrame extends Properties {
+    private static final long serialVersionUID = -3416536839140525416L;
+    
+    static final public int SLOT_VALUE = 0;
+    static final public int SLOT_CELL = 1;
+    static final public int SLOT_CELLS = 2;
+    static final public int SLOT_ROW = 3;
+    static final public int SLOT_ROW_INDEX = 4;
+    static final public int SLOT_COLUMN_NAME = 5;
+    static final public int SLOT_PROJECT = 6;
+    
+    static final protected String[] s_slotNames = {
+        "value", "cell", "cells", "row", "rowIndex", "columnName", "project"
+    };
+    
+    /**
+     * Marks a slot whose content is to be created from the bound row or cell when read.
+     */
+    static final protected Object s_unwrapped = new Object();
+    
+    final protected Object[] _slots = new Object[s_slotNames.length];
+    
+    protected Project   _project;
+    protected Row       _row;
+    protected int       _rowIndex;
+    protected String    _columnName;
+    protected Cell      _cell;
+    
+    /**
+     * Returns the slot of the given variable, or -1 if the variable is not kept in a slot.
+     */
+    static public int getSlot(String name) {
+        for (int i = 0; i < s_slotNames.length; i++) {
+            if (s_slotNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    public void bind(Project project, Row row, int rowIndex, String columnName, Cell cell) {
+        _project = project;
+        _row = row;
+        _rowIndex = rowIndex;
+        _columnName = columnName;
+        _cell = cell;
+        
+        _slots[SLOT_ROW_INDEX] = s_unwrapped;
+        _slots[SLOT_ROW] = s_unwrapped;
+        _slots[SLOT_CELLS] = s_unwrapped;
+        
+        if (columnName != null) {
+            _slots[SLOT_COLUMN_NAME] = columnName;
+        }
+        
+        if (cell == null) {
+            _slots[SLOT_CELL] = null;
+            _slots[SLOT_VALUE] = null;
+        } else {
+            _slots[SLOT_CELL] = s_unwrapped;
+            _slots[SLOT_VALUE] = cell.value;
+        }
+    }
+    
+    public Object getSlotValue(int slot) {
+        Object o = _slots[slot];
+        if (o == s_unwrapped) {
+            switch (slot) {
+            case SLOT_CELL: o = new WrappedCell(_project, _columnName, _cell); break;
+            case SLOT_CELLS: o = new CellTuple(_project, _row); break;
+            case SLOT_ROW: o = new WrappedRow(_project, _rowIndex, _row); break;
+            default: o = _rowIndex;
+            }
+            _slots[slot] = o;
+        }
+        return o;
+    }
+    
+    @Override
+    public Object get(Object key) {
+        int slot = key instanceof String ? getSlot((String) key) : -1;
+        return slot >= 0 ? getSlotValue(slot) : super.get(key);
+    }
+    
+    @Override
+    public Object put(Object key, Object value) {
+        int slot = key instanceof String ? getSlot((String) key) : -1;
+        if (slot < 0) {
+            return super.put(key, value);
+        } else if (value == null) {
+            throw new NullPointerException();
+        }
+        
+        Object old = getSlotValue(slot);
+        _slots[slot] = value;
+        if (slot == SLOT_PROJECT && value instanceof Project) {
+            _project = (Project) value;
+        }
+        return old;
+    }
+    
+    @Override
+    public Object remove(Object key) {
+        int slot = key instanceof String ? getSlot((String) key) : -1;
+        if (slot < 0) {
+            return super.remove(key);
+        }
+        
+        Object old = getSlotValue(slot);
+        _slots[slot] = null;
+        return old;
+    }
+    
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+}
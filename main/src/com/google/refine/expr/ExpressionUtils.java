@@ -57,7 +57,7 @@ public class ExpressionUtils {
     }
 
     static public Properties createBindings(Project project) {
-        Properties bindings = new Properties();
+        Properties bindings = new BindingFrame();
 
         bindings.put("true", true);
         bindings.put("false", false);
@@ -75,6 +75,18 @@ public class ExpressionUtils {
     static public void bind(Properties bindings, Row row, int rowIndex, String columnName, Cell cell) {
         Project project = (Project) bindings.get("project");
 
+        if (bindings instanceof BindingFrame) {
+            ((BindingFrame) bindings).bind(project, row, rowIndex, columnName, cell);
+        } else {
+            bindUnframed(bindings, project, row, rowIndex, columnName, cell);
+        }
+
+        for (Binder binder : s_binders) {
+            binder.bind(bindings, row, rowIndex, columnName, cell);
+        }
+    }
+
+    static protected void bindUnframed(Properties bindings, Project project, Row row, int rowIndex, String columnName, Cell cell) {
         bindings.put("rowIndex", rowIndex);
         bindings.put("row", new WrappedRow(project, rowIndex, row));
         bindings.put("cells", new CellTuple(project, row));
@@ -94,10 +106,6 @@ public class ExpressionUtils {
                 bindings.put("value", cell.value);
             }
         }
-
-        for (Binder binder : s_binders) {
-            binder.bind(bindings, row, rowIndex, columnName, cell);
-        }
     }
 
     static public boolean isError(Object o) {
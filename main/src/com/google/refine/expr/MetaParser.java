@@ -35,12 +35,15 @@ package com.google.refine.expr;
 
 import java.io.StringReader;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
 import clojure.lang.IFn;
 
+import com.google.refine.ProjectManager;
+import com.google.refine.grel.ExpressionCompiler;
 import com.google.refine.grel.Parser;
 
 abstract public class MetaParser {
@@ -57,6 +60,26 @@ abstract public class MetaParser {
     }
     
     static protected Map<String, LanguageInfo> s_languages;
+    
+    static final protected int s_maxCachedEvaluables = 1024;
+    
+    /**
+     * Parsed expressions, by language prefix and expression text. The same few
+     * expressions get parsed again on every request from facets, previews and
+     * operations, and evaluables hold no state of their own, so they can be shared.
+     */
+    static final protected Map<String, Evaluable> s_evaluables =
+        new LinkedHashMap<String, Evaluable>(16, 0.75f, true) {
+            private static final long serialVersionUID = -2542532361455457335L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Evaluable> eldest) {
+                return size() > s_maxCachedEvaluables;
+            }
+        };
+    static protected long s_lookups;
+    static protected long s_hits;
+    
     static {
         s_languages = new HashMap<String, LanguageInfo>();
         
@@ -109,6 +132,8 @@ abstract public class MetaParser {
     
     static public void registerLanguageParser(String languagePrefix, String name, LanguageSpecificParser parser, String defaultExpression) {
         s_languages.put(languagePrefix, new LanguageInfo(name, parser, defaultExpression));
+        
+        clearCache(); // in case an earlier parser got replaced
     }
     
     static public LanguageInfo getLanguageInfo(String languagePrefix) {
@@ -140,16 +165,72 @@ abstract public class MetaParser {
         }
         
         LanguageInfo info = s_languages.get(language.toLowerCase());
-        if (info != null) {
-            return info.parser.parse(s.substring(colon + 1));
-        } else {
-            return parseGREL(s);
+        String key = info != null ? language + ":" + s.substring(colon + 1) : "grel:" + s;
+        if (key.startsWith("grel:") && isGRELCompilationEnabled()) {
+            // cached apart from interpreted GREL, so that changing the preference takes effect
+            key = "compiled-" + key;
+        }
+        
+        synchronized (s_evaluables) {
+            s_lookups++;
+            
+            Evaluable evaluable = s_evaluables.get(key);
+            if (evaluable != null) {
+                s_hits++;
+                return evaluable;
+            }
+        }
+        
+        // parse outside the lock, as compiling e.g. Clojure can take a while
+        Evaluable evaluable = info != null ? info.parser.parse(s.substring(colon + 1)) : parseGREL(s);
+        synchronized (s_evaluables) {
+            s_evaluables.put(key, evaluable);
+        }
+        return evaluable;
+    }
+    
+    static public void clearCache() {
+        synchronized (s_evaluables) {
+            s_evaluables.clear();
+        }
+    }
+    
+    static public long getLookupCount() {
+        synchronized (s_evaluables) {
+            return s_lookups;
+        }
+    }
+    
+    static public long getHitCount() {
+        synchronized (s_evaluables) {
+            return s_hits;
+        }
+    }
+    
+    static public double getHitRate() {
+        synchronized (s_evaluables) {
+            return s_lookups > 0 ? (double) s_hits / s_lookups : 0;
+        }
+    }
+    
+    static public int getCachedCount() {
+        synchronized (s_evaluables) {
+            return s_evaluables.size();
         }
     }
     
     static protected Evaluable parseGREL(String s) throws ParsingException {
         Parser parser = new Parser(s);
         
-        return parser.getExpression();
+        Evaluable eval = parser.getExpression();
+        return isGRELCompilationEnabled() ? ExpressionCompiler.compile(eval) : eval;
+    }
+    
+    static protected boolean isGRELCompilationEnabled() {
+        if (ProjectManager.singleton == null) {
+            return false;
+        }
+        Object v = ProjectManager.singleton.getPreferenceStore().get("expressions.grel.compile");
+        return v != null && Boolean.parseBoolean(v.toString());
     }
 }
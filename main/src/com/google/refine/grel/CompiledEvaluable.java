@@ -0,0 +1,76 @@
+/*
+
+Copyright 2010,2011. Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package com.google.refine.grel;
+
+import java.util.Properties;
+
+import com.google.refine.expr.BindingFrame;
+import com.google.refine.expr.Evaluable;
+
+/**
+ * Base class of the classes that ExpressionCompiler generates for GREL expressions.
+ * The generated code reads the expression's constants, functions and uncompiled
+ * subexpressions from the constants array, and calls the static methods here and
+ * on the AST node classes for anything more than reading and passing values around.
+ */
+abstract public class CompiledEvaluable implements Evaluable {
+    static final protected Object[] s_noArgs = new Object[0];
+    
+    final protected Object[]  _constants;
+    final protected Evaluable _source;
+    
+    protected CompiledEvaluable(Object[] constants, Evaluable source) {
+        _constants = constants;
+        _source = source;
+    }
+    
+    /**
+     * Returns the parsed expression that this was compiled from.
+     */
+    public Evaluable getSource() {
+        return _source;
+    }
+    
+    static public Object getVariable(Properties bindings, int slot, String name) {
+        if (slot >= 0 && bindings instanceof BindingFrame) {
+            return ((BindingFrame) bindings).getSlotValue(slot);
+        }
+        return bindings.get(name);
+    }
+    
+    @Override
+    public String toString() {
+        return _source.toString();
+    }
+}
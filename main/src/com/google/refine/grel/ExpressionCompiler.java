@@ -0,0 +1,278 @@
+/*
+
+Copyright 2010,2011. Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package com.google.refine.grel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import clojure.asm.ClassWriter;
+import clojure.asm.Label;
+import clojure.asm.MethodVisitor;
+import clojure.asm.Opcodes;
+import clojure.asm.Type;
+
+import com.google.refine.expr.BindingFrame;
+import com.google.refine.expr.EvalError;
+import com.google.refine.expr.Evaluable;
+import com.google.refine.grel.ast.ArithmeticExpr;
+import com.google.refine.grel.ast.ComparisonExpr;
+import com.google.refine.grel.ast.ControlCallExpr;
+import com.google.refine.grel.ast.FieldAccessorExpr;
+import com.google.refine.grel.ast.FunctionCallExpr;
+import com.google.refine.grel.ast.LiteralExpr;
+import com.google.refine.grel.ast.OperatorCallExpr;
+import com.google.refine.grel.ast.VariableExpr;
+
+/**
+ * Compiles parsed GREL expressions into JVM classes, so that evaluating an expression
+ * runs as one method of straight-line code that the JIT can optimize as a whole,
+ * rather than as a virtual call per node of the tree.
+ * 
+ * Literals, variables, operators, function calls and field accessors get compiled.
+ * Anything else, such as control calls and nodes from extensions, stays interpreted
+ * and gets called from the compiled code, though the arguments of control calls get
+ * compiled on their own. Classes are generated with the copy of ASM bundled with
+ * Clojure, and each gets its own class loader, so that it can be unloaded along with
+ * its expression.
+ */
+public class ExpressionCompiler implements Opcodes {
+    final static protected Logger logger = LoggerFactory.getLogger("expression_compiler");
+    
+    static final protected AtomicInteger s_classCount = new AtomicInteger();
+    
+    static final protected String s_baseClass = Type.getInternalName(CompiledEvaluable.class);
+    static final protected String s_objectDesc = Type.getDescriptor(Object.class);
+    static final protected String s_propertiesDesc = Type.getDescriptor(Properties.class);
+    
+    static protected class CompiledClassLoader extends ClassLoader {
+        CompiledClassLoader() {
+            super(CompiledEvaluable.class.getClassLoader());
+        }
+        
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+    
+    /**
+     * Compiles an expression, or returns it as it is if compiling it would not help
+     * or if it could not be compiled.
+     */
+    static public Evaluable compile(Evaluable eval) {
+        if (!isCompound(eval)) {
+            return eval;
+        }
+        
+        try {
+            return new ExpressionCompiler().generate(eval);
+        } catch (Exception e) {
+            logger.warn("Failed to compile expression " + eval, e);
+            return eval;
+        } catch (LinkageError e) {
+            logger.warn("Failed to load compiled expression " + eval, e);
+            return eval;
+        }
+    }
+    
+    static protected boolean isCompound(Evaluable eval) {
+        Class<?> c = eval.getClass();
+        return c == ArithmeticExpr.class || c == ComparisonExpr.class || c == FunctionCallExpr.class ||
+            c == FieldAccessorExpr.class || c == ControlCallExpr.class;
+    }
+    
+    final protected List<Object> _constants = new ArrayList<Object>();
+    protected MethodVisitor      _mv;
+    protected String             _className;
+    
+    protected Evaluable generate(Evaluable eval) throws Exception {
+        String name = "com.google.refine.grel.compiled.Expression" + s_classCount.incrementAndGet();
+        _className = name.replace('.', '/');
+        
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_5, ACC_PUBLIC + ACC_FINAL + ACC_SUPER, _className, null, s_baseClass, null);
+        
+        String constructorDesc = "([" + s_objectDesc + Type.getDescriptor(Evaluable.class) + ")V";
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", constructorDesc, null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitMethodInsn(INVOKESPECIAL, s_baseClass, "<init>", constructorDesc);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        
+        _mv = cw.visitMethod(ACC_PUBLIC, "evaluate", "(" + s_propertiesDesc + ")" + s_objectDesc, null, null);
+        _mv.visitCode();
+        emit(eval);
+        _mv.visitInsn(ARETURN);
+        _mv.visitMaxs(0, 0);
+        _mv.visitEnd();
+        
+        cw.visitEnd();
+        
+        Class<?> c = new CompiledClassLoader().define(name, cw.toByteArray());
+        return (Evaluable) c.getConstructor(Object[].class, Evaluable.class)
+            .newInstance(_constants.toArray(), eval);
+    }
+    
+    /**
+     * Emits code that leaves the value of the given expression on the stack.
+     */
+    protected void emit(Evaluable eval) {
+        Class<?> c = eval.getClass();
+        if (c == LiteralExpr.class) {
+            Object v = ((LiteralExpr) eval).getValue();
+            if (v == null) {
+                _mv.visitInsn(ACONST_NULL);
+            } else {
+                emitConstant(v, Object.class);
+            }
+        } else if (c == VariableExpr.class) {
+            String name = ((VariableExpr) eval).getName();
+            
+            _mv.visitVarInsn(ALOAD, 1);
+            emitInt(BindingFrame.getSlot(name));
+            _mv.visitLdcInsn(name);
+            emitStaticCall(CompiledEvaluable.class, "getVariable", Properties.class, int.class, String.class);
+        } else if (c == ArithmeticExpr.class || c == ComparisonExpr.class) {
+            OperatorCallExpr op = (OperatorCallExpr) eval;
+            
+            emitChecked(op.getArgs()[0]);
+            emitChecked(op.getArgs()[1]);
+            if (c == ArithmeticExpr.class) {
+                emitInt(ArithmeticExpr.getOpCode(op.getOp()));
+            } else {
+                emitInt(ComparisonExpr.getOpCode(op.getOp()));
+            }
+            emitStaticCall(c, "apply", Object.class, Object.class, int.class);
+        } else if (c == FunctionCallExpr.class) {
+            FunctionCallExpr call = (FunctionCallExpr) eval;
+            Evaluable[] args = call.getArgs();
+            
+            emitConstant(call.getFunction(), Function.class);
+            if (args.length == 0) {
+                _mv.visitFieldInsn(GETSTATIC, s_baseClass, "s_noArgs", "[" + s_objectDesc);
+            } else {
+                emitInt(args.length);
+                _mv.visitTypeInsn(ANEWARRAY, Type.getInternalName(Object.class));
+                for (int i = 0; i < args.length; i++) {
+                    _mv.visitInsn(DUP);
+                    emitInt(i);
+                    emitChecked(args[i]);
+                    _mv.visitInsn(AASTORE);
+                }
+            }
+            _mv.visitVarInsn(ALOAD, 1);
+            emitStaticCall(FunctionCallExpr.class, "call", Function.class, Object[].class, Properties.class);
+        } else if (c == FieldAccessorExpr.class) {
+            FieldAccessorExpr accessor = (FieldAccessorExpr) eval;
+            
+            emitChecked(accessor.getInner());
+            _mv.visitLdcInsn(accessor.getFieldName());
+            _mv.visitVarInsn(ALOAD, 1);
+            emitStaticCall(FieldAccessorExpr.class, "getField", Object.class, String.class, Properties.class);
+        } else {
+            if (c == ControlCallExpr.class) {
+                // controls decide when and how often to evaluate their arguments,
+                // so we leave them be, but compile the arguments themselves
+                ControlCallExpr call = (ControlCallExpr) eval;
+                Evaluable[] args = call.getArgs().clone();
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = compile(args[i]);
+                }
+                eval = new ControlCallExpr(args, call.getControl());
+            }
+            
+            emitConstant(eval, Evaluable.class);
+            _mv.visitVarInsn(ALOAD, 1);
+            _mv.visitMethodInsn(INVOKEINTERFACE, Type.getInternalName(Evaluable.class),
+                "evaluate", "(" + s_propertiesDesc + ")" + s_objectDesc);
+        }
+    }
+    
+    /**
+     * Emits code that leaves the value of the given expression on the stack, or returns
+     * it right away if it is an error.
+     */
+    protected void emitChecked(Evaluable eval) {
+        emit(eval);
+        if (eval.getClass() != LiteralExpr.class) {
+            Label notError = new Label();
+            
+            _mv.visitInsn(DUP);
+            _mv.visitTypeInsn(INSTANCEOF, Type.getInternalName(EvalError.class));
+            _mv.visitJumpInsn(IFEQ, notError);
+            _mv.visitInsn(ARETURN);
+            _mv.visitLabel(notError);
+        }
+    }
+    
+    protected void emitConstant(Object v, Class<?> type) {
+        _mv.visitVarInsn(ALOAD, 0);
+        _mv.visitFieldInsn(GETFIELD, s_baseClass, "_constants", "[" + s_objectDesc);
+        emitInt(_constants.size());
+        _mv.visitInsn(AALOAD);
+        if (type != Object.class) {
+            _mv.visitTypeInsn(CHECKCAST, Type.getInternalName(type));
+        }
+        _constants.add(v);
+    }
+    
+    protected void emitInt(int n) {
+        if (n >= -1 && n <= 5) {
+            _mv.visitInsn(ICONST_0 + n);
+        } else if (n >= Byte.MIN_VALUE && n <= Byte.MAX_VALUE) {
+            _mv.visitIntInsn(BIPUSH, n);
+        } else if (n >= Short.MIN_VALUE && n <= Short.MAX_VALUE) {
+            _mv.visitIntInsn(SIPUSH, n);
+        } else {
+            _mv.visitLdcInsn(n);
+        }
+    }
+    
+    protected void emitStaticCall(Class<?> owner, String name, Class<?>... parameterTypes) {
+        Type[] types = new Type[parameterTypes.length];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = Type.getType(parameterTypes[i]);
+        }
+        _mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(owner), name,
+            Type.getMethodDescriptor(Type.getType(Object.class), types));
+    }
+}
@@ -33,8 +33,11 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.google.refine.grel;
 
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Properties;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import com.google.refine.expr.Evaluable;
@@ -44,6 +47,8 @@ import com.google.refine.grel.Scanner.NumberToken;
 import com.google.refine.grel.Scanner.RegexToken;
 import com.google.refine.grel.Scanner.Token;
 import com.google.refine.grel.Scanner.TokenType;
+import com.google.refine.grel.ast.ArithmeticExpr;
+import com.google.refine.grel.ast.ComparisonExpr;
 import com.google.refine.grel.ast.ControlCallExpr;
 import com.google.refine.grel.ast.FieldAccessorExpr;
 import com.google.refine.grel.ast.FunctionCallExpr;
@@ -52,6 +57,29 @@ import com.google.refine.grel.ast.OperatorCallExpr;
 import com.google.refine.grel.ast.VariableExpr;
 
 public class Parser {
+    /**
+     * Functions whose results only depend on their arguments, so that calls to them
+     * with constant arguments can be evaluated once, while parsing.
+     */
+    static final protected String[] s_foldableFunctionNames = {
+        "toString", "toNumber", "toUppercase", "toLowercase", "toTitlecase",
+        "slice", "substring", "replace", "replaceChars", "trim", "strip", "contains",
+        "escape", "unescape", "length", "sha1", "md5", "chomp", "fingerprint",
+        "indexOf", "lastIndexOf", "startsWith", "endsWith",
+        "round", "floor", "ceil", "abs", "mod", "min", "max", "pow", "exp", "log", "ln",
+        "and", "or", "not"
+    };
+    
+    static protected Set<Function> s_foldableFunctions;
+    
+    /**
+     * Functions whose results depend on more than the rows of the project that they
+     * are evaluated on, like the rows of other projects or the current time.
+     */
+    static final protected String[] s_externalFunctionNames = {
+        "cross", "now"
+    };
+    
     protected Scanner   _scanner;
     protected Token     _token;
     protected Evaluable _root;
@@ -71,6 +99,125 @@ public class Parser {
         return _root;
     }
 
+    /**
+     * Makes the node for a binary operator, with a node class dedicated to the
+     * operator where there is one, and evaluates it right away if both operands
+     * are constants.
+     */
+    protected Evaluable makeOperatorCall(Evaluable arg1, Evaluable arg2, String op) {
+        Evaluable eval;
+        if (ArithmeticExpr.isArithmeticOperator(op)) {
+            eval = new ArithmeticExpr(arg1, arg2, op);
+        } else if (ComparisonExpr.isComparisonOperator(op)) {
+            eval = new ComparisonExpr(arg1, arg2, op);
+        } else {
+            eval = new OperatorCallExpr(new Evaluable[] { arg1, arg2 }, op);
+        }
+        return isConstant(arg1) && isConstant(arg2) ? fold(eval) : eval;
+    }
+
+    /**
+     * Makes the node for a function call, and evaluates it right away if the function
+     * is known to have no side effects and all of its arguments are constants.
+     */
+    protected Evaluable makeFunctionCall(Evaluable[] args, Function f) {
+        Evaluable eval = new FunctionCallExpr(args, f);
+        if (!getFoldableFunctions().contains(f)) {
+            return eval;
+        }
+        for (Evaluable arg : args) {
+            if (!isConstant(arg)) {
+                return eval;
+            }
+        }
+        return fold(eval);
+    }
+
+    static protected Set<Function> getFoldableFunctions() {
+        synchronized (s_foldableFunctionNames) {
+            if (s_foldableFunctions == null) {
+                Set<Function> functions = new HashSet<Function>();
+                for (String name : s_foldableFunctionNames) {
+                    Function f = ControlFunctionRegistry.getFunction(name);
+                    if (f != null) {
+                        functions.add(f);
+                    }
+                }
+                s_foldableFunctions = functions;
+            }
+            return s_foldableFunctions;
+        }
+    }
+
+    /**
+     * Tells whether evaluating a parsed expression on the rows of a project gives the
+     * same results for as long as the project's data doesn't change, so that these
+     * results can be cached by the project's change version. Expressions that are
+     * not GREL are assumed not to.
+     */
+    static public boolean dependsOnlyOnProject(Evaluable eval) {
+        if (eval instanceof CompiledEvaluable) {
+            eval = ((CompiledEvaluable) eval).getSource();
+        }
+        
+        Evaluable[] args;
+        if (eval instanceof LiteralExpr || eval instanceof VariableExpr) {
+            return true;
+        } else if (eval instanceof FieldAccessorExpr) {
+            return dependsOnlyOnProject(((FieldAccessorExpr) eval).getInner());
+        } else if (eval instanceof FunctionCallExpr) {
+            String name = ControlFunctionRegistry.getFunctionName(((FunctionCallExpr) eval).getFunction());
+            for (String externalName : s_externalFunctionNames) {
+                if (externalName.equals(name)) {
+                    return false;
+                }
+            }
+            args = ((FunctionCallExpr) eval).getArgs();
+        } else if (eval instanceof ControlCallExpr) {
+            args = ((ControlCallExpr) eval).getArgs();
+        } else if (eval instanceof OperatorCallExpr) {
+            args = ((OperatorCallExpr) eval).getArgs();
+        } else {
+            return false;
+        }
+        
+        for (Evaluable arg : args) {
+            if (!dependsOnlyOnProject(arg)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Constants are literals holding immutable values, which can be shared by all
+     * evaluations of an expression.
+     */
+    static protected boolean isConstant(Evaluable eval) {
+        return eval instanceof LiteralExpr && isImmutable(((LiteralExpr) eval).getValue());
+    }
+
+    static protected boolean isImmutable(Object v) {
+        return v instanceof String || v instanceof Number || v instanceof Boolean || v instanceof Pattern;
+    }
+
+    /**
+     * Evaluates a node whose operands are all constants into a literal, unless that
+     * fails or does not give a constant, in which case the node is left to fail or to
+     * produce its value on every evaluation as before.
+     */
+    static protected Evaluable fold(Evaluable eval) {
+        try {
+            Object v = eval.evaluate(new Properties());
+            if (isImmutable(v)) {
+                return new LiteralExpr(v);
+            }
+        } catch (Exception e) {
+            // leave it to be evaluated later
+        }
+        return eval;
+    }
+
     protected void next(boolean regexPossible) {
         _token = _scanner.next(regexPossible);
     }
@@ -98,7 +245,7 @@ public class Parser {
 
             Evaluable sub2 = parseSubExpression();
 
-            sub = new OperatorCallExpr(new Evaluable[] { sub, sub2 }, op);
+            sub = makeOperatorCall(sub, sub2, op);
         }
 
         return sub;
@@ -121,7 +268,7 @@ public class Parser {
 
             Evaluable sub2 = parseTerm();
 
-            sub = new OperatorCallExpr(new Evaluable[] { sub, sub2 }, op);
+            sub = makeOperatorCall(sub, sub2, op);
         }
 
         return sub;
@@ -144,7 +291,7 @@ public class Parser {
 
             Evaluable factor2 = parseFactor();
 
-            factor = new OperatorCallExpr(new Evaluable[] { factor, factor2 }, op);
+            factor = makeOperatorCall(factor, factor2, op);
         }
 
         return factor;
@@ -224,7 +371,7 @@ public class Parser {
                     }
                     eval = new ControlCallExpr(argsA, c);
                 } else {
-                    eval = new FunctionCallExpr(makeArray(args), f);
+                    eval = makeFunctionCall(makeArray(args), f);
                 }
             }
         } else if (_token.type == TokenType.Delimiter && _token.text.equals("(")) {
@@ -242,7 +389,7 @@ public class Parser {
 
             List<Evaluable> args = parseExpressionList("]");
 
-            eval = new FunctionCallExpr(makeArray(args), new ArgsToArray());
+            eval = makeFunctionCall(makeArray(args), new ArgsToArray());
         } else {
             throw makeException("Missing number, string, identifier, regex, or parenthesized expression");
         }
@@ -269,7 +416,7 @@ public class Parser {
                     List<Evaluable> args = parseExpressionList(")");
                     args.add(0, eval);
 
-                    eval = new FunctionCallExpr(makeArray(args), f);
+                    eval = makeFunctionCall(makeArray(args), f);
                 } else {
                     eval = new FieldAccessorExpr(eval, identifier);
                 }
@@ -279,7 +426,7 @@ public class Parser {
                 List<Evaluable> args = parseExpressionList("]");
                 args.add(0, eval);
 
-                eval = new FunctionCallExpr(makeArray(args), ControlFunctionRegistry.getFunction("get"));
+                eval = makeFunctionCall(makeArray(args), ControlFunctionRegistry.getFunction("get"));
             } else {
                 break;
             }
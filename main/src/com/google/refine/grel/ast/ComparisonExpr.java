@@ -0,0 +1,130 @@
+/*
+
+Copyright 2010, Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package com.google.refine.grel.ast;
+
+import java.util.Properties;
+
+import com.google.refine.expr.Evaluable;
+import com.google.refine.expr.ExpressionUtils;
+
+/**
+ * An abstract syntax tree node encapsulating one of the comparison operators
+ * "<", "<=", ">", ">=", "==" and "!=" applied to two operands. It evaluates the
+ * same way as the generic OperatorCallExpr, but without allocating an argument
+ * array or comparing operator strings on every call.
+ */
+public class ComparisonExpr extends OperatorCallExpr {
+    static final protected String[] s_ops = { "<", "<=", ">", ">=", "==", "!=" };
+    
+    static final protected int LESS = 0;
+    static final protected int LESS_OR_EQUAL = 1;
+    static final protected int GREATER = 2;
+    static final protected int GREATER_OR_EQUAL = 3;
+    static final protected int EQUAL = 4;
+    static final protected int NOT_EQUAL = 5;
+    
+    static public boolean isComparisonOperator(String op) {
+        return getOpCode(op) >= 0;
+    }
+    
+    static public int getOpCode(String op) {
+        for (int i = 0; i < s_ops.length; i++) {
+            if (s_ops[i].equals(op)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    final protected int _opCode;
+    
+    public ComparisonExpr(Evaluable arg1, Evaluable arg2, String op) {
+        super(new Evaluable[] { arg1, arg2 }, op);
+        _opCode = getOpCode(op);
+    }
+
+    @Override
+    public Object evaluate(Properties bindings) {
+        Object v1 = _args[0].evaluate(bindings);
+        if (ExpressionUtils.isError(v1)) {
+            return v1;
+        }
+        Object v2 = _args[1].evaluate(bindings);
+        if (ExpressionUtils.isError(v2)) {
+            return v2;
+        }
+        
+        return apply(v1, v2, _opCode);
+    }
+    
+    /**
+     * Applies the operator with the given code to two operands that are not errors.
+     */
+    static public Object apply(Object v1, Object v2, int opCode) {
+        if (v1 != null && v2 != null) {
+            if (isIntegral(v1) && isIntegral(v2)) {
+                long n1 = ((Number) v1).longValue();
+                long n2 = ((Number) v2).longValue();
+                
+                switch (opCode) {
+                case LESS: return n1 < n2;
+                case LESS_OR_EQUAL: return n1 <= n2;
+                case GREATER: return n1 > n2;
+                case GREATER_OR_EQUAL: return n1 >= n2;
+                case EQUAL: return n1 == n2;
+                default: return n1 != n2;
+                }
+            } else if (v1 instanceof Number && v2 instanceof Number) {
+                double n1 = ((Number) v1).doubleValue();
+                double n2 = ((Number) v2).doubleValue();
+                
+                switch (opCode) {
+                case LESS: return n1 < n2;
+                case LESS_OR_EQUAL: return n1 <= n2;
+                case GREATER: return n1 > n2;
+                case GREATER_OR_EQUAL: return n1 >= n2;
+                case EQUAL: return n1 == n2;
+                default: return n1 != n2;
+                }
+            }
+        }
+        
+        if (opCode == EQUAL) {
+            return v1 != null ? v1.equals(v2) : v2 == null;
+        } else if (opCode == NOT_EQUAL) {
+            return v1 != null ? !v1.equals(v2) : v2 != null;
+        }
+        return null;
+    }
+}
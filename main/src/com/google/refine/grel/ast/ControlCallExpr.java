@@ -60,6 +60,14 @@ public class ControlCallExpr implements Evaluable {
         }
     }
 
+    public Evaluable[] getArgs() {
+        return _args;
+    }
+    
+    public Control getControl() {
+        return _control;
+    }
+
     @Override
     public String toString() {
         StringBuffer sb = new StringBuffer();
@@ -59,24 +59,35 @@ public class FieldAccessorExpr implements Evaluable {
     
     @Override
     public Object evaluate(Properties bindings) {
-        Object o = _inner.evaluate(bindings);
+        return getField(_inner.evaluate(bindings), _fieldName, bindings);
+    }
+    
+    static public Object getField(Object o, String fieldName, Properties bindings) {
         if (ExpressionUtils.isError(o)) {
             return o; // bubble the error up
         } else if (o == null) {
             return new EvalError("Cannot retrieve field from null");
         } else if (o instanceof HasFields) {
-            return ((HasFields) o).getField(_fieldName, bindings);
+            return ((HasFields) o).getField(fieldName, bindings);
         } else if (o instanceof JSONObject) {
             try {
-                return ((JSONObject) o).get(_fieldName);
+                return ((JSONObject) o).get(fieldName);
             } catch (JSONException e) {
-                return new EvalError("Object does not have any field, including " + _fieldName);
+                return new EvalError("Object does not have any field, including " + fieldName);
             }
         } else {
-            return new EvalError("Object does not have any field, including " + _fieldName);
+            return new EvalError("Object does not have any field, including " + fieldName);
         }
     }
 
+    public Evaluable getInner() {
+        return _inner;
+    }
+    
+    public String getFieldName() {
+        return _fieldName;
+    }
+
     @Override
     public String toString() {
         return _inner.toString() + "." + _fieldName;
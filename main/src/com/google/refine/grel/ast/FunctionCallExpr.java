@@ -47,6 +47,8 @@ import com.google.refine.grel.Function;
  * the result of the expression.
  */
 public class FunctionCallExpr implements Evaluable {
+    static final protected Object[] s_noArgs = new Object[0];
+    
     final protected Evaluable[] _args;
     final protected Function    _function;
     
@@ -57,7 +59,7 @@ public class FunctionCallExpr implements Evaluable {
                               
     @Override
     public Object evaluate(Properties bindings) {
-        Object[] args = new Object[_args.length];
+        Object[] args = _args.length == 0 ? s_noArgs : new Object[_args.length];
         for (int i = 0; i < _args.length; i++) {
             Object v = _args[i].evaluate(bindings);
             if (ExpressionUtils.isError(v)) {
@@ -65,13 +67,28 @@ public class FunctionCallExpr implements Evaluable {
             }
              args[i] = v;
         }
+        return call(_function, args, bindings);
+    }
+    
+    /**
+     * Applies a function to arguments that are not errors.
+     */
+    static public Object call(Function function, Object[] args, Properties bindings) {
         try {
-            return _function.call(bindings, args);
+            return function.call(bindings, args);
         } catch (Exception e) {
             return new EvalError(e.toString());
         }
     }
 
+    public Evaluable[] getArgs() {
+        return _args;
+    }
+    
+    public Function getFunction() {
+        return _function;
+    }
+
     @Override
     public String toString() {
         StringBuffer sb = new StringBuffer();
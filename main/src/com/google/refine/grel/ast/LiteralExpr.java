@@ -54,6 +54,10 @@ public class LiteralExpr implements Evaluable {
         return _value;
     }
 
+    public Object getValue() {
+        return _value;
+    }
+
     @Override
     public String toString() {
         return _value instanceof String ? JSONObject.quote((String) _value) : _value.toString();
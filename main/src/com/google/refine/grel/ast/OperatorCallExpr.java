@@ -141,6 +141,14 @@ public class OperatorCallExpr implements Evaluable {
         return null;
     }
 
+    public Evaluable[] getArgs() {
+        return _args;
+    }
+
+    public String getOp() {
+        return _op;
+    }
+
     @Override
     public String toString() {
         StringBuffer sb = new StringBuffer();
@@ -157,7 +165,7 @@ public class OperatorCallExpr implements Evaluable {
         return sb.toString();
     }
 
-    private boolean isIntegral(Object n) {
+    static protected boolean isIntegral(Object n) {
         return n instanceof Long || n instanceof Integer;
     }
 }
@@ -35,6 +35,7 @@ package com.google.refine.grel.ast;
 
 import java.util.Properties;
 
+import com.google.refine.expr.BindingFrame;
 import com.google.refine.expr.Evaluable;
 
 /**
@@ -42,13 +43,18 @@ import com.google.refine.expr.Evaluable;
  */
 public class VariableExpr implements Evaluable {
     final protected String _name;
+    final protected int    _slot; // in binding frames, resolved once rather than per row
     
     public VariableExpr(String name) {
         _name = name;
+        _slot = BindingFrame.getSlot(name);
     }
     
     @Override
     public Object evaluate(Properties bindings) {
+        if (_slot >= 0 && bindings instanceof BindingFrame) {
+            return ((BindingFrame) bindings).getSlotValue(_slot);
+        }
         return bindings.get(_name);
     }
 
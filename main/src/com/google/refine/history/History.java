@@ -33,6 +33,11 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.google.refine.history;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -107,6 +112,35 @@ public class History implements Jsonizable {
         change.save(writer, options);
     }
 
+    static public Change readOneBinaryChange(InputStream in, Pool pool) throws Exception {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(in));
+        try {
+            return readOneBinaryChange((DataInput) dis, pool);
+        } finally {
+            dis.close();
+        }
+    }
+    
+    static public Change readOneBinaryChange(DataInput in, Pool pool) throws Exception {
+        /* String version = */ in.readUTF();
+        
+        String className = in.readUTF();
+        Class<? extends Change> klass = getChangeClass(className);
+        
+        Method load = klass.getMethod("load", DataInput.class, Pool.class);
+        
+        return (Change) load.invoke(null, in, pool);
+    }
+    
+    static public void writeOneBinaryChange(OutputStream out, BinaryChange change, Pool pool) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+        dos.writeUTF(RefineServlet.VERSION);
+        dos.writeUTF(change.getClass().getName());
+        
+        change.save(dos, pool);
+        dos.flush();
+    }
+    
     @SuppressWarnings("unchecked")
     static public Class<? extends Change> getChangeClass(String className) throws ClassNotFoundException {
         return (Class<? extends Change>) RefineServlet.getClass(className);
@@ -115,6 +149,25 @@ public class History implements Jsonizable {
     protected long               _projectID;
     protected List<HistoryEntry> _pastEntries;   // done changes, can be undone
     protected List<HistoryEntry> _futureEntries; // undone changes, can be redone
+    
+    /**
+     * A change applied to or reverted from the project since it was last saved.
+     */
+    static public class UnsavedChange {
+        final public Change     change;
+        final public boolean    reverted;
+        
+        public UnsavedChange(Change change, boolean reverted) {
+            this.change = change;
+            this.reverted = reverted;
+        }
+    }
+    
+    // changes since the last save, in order, or null if the project's data
+    // might have changed otherwise than through these changes since then
+    transient protected List<UnsavedChange> _unsavedChanges;
+    transient protected long                _unsavedChangeVersion;
+    transient final protected Object        _unsavedChangesLock = new Object();
 
     public History(Project project) {
         _projectID = project.id;
@@ -147,6 +200,83 @@ public class History implements Jsonizable {
         }
     }
 
+    /**
+     * Records that a change has been applied or reverted, turning the project's
+     * change version from versionBefore to versionAfter.
+     */
+    public void recordChange(Change change, boolean reverted, long versionBefore, long versionAfter) {
+        synchronized (_unsavedChangesLock) {
+            if (_unsavedChanges != null) {
+                if (versionBefore != _unsavedChangeVersion) {
+                    _unsavedChanges = null;
+                } else {
+                    int last = _unsavedChanges.size() - 1;
+                    if (last >= 0 && _unsavedChanges.get(last).change == change && 
+                            _unsavedChanges.get(last).reverted != reverted) {
+                        // undoing what was just done
+                        _unsavedChanges.remove(last);
+                    } else {
+                        _unsavedChanges.add(new UnsavedChange(change, reverted));
+                    }
+                }
+            }
+            _unsavedChangeVersion = versionAfter;
+        }
+    }
+    
+    /**
+     * Returns the changes applied or reverted since the project was last saved, provided
+     * they account for all of its data being at the given change version, or null otherwise.
+     */
+    public List<UnsavedChange> getUnsavedChanges(long changeVersion) {
+        synchronized (_unsavedChangesLock) {
+            return _unsavedChanges != null && _unsavedChangeVersion == changeVersion ?
+                new ArrayList<UnsavedChange>(_unsavedChanges) : null;
+        }
+    }
+    
+    /**
+     * Records that the project's data, as of the given change version, is what is saved.
+     */
+    public void markSaved(long changeVersion) {
+        synchronized (_unsavedChangesLock) {
+            _unsavedChanges = new ArrayList<UnsavedChange>();
+            _unsavedChangeVersion = changeVersion;
+        }
+    }
+    
+    /**
+     * Records that the project has been saved as of the given change version, the
+     * changes then unsaved being those given, if known. Changes made while the project
+     * was being saved remain unsaved.
+     */
+    public void markSaved(long changeVersion, List<UnsavedChange> savedChanges) {
+        synchronized (_unsavedChangesLock) {
+            if (_unsavedChanges != null && savedChanges != null && 
+                    startsWith(_unsavedChanges, savedChanges)) {
+                _unsavedChanges.subList(0, savedChanges.size()).clear();
+            } else if (_unsavedChangeVersion <= changeVersion) {
+                // no change recorded since; untracked ones show up as a version mismatch later
+                _unsavedChanges = new ArrayList<UnsavedChange>();
+                _unsavedChangeVersion = changeVersion;
+            } else {
+                _unsavedChanges = null;
+            }
+        }
+    }
+    
+    static private boolean startsWith(List<UnsavedChange> changes, List<UnsavedChange> prefix) {
+        if (changes.size() < prefix.size()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.size(); i++) {
+            if (changes.get(i) != prefix.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     protected void setModified() {
         ProjectManager.singleton.getProjectMetadata(_projectID).updateModified();
     }
@@ -288,6 +418,9 @@ public class History implements Jsonizable {
     }
 
     synchronized public void load(Project project, LineNumberReader reader) throws Exception {
+        _pastEntries.clear();
+        _futureEntries.clear();
+        
         String line;
         while ((line = reader.readLine()) != null && !"/e/".equals(line)) {
             int equal = line.indexOf('=');
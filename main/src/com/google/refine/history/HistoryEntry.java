@@ -125,7 +125,9 @@ public class HistoryEntry implements Jsonizable {
         }
 
         synchronized (project) {
+            long version = project.getChangeVersion();
             getChange().apply(project);
+            project.incrementChangeVersion();
 
             // When a change is applied, it can hang on to old data (in order to be able
             // to revert later). Hence, we need to save the change out.
@@ -136,9 +138,12 @@ public class HistoryEntry implements Jsonizable {
                 e.printStackTrace();
 
                 getChange().revert(project);
+                project.incrementChangeVersion();
 
                 throw new RuntimeException("Failed to apply change", e);
             }
+            
+            project.history.recordChange(getChange(), false, version, project.getChangeVersion());
         }
     }
 
@@ -146,7 +151,13 @@ public class HistoryEntry implements Jsonizable {
         if (getChange() == null) {
             _manager.loadChange(this);
         }
-        getChange().revert(project);
+        synchronized (project) {
+            long version = project.getChangeVersion();
+            getChange().revert(project);
+            project.incrementChangeVersion();
+            
+            project.history.recordChange(getChange(), true, version, project.getChangeVersion());
+        }
     }
 
     static public HistoryEntry load(Project project, String s) throws Exception {
@@ -34,7 +34,6 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package com.google.refine.importers;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
@@ -81,7 +80,7 @@ public class ExcelImporter extends TabularImportingParserBase {
         try {
             JSONObject firstFileRecord = fileRecords.get(0);
             File file = ImportingUtilities.getFile(job, firstFileRecord);
-            InputStream is = new FileInputStream(file);
+            InputStream is = ImportingUtilities.openFile(file);
             try {
                 Workbook wb = xmlBased ?
                     new XSSFWorkbook(is) :
@@ -52,6 +52,17 @@ public class FixedWidthImporter extends TabularImportingParserBase {
         return options;
     }
 
+    @Override
+    protected String getPreviewCacheKey(JSONObject fileRecord, JSONObject options) {
+        // column names given in the options become a header line while reading
+        return options.has("columnNames") ? null : super.getPreviewCacheKey(fileRecord, options);
+    }
+    
+    @Override
+    protected boolean canParseConcurrently(List<JSONObject> fileRecords, JSONObject options) {
+        return false; // reading a file updates the header lines in the shared options
+    }
+    
     @Override
     public void parseOneFile(
         Project project,
@@ -144,7 +155,7 @@ public class FixedWidthImporter extends TabularImportingParserBase {
     
     static public int[] guessColumnWidths(File file, String encoding) {
         try {
-            InputStream is = new FileInputStream(file);
+            InputStream is = ImportingUtilities.openFile(file);
             try {
                 Reader reader = encoding != null ? new InputStreamReader(is, encoding) : new InputStreamReader(is);
                 LineNumberReader lineNumberReader = new LineNumberReader(reader);
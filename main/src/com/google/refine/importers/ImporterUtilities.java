@@ -35,7 +35,7 @@ package com.google.refine.importers;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.util.HashMap;
@@ -63,23 +63,109 @@ public class ImporterUtilities {
 
             String text2 = text.trim();
             if (text2.length() > 0) {
-                try {
+                int kind = scanNumber(text2);
+                if (kind == LONG) {
                     return Long.parseLong(text2);
-                } catch (NumberFormatException e) {
-                }
-    
-                try {
+                } else if (kind == DOUBLE) {
                     double d = Double.parseDouble(text2);
                     if (!Double.isInfinite(d) && !Double.isNaN(d)) {
                         return d;
                     }
-                } catch (NumberFormatException e) {
+                } else if (kind == UNSURE) {
+                    try {
+                        return Long.parseLong(text2);
+                    } catch (NumberFormatException e) {
+                    }
+        
+                    try {
+                        double d = Double.parseDouble(text2);
+                        if (!Double.isInfinite(d) && !Double.isNaN(d)) {
+                            return d;
+                        }
+                    } catch (NumberFormatException e) {
+                    }
                 }
             }
         }
         return text;
     }
 
+    static final private int NOT_A_NUMBER = 0;
+    static final private int LONG = 1;
+    static final private int DOUBLE = 2;
+    static final private int UNSURE = 3;
+    
+    /**
+     * Tell, without parsing it, whether some trimmed text is what Long.parseLong or else
+     * Double.parseDouble would accept, so that text cells don't cost an exception each.
+     * Rare forms, such as hexadecimal floating point numbers, integers too long to be
+     * sure they fit in a long, integers with a plus sign (which Long.parseLong rejects
+     * before Java 7), and non-ASCII digits, are left to the parsers to decide.
+     */
+    static private int scanNumber(String s) {
+        int length = s.length();
+        int i = 0;
+        char c = s.charAt(0);
+        if (c == '-' || c == '+') {
+            i++;
+        }
+        if (i + 1 < length && s.charAt(i) == '0' && (s.charAt(i + 1) == 'x' || s.charAt(i + 1) == 'X')) {
+            return UNSURE;
+        }
+        
+        int digits = 0;
+        while (i < length && isAsciiDigit(s.charAt(i))) {
+            i++;
+            digits++;
+        }
+        if (i == length) {
+            return digits == 0 ? NOT_A_NUMBER : (digits <= 18 && c != '+' ? LONG : UNSURE);
+        }
+        
+        if (s.charAt(i) == '.') {
+            i++;
+            while (i < length && isAsciiDigit(s.charAt(i))) {
+                i++;
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            return notANumberAt(s, i);
+        }
+        
+        if (i < length && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            i++;
+            if (i < length && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+                i++;
+            }
+            int exponentDigits = 0;
+            while (i < length && isAsciiDigit(s.charAt(i))) {
+                i++;
+                exponentDigits++;
+            }
+            if (exponentDigits == 0) {
+                return notANumberAt(s, i);
+            }
+        }
+        
+        if (i < length) {
+            c = s.charAt(i);
+            if (c == 'd' || c == 'D' || c == 'f' || c == 'F') {
+                i++;
+            }
+        }
+        return i == length ? DOUBLE : notANumberAt(s, i);
+    }
+    
+    static private boolean isAsciiDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+    
+    static private int notANumberAt(String s, int i) {
+        // Long.parseLong takes digits of any script
+        return i < s.length() && s.charAt(i) > 127 && Character.isDigit(s.charAt(i)) ? UNSURE : NOT_A_NUMBER;
+    }
+
     static public int getIntegerOption(String name, Properties options, int def) {
         int value = def;
         if (options.containsKey(name)) {
@@ -203,13 +289,22 @@ public class ImporterUtilities {
         
         final long totalSize2 = totalSize;
         return new MultiFileReadingProgress() {
-            long totalBytesRead = 0;
+            long totalBytesRead = 0; // of the files already read
+            
+            // files might be read concurrently, so track how far each one has got
+            final Map<String, Long> bytesReadByFile = new HashMap<String, Long>();
             
-            void setProgress(String fileSource, long bytesRead) {
+            synchronized void setProgress(String fileSource, long bytesRead) {
+                bytesReadByFile.put(fileSource, bytesRead);
+                
+                long total = totalBytesRead;
+                for (long l : bytesReadByFile.values()) {
+                    total += l;
+                }
                 ImportingUtilities.setCreatingProjectProgress(
                     job,
                     "Reading " + fileSource,
-                    (int) (100 * (totalBytesRead + bytesRead) / totalSize2));
+                    (int) (100 * total / totalSize2));
             }
             
             @Override
@@ -223,26 +318,40 @@ public class ImporterUtilities {
             }
 
             @Override
-            public void endFile(String fileSource, long bytesRead) {
+            public synchronized void endFile(String fileSource, long bytesRead) {
+                bytesReadByFile.remove(fileSource);
                 totalBytesRead += bytesRead;
             }
         };
     }
     
+    /**
+     * Open a file, decompressing it if needed, and report progress in terms of the
+     * file's own bytes read so it adds up to the file's length.
+     */
     static public InputStream openAndTrackFile(
             final String fileSource,
             final File file,
-            final MultiFileReadingProgress progress) throws FileNotFoundException {
+            final MultiFileReadingProgress progress) throws IOException {
         InputStream inputStream = new FileInputStream(file);
-        return progress == null ? inputStream : new TrackingInputStream(inputStream) {
-            @Override
-            protected long track(long bytesRead) {
-                long l = super.track(bytesRead);
-                
-                progress.readingFile(fileSource, this.bytesRead);
-                
-                return l;
-            }
-        };
+        if (progress != null) {
+            inputStream = new TrackingInputStream(inputStream) {
+                @Override
+                protected long track(long bytesRead) {
+                    long l = super.track(bytesRead);
+                    
+                    progress.readingFile(fileSource, this.bytesRead);
+                    
+                    return l;
+                }
+            };
+        }
+        
+        try {
+            return ImportingUtilities.decompressStream(inputStream);
+        } catch (IOException e) {
+            inputStream.close();
+            throw e;
+        }
     }
 }
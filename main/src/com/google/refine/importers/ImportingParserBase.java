@@ -37,7 +37,14 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.commons.lang.NotImplementedException;
 import org.json.JSONObject;
@@ -47,7 +54,11 @@ import com.google.refine.importers.ImporterUtilities.MultiFileReadingProgress;
 import com.google.refine.importing.ImportingJob;
 import com.google.refine.importing.ImportingParser;
 import com.google.refine.importing.ImportingUtilities;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Column;
+import com.google.refine.model.ModelException;
 import com.google.refine.model.Project;
+import com.google.refine.model.Row;
 
 abstract public class ImportingParserBase implements ImportingParser {
     final protected boolean useInputStream;
@@ -61,6 +72,11 @@ abstract public class ImportingParserBase implements ImportingParser {
             final ImportingJob job, List<JSONObject> fileRecords, String format,
             int limit, JSONObject options, List<Exception> exceptions) {
         MultiFileReadingProgress progress = ImporterUtilities.createMultiFileReadingProgress(job, fileRecords);
+        if (canParseConcurrently(fileRecords, options)) {
+            parseConcurrently(project, metadata, job, fileRecords, limit, options, exceptions, progress);
+            return;
+        }
+        
         for (JSONObject fileRecord : fileRecords) {
             if (job.canceled) {
                 break;
@@ -78,6 +94,132 @@ abstract public class ImportingParserBase implements ImportingParser {
         }
     }
     
+    static final protected int s_fileParsingThreads = Runtime.getRuntime().availableProcessors();
+    
+    static final protected ExecutorService s_executor = Executors.newFixedThreadPool(
+        s_fileParsingThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "file-import");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    
+    /**
+     * Whether several files can be parsed at the same time, each into a project of
+     * its own. Parsers that share state between files must return false.
+     */
+    protected boolean canParseConcurrently(List<JSONObject> fileRecords, JSONObject options) {
+        return fileRecords.size() > 1 && s_fileParsingThreads > 1;
+    }
+    
+    /**
+     * Parse each file into a project of its own on the executor, then append their
+     * columns and rows to the given project in the files' order, just as if they
+     * had been parsed one after another.
+     */
+    protected void parseConcurrently(
+        Project project,
+        final ProjectMetadata metadata,
+        final ImportingJob job,
+        List<JSONObject> fileRecords,
+        final int limit,
+        final JSONObject options,
+        List<Exception> exceptions,
+        final MultiFileReadingProgress progress
+    ) {
+        List<Future<Project>> futures = new ArrayList<Future<Project>>(fileRecords.size());
+        List<List<Exception>> fileExceptions = new ArrayList<List<Exception>>(fileRecords.size());
+        for (final JSONObject fileRecord : fileRecords) {
+            final List<Exception> exceptions2 = new ArrayList<Exception>();
+            fileExceptions.add(exceptions2);
+            futures.add(s_executor.submit(new Callable<Project>() {
+                @Override
+                public Project call() throws Exception {
+                    Project fileProject = new Project();
+                    if (!job.canceled) {
+                        try {
+                            parseOneFile(fileProject, metadata, job, fileRecord, limit, options, exceptions2, progress);
+                        } catch (IOException e) {
+                            exceptions2.add(e);
+                        }
+                    }
+                    return fileProject;
+                }
+            }));
+        }
+        
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                if (job.canceled || (limit > 0 && project.rows.size() >= limit)) {
+                    break;
+                }
+                
+                try {
+                    Project fileProject = futures.get(i).get();
+                    exceptions.addAll(fileExceptions.get(i));
+                    appendProject(project, fileProject, limit);
+                } catch (InterruptedException e) {
+                    exceptions.add(e);
+                    break;
+                } catch (ExecutionException e) {
+                    exceptions.add(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                }
+                futures.set(i, null); // let go of the file's rows
+            }
+        } finally {
+            for (Future<Project> future : futures) {
+                if (future != null) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Append the rows of a project holding a single file to another project, matching
+     * columns by name and adding those not seen before.
+     */
+    static protected void appendProject(Project project, Project fileProject, int limit) {
+        List<Column> fileColumns = fileProject.columnModel.columns;
+        int[] cellIndices = new int[fileColumns.size()];
+        boolean sameCellIndices = true;
+        for (int c = 0; c < fileColumns.size(); c++) {
+            Column fileColumn = fileColumns.get(c);
+            Column column = project.columnModel.getColumnByName(fileColumn.getName());
+            if (column == null) {
+                column = new Column(project.columnModel.allocateNewCellIndex(), fileColumn.getName());
+                try {
+                    project.columnModel.addColumn(project.columnModel.columns.size(), column, false);
+                } catch (ModelException e) {
+                    // Ignore: shouldn't get in here since we just checked for duplicate names.
+                }
+            }
+            cellIndices[c] = column.getCellIndex();
+            sameCellIndices &= cellIndices[c] == fileColumn.getCellIndex();
+        }
+        
+        for (Row fileRow : fileProject.rows) {
+            if (limit > 0 && project.rows.size() >= limit) {
+                break;
+            }
+            
+            if (sameCellIndices) {
+                project.rows.add(fileRow);
+            } else {
+                Row row = new Row(project.columnModel.getMaxCellIndex() + 1);
+                for (int c = 0; c < cellIndices.length; c++) {
+                    Cell cell = fileRow.getCell(fileColumns.get(c).getCellIndex());
+                    if (cell != null) {
+                        row.setCell(cellIndices[c], cell);
+                    }
+                }
+                project.rows.add(row);
+            }
+        }
+    }
+    
     public void parseOneFile(
         Project project,
         ProjectMetadata metadata,
@@ -78,7 +78,7 @@ public class JsonImporter extends TreeImportingParserBase {
         try {
             JSONObject firstFileRecord = fileRecords.get(0);
             File file = ImportingUtilities.getFile(job, firstFileRecord);
-            InputStream is = new FileInputStream(file);
+            InputStream is = ImportingUtilities.openFile(file);
             try {
                 JsonFactory factory = new JsonFactory();
                 JsonParser parser = factory.createJsonParser(is);
@@ -31,6 +31,16 @@ public class LineBasedImporter extends TabularImportingParserBase {
         return options;
     }
 
+    @Override
+    protected String getPreviewCacheKey(JSONObject fileRecord, JSONObject options) {
+        return null; // the header and ignored lines are dealt with while reading
+    }
+    
+    @Override
+    protected boolean canParseConcurrently(List<JSONObject> fileRecords, JSONObject options) {
+        return false; // reading a file updates the shared options, and later files rely on that
+    }
+    
     @Override
     public void parseOneFile(
         Project project,
@@ -84,6 +84,11 @@ public class RdfTripleImporter extends ImportingParserBase {
         throw new NotImplementedException();
     }
     
+    @Override
+    protected boolean canParseConcurrently(List<JSONObject> fileRecords, JSONObject options) {
+        return false; // the JRDF factories are shared by all files
+    }
+    
     @Override
     public void parseOneFile(Project project, ProjectMetadata metadata,
             ImportingJob job, String fileSource, Reader reader, int limit,
@@ -33,29 +33,44 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.google.refine.importers;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
+import java.io.RandomAccessFile;
 import java.io.Reader;
+import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.json.JSONObject;
 
 import au.com.bytecode.opencsv.CSVParser;
 
 import com.google.refine.ProjectMetadata;
+import com.google.refine.expr.ExpressionUtils;
+import com.google.refine.importers.ImporterUtilities.MultiFileReadingProgress;
 import com.google.refine.importing.ImportingJob;
 import com.google.refine.importing.ImportingUtilities;
+import com.google.refine.model.Cell;
 import com.google.refine.model.Project;
+import com.google.refine.util.ColumnInterners;
 import com.google.refine.util.JSONUtilities;
 
 public class SeparatorBasedImporter extends TabularImportingParserBase {
@@ -91,16 +106,7 @@ public class SeparatorBasedImporter extends TabularImportingParserBase {
         List<Exception> exceptions
     ) {
         // String lineSeparator = JSONUtilities.getString(options, "lineSeparator", "\n");
-        String sep = JSONUtilities.getString(options, "separator", "\t");
-        boolean processQuotes = JSONUtilities.getBoolean(options, "processQuotes", true);
-        
-        final CSVParser parser = new CSVParser(
-            sep.toCharArray()[0],//HACK changing string to char - won't work for multi-char separators.
-            CSVParser.DEFAULT_QUOTE_CHARACTER,
-            (char) 0, // escape character
-            CSVParser.DEFAULT_STRICT_QUOTES,
-            CSVParser.DEFAULT_IGNORE_LEADING_WHITESPACE,
-            !processQuotes);
+        final CSVParser parser = createParser(options);
         
         final LineNumberReader lnReader = new LineNumberReader(reader);
         
@@ -122,6 +128,363 @@ public class SeparatorBasedImporter extends TabularImportingParserBase {
         readTable(project, metadata, job, dataReader, fileSource, limit, options, exceptions);
     }
     
+    static final protected long s_minParallelFileSize = 16 * 1024 * 1024;
+    static final protected long s_chunkSize = 4 * 1024 * 1024;
+    
+    static final protected ExecutorService s_executor = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "separator-based-import");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    
+    /**
+     * Large files are split into chunks at record boundaries, which are parsed, and
+     * their cells' types guessed, on several threads. The rows are still put into the
+     * project in order, on the calling thread, so all other options work as usual.
+     */
+    @Override
+    public void parseOneFile(
+        Project project,
+        ProjectMetadata metadata,
+        ImportingJob job,
+        JSONObject fileRecord,
+        int limit,
+        JSONObject options,
+        List<Exception> exceptions,
+        final MultiFileReadingProgress progress
+    ) throws IOException {
+        File file = ImportingUtilities.getFile(job, fileRecord);
+        Charset charset = getCharset(fileRecord);
+        if (!canParseInParallel(file, charset, limit, options)) {
+            super.parseOneFile(project, metadata, job, fileRecord, limit, options, exceptions, progress);
+            return;
+        }
+        
+        String fileSource = ImportingUtilities.getFileSource(fileRecord);
+        progress.startFile(fileSource);
+        try {
+            boolean processQuotes = JSONUtilities.getBoolean(options, "processQuotes", true);
+            List<Long> boundaries = findChunkBoundaries(file, processQuotes, getChunkSize());
+            
+            ChunkedDataReader dataReader = new ChunkedDataReader(
+                job, file, fileSource, charset, boundaries, options, progress);
+            try {
+                readTable(project, metadata, job, dataReader, fileSource, limit, options, exceptions);
+            } finally {
+                dataReader.close();
+            }
+        } finally {
+            progress.endFile(fileSource, file.length());
+        }
+    }
+    
+    protected boolean canParseInParallel(File file, Charset charset, int limit, JSONObject options) {
+        return JSONUtilities.getBoolean(options, "parallel", true) &&
+            limit <= 0 &&
+            Runtime.getRuntime().availableProcessors() > 1 &&
+            file.length() >= s_minParallelFileSize &&
+            isSplittable(charset) &&
+            !ImportingUtilities.isCompressedFile(file);
+    }
+    
+    protected long getChunkSize() {
+        return s_chunkSize;
+    }
+    
+    static protected Charset getCharset(JSONObject fileRecord) {
+        String encoding = ImportingUtilities.getEncoding(fileRecord);
+        if (encoding != null) {
+            try {
+                return Charset.forName(encoding);
+            } catch (IllegalArgumentException e) {
+                // Ignore and fall through, as ImportingUtilities.getReaderFromStream does
+            }
+        }
+        return Charset.defaultCharset();
+    }
+    
+    /**
+     * Files can be split on new line bytes only if new lines and quotes are single bytes
+     * that never occur inside other characters' encodings.
+     */
+    static protected boolean isSplittable(Charset charset) {
+        String name = charset.name();
+        return "UTF-8".equals(name) || "US-ASCII".equals(name) ||
+            name.startsWith("ISO-8859-") || name.startsWith("windows-125");
+    }
+    
+    /**
+     * Find where to split a file into chunks of about the given size, just after new
+     * lines that are not within quotes. Quotes are tracked by parity, so escaped quotes
+     * cancel out; should the parser still disagree, that shows up as a chunk ending
+     * within a quoted value and gets dealt with then.
+     * 
+     * @return offsets where chunks start, followed by the file's length
+     */
+    static protected List<Long> findChunkBoundaries(File file, boolean processQuotes, long chunkSize)
+        throws IOException {
+        
+        List<Long> boundaries = new ArrayList<Long>();
+        boundaries.add(0L);
+        
+        InputStream is = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[1024 * 1024];
+            boolean inQuotes = false;
+            long offset = 0;
+            long next = chunkSize;
+            int n;
+            while ((n = is.read(buffer)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    byte b = buffer[i];
+                    if (b == '"') {
+                        inQuotes = processQuotes && !inQuotes;
+                    } else if (b == '\n' && !inQuotes && offset + i + 1 >= next) {
+                        boundaries.add(offset + i + 1);
+                        next = offset + i + 1 + chunkSize;
+                    }
+                }
+                offset += n;
+            }
+            if (boundaries.get(boundaries.size() - 1) < offset) {
+                boundaries.add(offset);
+            }
+        } finally {
+            is.close();
+        }
+        return boundaries;
+    }
+    
+    static protected CSVParser createParser(JSONObject options) {
+        String sep = JSONUtilities.getString(options, "separator", "\t");
+        boolean processQuotes = JSONUtilities.getBoolean(options, "processQuotes", true);
+        
+        return new CSVParser(
+            sep.toCharArray()[0],//HACK changing string to char - won't work for multi-char separators.
+            CSVParser.DEFAULT_QUOTE_CHARACTER,
+            (char) 0, // escape character
+            CSVParser.DEFAULT_STRICT_QUOTES,
+            CSVParser.DEFAULT_IGNORE_LEADING_WHITESPACE,
+            !processQuotes);
+    }
+    
+    /**
+     * The records of a chunk of a file, with their cells' types already guessed.
+     */
+    static protected class Chunk {
+        final long start;
+        final long end;
+        final List<List<Object>> rows = new ArrayList<List<Object>>();
+        final List<List<Object>> rawRows = new ArrayList<List<Object>>();
+        boolean incomplete = false; // ends within a quoted value
+        
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+    
+    static protected Chunk parseChunk(
+        ImportingJob job, File file, Charset charset, long start, long end,
+        JSONObject options, int rawRowCount) throws IOException {
+        
+        boolean guessCellValueTypes = JSONUtilities.getBoolean(options, "guessCellValueTypes", true);
+        CSVParser parser = createParser(options);
+        ColumnInterners interners = new ColumnInterners();
+        Chunk chunk = new Chunk(start, end);
+        
+        byte[] bytes = new byte[(int) (end - start)];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(start);
+            raf.readFully(bytes);
+        } finally {
+            raf.close();
+        }
+        
+        LineNumberReader lnReader = new LineNumberReader(
+            new InputStreamReader(new ByteArrayInputStream(bytes), charset));
+        String line;
+        while (!job.canceled && (line = lnReader.readLine()) != null) {
+            List<Object> cells = new ArrayList<Object>();
+            for (String s : parser.parseLineMulti(line)) {
+                cells.add(s);
+            }
+            while (parser.isPending()) {
+                String nextLine = lnReader.readLine();
+                if (nextLine == null) {
+                    chunk.incomplete = true;
+                    return chunk;
+                }
+                for (String s : parser.parseLineMulti(nextLine)) {
+                    cells.add(s);
+                }
+            }
+            
+            // the first records might be headers or lines to ignore, which must stay as they are
+            if (chunk.rawRows.size() < rawRowCount) {
+                chunk.rawRows.add(new ArrayList<Object>(cells));
+            }
+            
+            for (int c = 0; c < cells.size(); c++) {
+                Object value = cells.get(c);
+                if (ExpressionUtils.isNonBlankData(value)) {
+                    Serializable storedValue = guessCellValueTypes ?
+                        ImporterUtilities.parseCellValue((String) value) : (String) value;
+                    if (storedValue instanceof String) {
+                        storedValue = interners.intern(c, (String) storedValue);
+                    }
+                    cells.set(c, new Cell(storedValue, null));
+                }
+            }
+            chunk.rows.add(cells);
+        }
+        return chunk;
+    }
+    
+    /**
+     * Hands out the records of a file's chunks in order, while parsing the chunks
+     * ahead on the executor. Should a chunk turn out not to start at a record
+     * boundary after all, the rest of the file is read on the calling thread.
+     */
+    static protected class ChunkedDataReader implements TableDataReader {
+        final ImportingJob              job;
+        final File                      file;
+        final String                    fileSource;
+        final Charset                   charset;
+        final List<Long>                boundaries;
+        final JSONObject                options;
+        final MultiFileReadingProgress  progress;
+        final int                       rawRowCount;
+        final LinkedList<Future<Chunk>> futures = new LinkedList<Future<Chunk>>();
+        
+        int nextChunk = 0;
+        int rowsHandedOut = 0;
+        Chunk chunk;
+        int rowInChunk;
+        
+        CSVParser parser; // for reading the rest of the file sequentially
+        LineNumberReader lnReader;
+        
+        ChunkedDataReader(ImportingJob job, File file, String fileSource, Charset charset,
+            List<Long> boundaries, JSONObject options, MultiFileReadingProgress progress) {
+            this.job = job;
+            this.file = file;
+            this.fileSource = fileSource;
+            this.charset = charset;
+            this.boundaries = boundaries;
+            this.options = options;
+            this.progress = progress;
+            this.rawRowCount = Math.max(0, JSONUtilities.getInt(options, "ignoreLines", -1)) +
+                Math.max(0, JSONUtilities.getInt(options, "headerLines", 1));
+            
+            int window = 2 * Runtime.getRuntime().availableProcessors();
+            for (int i = 0; i < window; i++) {
+                submitNextChunk();
+            }
+        }
+        
+        void submitNextChunk() {
+            if (nextChunk < boundaries.size() - 1) {
+                final long start = boundaries.get(nextChunk);
+                final long end = boundaries.get(nextChunk + 1);
+                futures.add(s_executor.submit(new Callable<Chunk>() {
+                    @Override
+                    public Chunk call() throws Exception {
+                        return parseChunk(job, file, charset, start, end, options, rawRowCount);
+                    }
+                }));
+                nextChunk++;
+            }
+        }
+        
+        @Override
+        public List<Object> getNextRowOfCells() throws IOException {
+            if (lnReader != null) {
+                String line = lnReader.readLine();
+                return line == null ? null : getCells(line, parser, lnReader);
+            }
+            
+            while (chunk == null || rowInChunk >= chunk.rows.size()) {
+                if (chunk != null) {
+                    progress.readingFile(fileSource, chunk.end);
+                }
+                if (futures.isEmpty()) {
+                    return null;
+                }
+                
+                try {
+                    chunk = futures.removeFirst().get();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof IOException ?
+                        (IOException) e.getCause() : new IOException(e.getCause());
+                }
+                rowInChunk = 0;
+                
+                if (chunk.incomplete) {
+                    readRestSequentially(chunk.start);
+                    return getNextRowOfCells();
+                }
+                submitNextChunk();
+            }
+            
+            List<Object> cells = rowsHandedOut < rawRowCount && rowInChunk < chunk.rawRows.size() ?
+                chunk.rawRows.get(rowInChunk) : chunk.rows.get(rowInChunk);
+            
+            chunk.rows.set(rowInChunk, null); // let go of what has been handed out
+            rowInChunk++;
+            rowsHandedOut++;
+            return cells;
+        }
+        
+        void readRestSequentially(long start) throws IOException {
+            close();
+            
+            final long start2 = start;
+            InputStream is = new FileInputStream(file) {
+                long bytesRead = start2;
+                
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        bytesRead += n;
+                        progress.readingFile(fileSource, bytesRead);
+                    }
+                    return n;
+                }
+            };
+            long skipped = 0;
+            while (skipped < start) {
+                long n = is.skip(start - skipped);
+                if (n <= 0) {
+                    break;
+                }
+                skipped += n;
+            }
+            parser = createParser(options);
+            lnReader = new LineNumberReader(new InputStreamReader(is, charset));
+        }
+        
+        void close() throws IOException {
+            for (Future<Chunk> future : futures) {
+                future.cancel(true);
+            }
+            futures.clear();
+            chunk = null;
+            
+            if (lnReader != null) {
+                lnReader.close();
+            }
+        }
+    }
+    
     static protected ArrayList<Object> getCells(String line, CSVParser parser, LineNumberReader lnReader)
         throws IOException{
         
@@ -168,7 +531,7 @@ public class SeparatorBasedImporter extends TabularImportingParserBase {
     
     static public Separator guessSeparator(File file, String encoding) {
         try {
-            InputStream is = new FileInputStream(file);
+            InputStream is = ImportingUtilities.openFile(file);
             try {
                 Reader reader = encoding != null ? new InputStreamReader(is, encoding) : new InputStreamReader(is);
                 LineNumberReader lineNumberReader = new LineNumberReader(reader);
@@ -36,21 +36,33 @@ package com.google.refine.importers;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.refine.ProjectMetadata;
 import com.google.refine.expr.ExpressionUtils;
+import com.google.refine.importers.ImporterUtilities.MultiFileReadingProgress;
 import com.google.refine.importing.ImportingJob;
+import com.google.refine.importing.ImportingUtilities;
 import com.google.refine.model.Cell;
 import com.google.refine.model.Column;
 import com.google.refine.model.ModelException;
 import com.google.refine.model.Project;
 import com.google.refine.model.Row;
+import com.google.refine.util.ColumnInterners;
 import com.google.refine.util.JSONUtilities;
 
 abstract public class TabularImportingParserBase extends ImportingParserBase {
+    final static Logger logger = LoggerFactory.getLogger("TabularImportingParserBase");
+    
     static public interface TableDataReader {
         public List<Object> getNextRowOfCells() throws IOException;
     }
@@ -76,6 +88,219 @@ abstract public class TabularImportingParserBase extends ImportingParserBase {
         super(useInputStream);
     }
     
+    /**
+     * Options that only affect how readTable turns rows into a project, not which rows
+     * get read from files.
+     */
+    static final protected Set<String> s_tableOptions = new HashSet<String>(Arrays.asList(
+        "ignoreLines", "headerLines", "skipDataLines", "limit", "guessCellValueTypes",
+        "storeBlankRows", "storeBlankCellsAsNulls", "includeFileSources"));
+    
+    /**
+     * The rows read from a file for a preview, in as many tables as readTable got called
+     * for, e.g., one per sheet.
+     */
+    static protected class PreviewRows {
+        final List<PreviewTable> tables = new ArrayList<PreviewTable>();
+    }
+    
+    static protected class PreviewTable implements TableDataReader {
+        final String fileSource;
+        final List<List<Object>> rows = new ArrayList<List<Object>>();
+        boolean complete = false; // all of the table's rows got read
+        
+        TableDataReader reader; // while recording
+        
+        PreviewTable(String fileSource, TableDataReader reader) {
+            this.fileSource = fileSource;
+            this.reader = reader;
+        }
+        
+        @Override
+        public List<Object> getNextRowOfCells() throws IOException {
+            List<Object> cells = complete ? null : reader.getNextRowOfCells();
+            if (cells == null) {
+                complete = true;
+            } else {
+                rows.add(cells);
+            }
+            return cells;
+        }
+        
+        void readAhead(int count) {
+            try {
+                for (int i = 0; i < count && !complete; i++) {
+                    getNextRowOfCells();
+                }
+            } catch (IOException e) {
+                // Stop reading ahead, a later preview can still read the file again
+            }
+            reader = null;
+        }
+        
+        TableDataReader replay() {
+            final Iterator<List<Object>> iterator = rows.iterator();
+            return new TableDataReader() {
+                @Override
+                public List<Object> getNextRowOfCells() throws IOException {
+                    return iterator.hasNext() ? iterator.next() : null;
+                }
+            };
+        }
+        
+        /**
+         * Whether readTable would get all the rows it needs with these options, going
+         * through the rows just as it does.
+         */
+        boolean covers(JSONObject options, int limit) {
+            if (complete) {
+                return true;
+            }
+            
+            int ignoreLines = JSONUtilities.getInt(options, "ignoreLines", -1);
+            int headerLines = JSONUtilities.getInt(options, "headerLines", 1);
+            int skipDataLines = JSONUtilities.getInt(options, "skipDataLines", 0);
+            int limit2 = getLimit(options, limit);
+            boolean storeBlankRows = JSONUtilities.getBoolean(options, "storeBlankRows", true);
+            
+            int rowsWithData = 0;
+            int rowsStored = 0;
+            for (List<Object> cells : rows) {
+                if (ignoreLines > 0) {
+                    ignoreLines--;
+                } else if (headerLines > 0) {
+                    headerLines--;
+                } else {
+                    if (storeBlankRows || cells.size() > 0) {
+                        rowsWithData++;
+                    }
+                    if ((skipDataLines <= 0 || rowsWithData > skipDataLines) &&
+                        (storeBlankRows || hasData(cells))) {
+                        rowsStored++;
+                        if (limit2 > 0 && rowsStored >= limit2) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+        
+        static private boolean hasData(List<Object> cells) {
+            for (Object value : cells) {
+                if (value instanceof Cell || ExpressionUtils.isNonBlankData(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+    
+    /**
+     * Set while a file is being read for a preview, for readTable to record its rows.
+     */
+    static final private ThreadLocal<PreviewRows> s_previewRecording = new ThreadLocal<PreviewRows>();
+    
+    /**
+     * Previews, which have a limit, keep the rows read from each file in the job. A later
+     * preview of the same file whose options differ only in table options gets its rows
+     * from there, provided there are enough of them, instead of reading the file again.
+     */
+    @Override
+    public void parseOneFile(
+        Project project,
+        ProjectMetadata metadata,
+        ImportingJob job,
+        JSONObject fileRecord,
+        int limit,
+        JSONObject options,
+        List<Exception> exceptions,
+        MultiFileReadingProgress progress
+    ) throws IOException {
+        if (limit <= 0) {
+            super.parseOneFile(project, metadata, job, fileRecord, limit, options, exceptions, progress);
+            return;
+        }
+        
+        String key = getPreviewCacheKey(fileRecord, options);
+        if (key == null) {
+            super.parseOneFile(project, metadata, job, fileRecord, limit, options, exceptions, progress);
+            return;
+        }
+        
+        PreviewRows previewRows = (PreviewRows) job.getPreviewCache(key);
+        if (previewRows != null && covers(previewRows, options, limit)) {
+            for (PreviewTable table : previewRows.tables) {
+                readTable(project, metadata, job, table.replay(), table.fileSource, limit, options, exceptions);
+            }
+            return;
+        }
+        
+        previewRows = new PreviewRows();
+        int exceptionCount = exceptions.size();
+        s_previewRecording.set(previewRows);
+        try {
+            super.parseOneFile(project, metadata, job, fileRecord, limit, options, exceptions, progress);
+        } finally {
+            s_previewRecording.remove();
+        }
+        if (exceptions.size() == exceptionCount && !job.canceled) {
+            job.setPreviewCache(key, previewRows);
+        }
+    }
+    
+    static private boolean covers(PreviewRows previewRows, JSONObject options, int limit) {
+        for (PreviewTable table : previewRows.tables) {
+            if (!table.covers(options, limit)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    protected boolean isTableOption(String name) {
+        return s_tableOptions.contains(name);
+    }
+    
+    /**
+     * @return what identifies the rows read from a file with the given options, or null
+     *      if previews should always read the file, e.g., because the parser rewrites
+     *      table options while reading
+     */
+    protected String getPreviewCacheKey(JSONObject fileRecord, JSONObject options) {
+        StringBuffer sb = new StringBuffer();
+        sb.append(getClass().getName()).append('\n');
+        sb.append(JSONUtilities.getString(fileRecord, "location", "")).append('\n');
+        sb.append(ImportingUtilities.getEncoding(fileRecord)).append('\n');
+        
+        List<String> names = new ArrayList<String>();
+        String[] allNames = JSONObject.getNames(options);
+        if (allNames != null) {
+            for (String name : allNames) {
+                if (!isTableOption(name)) {
+                    names.add(name);
+                }
+            }
+        }
+        Collections.sort(names);
+        for (String name : names) {
+            sb.append(name).append('=').append(options.opt(name)).append('\n');
+        }
+        return sb.toString();
+    }
+    
+    static private int getLimit(JSONObject options, int limit) {
+        int limit2 = JSONUtilities.getInt(options, "limit", -1);
+        if (limit > 0) {
+            if (limit2 > 0) {
+                limit2 = Math.min(limit, limit2);
+            } else {
+                limit2 = limit;
+            }
+        }
+        return limit2;
+    }
+    
     protected void readTable(
         Project project,
         ProjectMetadata metadata,
@@ -89,13 +314,14 @@ abstract public class TabularImportingParserBase extends ImportingParserBase {
         int ignoreLines = JSONUtilities.getInt(options, "ignoreLines", -1);
         int headerLines = JSONUtilities.getInt(options, "headerLines", 1);
         int skipDataLines = JSONUtilities.getInt(options, "skipDataLines", 0);
-        int limit2 = JSONUtilities.getInt(options, "limit", -1);
-        if (limit > 0) {
-            if (limit2 > 0) {
-                limit2 = Math.min(limit, limit2);
-            } else {
-                limit2 = limit;
-            }
+        int limit2 = getLimit(options, limit);
+        
+        PreviewRows recording = s_previewRecording.get();
+        PreviewTable previewTable = null;
+        if (recording != null) {
+            previewTable = new PreviewTable(fileSource, reader);
+            recording.tables.add(previewTable);
+            reader = previewTable;
         }
         
         boolean guessCellValueTypes = JSONUtilities.getBoolean(options, "guessCellValueTypes", true);
@@ -117,6 +343,7 @@ abstract public class TabularImportingParserBase extends ImportingParserBase {
         }
         
         List<String> columnNames = new ArrayList<String>();
+        ColumnInterners interners = new ColumnInterners();
         
         List<Object> cells = null;
         int rowsWithData = 0;
@@ -175,6 +402,9 @@ abstract public class TabularImportingParserBase extends ImportingParserBase {
                                 } else {
                                     storedValue = ExpressionUtils.wrapStorable(value);
                                 }
+                                if (storedValue instanceof String) {
+                                    storedValue = interners.intern(column.getCellIndex(), (String) storedValue);
+                                }
                                 
                                 row.setCell(column.getCellIndex(), new Cell(storedValue, null));
                                 rowHasData = true;
@@ -201,5 +431,12 @@ abstract public class TabularImportingParserBase extends ImportingParserBase {
         } catch (IOException e) {
             exceptions.add(e);
         }
+        
+        if (previewTable != null) {
+            // a bit more, for later previews skipping more lines
+            previewTable.readAhead(limit2 > 0 ? limit2 : 0);
+        }
+        
+        interners.logStats(logger, project);
     }
 }
@@ -1,7 +1,6 @@
 package com.google.refine.importers;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -10,13 +9,14 @@ import java.io.UnsupportedEncodingException;
 import java.nio.CharBuffer;
 
 import com.google.refine.importing.FormatGuesser;
+import com.google.refine.importing.ImportingUtilities;
 
 public class TextFormatGuesser implements FormatGuesser {
 
     @Override
     public String guess(File file, String encoding, String seedFormat) {
         try {
-            InputStream is = new FileInputStream(file);
+            InputStream is = ImportingUtilities.openFile(file);
             try {
                 Reader reader = encoding != null ? new InputStreamReader(is, encoding) : new InputStreamReader(is);
                 
@@ -37,6 +37,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.commons.lang.NotImplementedException;
@@ -49,6 +50,7 @@ import com.google.refine.importing.ImportingJob;
 import com.google.refine.importing.ImportingParser;
 import com.google.refine.importing.ImportingUtilities;
 import com.google.refine.model.Project;
+import com.google.refine.model.Row;
 import com.google.refine.util.JSONUtilities;
 
 abstract public class TreeImportingParserBase implements ImportingParser {
@@ -70,8 +72,21 @@ abstract public class TreeImportingParserBase implements ImportingParser {
             ImportingJob job, List<JSONObject> fileRecords, String format,
             int limit, JSONObject options, List<Exception> exceptions) {
         
+        String previewCacheKey = limit > 0 ? getPreviewCacheKey(fileRecords, limit, options) : null;
+        if (previewCacheKey != null) {
+            Preview preview = (Preview) job.getPreviewCache(previewCacheKey);
+            if (preview != null) {
+                project.columnModel.setMaxCellIndex(preview.maxCellIndex);
+                project.rows.addAll(preview.rows);
+                XmlImportUtilities.createColumnsFromImport(project, preview.rootColumnGroup);
+                project.columnModel.update();
+                return;
+            }
+        }
+        
         MultiFileReadingProgress progress = ImporterUtilities.createMultiFileReadingProgress(job, fileRecords);
         ImportColumnGroup rootColumnGroup = new ImportColumnGroup();
+        int exceptionCount = exceptions.size();
         
         for (JSONObject fileRecord : fileRecords) {
             try {
@@ -87,6 +102,44 @@ abstract public class TreeImportingParserBase implements ImportingParser {
         
         XmlImportUtilities.createColumnsFromImport(project, rootColumnGroup);
         project.columnModel.update();
+        
+        if (previewCacheKey != null && exceptions.size() == exceptionCount && !job.canceled) {
+            Preview preview = new Preview();
+            preview.rows = new ArrayList<Row>(project.rows);
+            preview.rootColumnGroup = rootColumnGroup;
+            preview.maxCellIndex = project.columnModel.getMaxCellIndex();
+            job.setPreviewCache(previewCacheKey, preview);
+        }
+    }
+    
+    /**
+     * A preview's rows and columns, for previews with options the parser doesn't use to
+     * come from rather than from reading the files again.
+     */
+    static protected class Preview {
+        List<Row> rows;
+        ImportColumnGroup rootColumnGroup;
+        int maxCellIndex;
+    }
+    
+    /**
+     * @return what identifies a preview of the given files with the given options,
+     *      made up of only those options that the parser uses
+     */
+    protected String getPreviewCacheKey(List<JSONObject> fileRecords, int limit, JSONObject options) {
+        StringBuffer sb = new StringBuffer();
+        sb.append(getClass().getName()).append('\n');
+        for (JSONObject fileRecord : fileRecords) {
+            sb.append(JSONUtilities.getString(fileRecord, "location", "")).append('\n');
+            sb.append(ImportingUtilities.getEncoding(fileRecord)).append('\n');
+        }
+        sb.append(limit).append('\n');
+        
+        String[] recordPath = JSONUtilities.getStringArray(options, "recordPath");
+        for (String s : recordPath) {
+            sb.append(s).append('/');
+        }
+        return sb.toString();
     }
     
     public void parseOneFile(
@@ -35,6 +35,9 @@ package com.google.refine.importing;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Properties;
 
 import org.apache.commons.io.FileUtils;
@@ -58,6 +61,21 @@ public class ImportingJob implements Jsonizable {
     public ProjectMetadata metadata;
     public boolean canceled;
     
+    static final protected int s_maxPreviewCacheEntries = 32;
+    
+    /**
+     * What parsers read from the files for previews, so they can derive later previews
+     * with different options from it rather than reading the files all over again.
+     */
+    final protected Map<String, Object> _previewCache = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+        
+        @Override
+        protected boolean removeEldestEntry(Entry<String, Object> eldest) {
+            return size() > s_maxPreviewCacheEntries;
+        }
+    };
+    
     public ImportingJob(long id, File dir) {
         this.id = id;
         this.dir = dir;
@@ -77,7 +95,22 @@ public class ImportingJob implements Jsonizable {
         metadata = new ProjectMetadata();
     }
     
+    public Object getPreviewCache(String key) {
+        synchronized (_previewCache) {
+            return _previewCache.get(key);
+        }
+    }
+    
+    public void setPreviewCache(String key, Object value) {
+        synchronized (_previewCache) {
+            _previewCache.put(key, value);
+        }
+    }
+    
     public void dispose() {
+        synchronized (_previewCache) {
+            _previewCache.clear();
+        }
         if (project != null) {
             project.dispose();
             project = null;
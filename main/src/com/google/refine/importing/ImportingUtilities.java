@@ -33,9 +33,9 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.google.refine.importing;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -360,13 +360,85 @@ public class ImportingUtilities {
     }
     
     static public Reader getFileReader(ImportingJob job, JSONObject fileRecord)
-        throws FileNotFoundException {
+        throws IOException {
         
         return getFileReader(getFile(job, JSONUtilities.getString(fileRecord, "location", "")), fileRecord);
     }
     
-    static public Reader getFileReader(File file, JSONObject fileRecord) throws FileNotFoundException {
-        return getReaderFromStream(new FileInputStream(file), fileRecord);
+    static public Reader getFileReader(File file, JSONObject fileRecord) throws IOException {
+        return getReaderFromStream(openFile(file), fileRecord);
+    }
+    
+    /**
+     * Open a retrieved file for reading, decompressing it on the fly if it is gzip or
+     * bzip2 compressed. Compressed files are kept as they were retrieved rather than
+     * expanded onto disk, so anything reading their content should go through here.
+     */
+    static public InputStream openFile(File file) throws IOException {
+        InputStream is = new FileInputStream(file);
+        try {
+            return decompressStream(is);
+        } catch (IOException e) {
+            is.close();
+            throw e;
+        }
+    }
+    
+    static public InputStream decompressStream(InputStream is) throws IOException {
+        BufferedInputStream bis = new BufferedInputStream(is);
+        String compression = guessCompression(bis);
+        if ("gzip".equals(compression)) {
+            return new GZIPInputStream(bis, 64 * 1024);
+        } else if ("bzip2".equals(compression)) {
+            // CBZip2InputStream expects the "BZ" magic to have been read already
+            bis.read();
+            bis.read();
+            return new CBZip2InputStream(bis);
+        }
+        return bis;
+    }
+    
+    static public boolean isCompressedFile(File file) {
+        try {
+            InputStream is = new BufferedInputStream(new FileInputStream(file));
+            try {
+                return guessCompression(is) != null;
+            } finally {
+                is.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Tell gzip and bzip2 compressed content apart by its magic bytes, leaving the
+     * stream, which must support marks, where it was.
+     * 
+     * @return "gzip", "bzip2" or null
+     */
+    static public String guessCompression(InputStream is) throws IOException {
+        byte[] magic = new byte[10];
+        int n = 0;
+        
+        is.mark(magic.length);
+        try {
+            int c;
+            while (n < magic.length && (c = is.read(magic, n, magic.length - n)) > 0) {
+                n += c;
+            }
+        } finally {
+            is.reset();
+        }
+        
+        if (n >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b) {
+            return "gzip";
+        } else if (n == magic.length && magic[0] == 'B' && magic[1] == 'Z' && magic[2] == 'h' &&
+            magic[3] >= '1' && magic[3] <= '9' &&
+            "1AY&SY".equals(new String(magic, 4, 6, "ISO-8859-1"))) {
+            return "bzip2";
+        }
+        return null;
     }
     
     static public Reader getReaderFromStream(InputStream inputStream, JSONObject fileRecord) {
@@ -447,23 +519,12 @@ public class ImportingUtilities {
             }
         }
         
-        InputStream uncompressedIS = tryOpenAsCompressedFile(file, mimeType);
-        if (uncompressedIS != null) {
-            try {
-                File file2 = uncompressFile(rawDataDir, uncompressedIS, fileRecord, progress);
-                
-                file.delete();
-                file = file2;
-            } catch (IOException e) {
-                // TODO: what to do?
-                e.printStackTrace();
-            } finally {
-                try {
-                    archiveIS.close();
-                } catch (IOException e) {
-                    // TODO: what to do?
-                }
-            }
+        if (isCompressedFile(file)) {
+            // Keep the file compressed, to be decompressed whenever it gets read, which
+            // leaves the content to be previewed without expanding it all onto disk first.
+            // What was declared is about the compressed content, not the file within.
+            JSONUtilities.safePut(fileRecord, "declaredEncoding", (String) null);
+            JSONUtilities.safePut(fileRecord, "declaredMimeType", (String) null);
         }
         
         postProcessSingleRetrievedFile(file, fileRecord);
@@ -474,9 +535,14 @@ public class ImportingUtilities {
     
     static public void postProcessSingleRetrievedFile(File file, JSONObject fileRecord) {
         if (!fileRecord.has("format")) {
+            String fileName = file.getName();
+            if (fileName.endsWith(".gz") || fileName.endsWith(".bz2")) {
+                fileName = fileName.substring(0, fileName.lastIndexOf('.'));
+            }
+            
             JSONUtilities.safePut(fileRecord, "format",
                 ImportingManager.getFormat(
-                    file.getName(),
+                    fileName,
                     JSONUtilities.getString(fileRecord, "declaredMimeType", null)));
         }
     }
@@ -569,39 +635,6 @@ public class ImportingUtilities {
         return false;
     }
     
-    static public InputStream tryOpenAsCompressedFile(File file, String mimeType) {
-        String fileName = file.getName();
-        try {
-            if (fileName.endsWith(".gz")) {
-                return new GZIPInputStream(new FileInputStream(file));
-            } else if (fileName.endsWith(".bz2")) {
-                return new CBZip2InputStream(new FileInputStream(file));
-            }
-        } catch (IOException e) {
-        }
-        return null;
-    }
-    
-    static public File uncompressFile(
-        File rawDataDir,
-        InputStream uncompressedIS,
-        JSONObject fileRecord,
-        final Progress progress
-    ) throws IOException {
-        String fileName = JSONUtilities.getString(fileRecord, "fileName", "unknown");
-        File file2 = allocateFile(rawDataDir, fileName);
-        
-        progress.setProgress("Uncompressing " + fileName, -1);
-        
-        saveStreamToFile(uncompressedIS, file2, null);
-        
-        JSONUtilities.safePut(fileRecord, "declaredEncoding", (String) null);
-        JSONUtilities.safePut(fileRecord, "declaredMimeType", (String) null);
-        JSONUtilities.safePut(fileRecord, "location", getRelativePath(file2, rawDataDir));
-        
-        return file2;
-    }
-    
     static private int calculateProgressPercent(long totalExpectedSize, long totalRetrievedSize) {
         return totalExpectedSize == 0 ? -1 : (int) (totalRetrievedSize * 100 / totalExpectedSize);
     }
@@ -46,6 +46,8 @@ import org.json.JSONException;
 import org.json.JSONWriter;
 
 import com.google.refine.ProjectManager;
+import com.google.refine.history.BinaryChange;
+import com.google.refine.history.Change;
 import com.google.refine.history.History;
 import com.google.refine.history.HistoryEntry;
 import com.google.refine.history.HistoryEntryManager;
@@ -93,8 +95,14 @@ public class FileHistoryEntryManager implements HistoryEntryManager{
                     zipFile.getInputStream(poolEntry)));
             } // else, it's a legacy project file
 
-            historyEntry.setChange(History.readOneChange(
-                    zipFile.getInputStream(zipFile.getEntry("change.txt")), pool));
+            ZipEntry binaryEntry = zipFile.getEntry("change.bin");
+            if (binaryEntry != null) {
+                historyEntry.setChange(History.readOneBinaryChange(
+                        zipFile.getInputStream(binaryEntry), pool));
+            } else {
+                historyEntry.setChange(History.readOneChange(
+                        zipFile.getInputStream(zipFile.getEntry("change.txt")), pool));
+            }
         } finally {
             zipFile.close();
         }
@@ -113,11 +121,21 @@ public class FileHistoryEntryManager implements HistoryEntryManager{
         try {
             Pool pool = new Pool();
 
-            out.putNextEntry(new ZipEntry("change.txt"));
-            try {
-                History.writeOneChange(out, historyEntry.getChange(), pool);
-            } finally {
-                out.closeEntry();
+            Change change = historyEntry.getChange();
+            if (change instanceof BinaryChange) {
+                out.putNextEntry(new ZipEntry("change.bin"));
+                try {
+                    History.writeOneBinaryChange(out, (BinaryChange) change, pool);
+                } finally {
+                    out.closeEntry();
+                }
+            } else {
+                out.putNextEntry(new ZipEntry("change.txt"));
+                try {
+                    History.writeOneChange(out, change, pool);
+                } finally {
+                    out.closeEntry();
+                }
             }
 
             out.putNextEntry(new ZipEntry("pool.txt"));
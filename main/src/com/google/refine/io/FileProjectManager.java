@@ -164,7 +164,14 @@ public class FileProjectManager extends ProjectManager {
     @Override
     public void exportProject(long projectId, TarOutputStream tos) throws IOException {
         File dir = this.getProjectDir(projectId);
-        this.tarDir("", dir, tos);
+        synchronized (ProjectUtilities.getSaveLock(projectId)) {
+            // fold the journal into the snapshot, and keep saves from changing the files while they get read
+            Project project = peekProject(projectId);
+            if (project != null) {
+                ProjectUtilities.saveInFull(project);
+            }
+            this.tarDir("", dir, tos);
+        }
     }
 
     protected void tarDir(String relative, File dir, TarOutputStream tos) throws IOException{
@@ -0,0 +1,226 @@
+/*
+
+Copyright 2010, Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,           
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY           
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package com.google.refine.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.refine.history.Change;
+import com.google.refine.history.History;
+import com.google.refine.history.History.UnsavedChange;
+import com.google.refine.model.Project;
+import com.google.refine.model.ProjectSnapshot;
+import com.google.refine.util.Pool;
+
+/**
+ * An append-only file of the changes made to a project since its snapshot was
+ * last written, so that saving a project only costs as much as what was changed.
+ * 
+ * The journal starts with a header identifying the snapshot it follows by the id
+ * written inside the snapshot, which unlike the file's length and modification time
+ * survives the project being copied or exported and imported again. It then holds
+ * one record per save. Each record is its
+ * byte length followed by the recon pool, the changes applied or reverted, and the
+ * project's history as of after them. Loading a project replays these records on
+ * top of its snapshot.
+ */
+public class ProjectJournal {
+    final static Logger logger = LoggerFactory.getLogger("project_journal");
+    
+    static final protected int MAGIC = 0x47524a4c; // "GRJL"
+    
+    // a journal gets folded into a new snapshot once it outgrows half the snapshot, within these bounds
+    static final protected long MIN_COMPACTION_LENGTH = 1L << 20;
+    static final protected long MAX_COMPACTION_LENGTH = 64L << 20;
+    
+    static public void append(Project project, File file, File snapshotFile, List<UnsavedChange> changes) throws IOException {
+        Pool pool = new Pool();
+        Properties options = new Properties();
+        options.setProperty("mode", "save");
+        options.put("pool", pool);
+        
+        StringWriter changeWriter = new StringWriter();
+        changeWriter.write("changeCount="); changeWriter.write(Integer.toString(changes.size())); changeWriter.write('\n');
+        for (UnsavedChange unsavedChange : changes) {
+            changeWriter.write(unsavedChange.reverted ? "revert\n" : "apply\n");
+            History.writeOneChange(changeWriter, unsavedChange.change, options);
+        }
+        
+        StringWriter historyWriter = new StringWriter();
+        project.history.save(historyWriter, options);
+        
+        StringWriter poolWriter = new StringWriter();
+        pool.save(poolWriter);
+        
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream recordOut = new DataOutputStream(record);
+        writeString(recordOut, poolWriter.toString());
+        writeString(recordOut, changeWriter.toString());
+        writeString(recordOut, historyWriter.toString());
+        recordOut.flush();
+        
+        long snapshotId = ProjectSnapshot.readId(snapshotFile);
+        if (snapshotId == 0) {
+            throw new IOException("The snapshot of project " + project.id + " has no id to journal changes against");
+        }
+        
+        boolean isNew = !file.exists();
+        if (!isNew && !isForSnapshot(file, snapshotId)) {
+            throw new IOException("The journal of project " + project.id + " was written for another snapshot");
+        }
+        
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        try {
+            if (isNew) {
+                out.writeInt(MAGIC);
+                out.writeLong(snapshotId);
+            }
+            out.writeInt(record.size());
+            record.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+    
+    /**
+     * Replays the journal's changes onto a project just loaded from the given snapshot.
+     * Returns false, leaving the project untouched, if the journal was not written
+     * for that snapshot.
+     */
+    static public boolean replay(Project project, File file, File snapshotFile) throws Exception {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            long snapshotId = ProjectSnapshot.readId(snapshotFile);
+            if (snapshotId == 0 || in.readInt() != MAGIC || in.readLong() != snapshotId) {
+                
+                logger.warn("Ignoring journal of project {} written for another snapshot", project.id);
+                return false;
+            }
+            
+            int count = 0;
+            while (true) {
+                byte[] record;
+                try {
+                    record = new byte[in.readInt()];
+                    in.readFully(record);
+                } catch (EOFException e) {
+                    // the end of the journal, or a record cut short by a crash while saving
+                    break;
+                }
+                
+                replayRecord(project, new DataInputStream(new ByteArrayInputStream(record)));
+                count++;
+            }
+            
+            project.update();
+            
+            logger.info("Replayed {} journal record(s) onto project {}", count, project.id);
+            return true;
+        } finally {
+            in.close();
+        }
+    }
+    
+    static protected void replayRecord(Project project, DataInput in) throws Exception {
+        Pool pool = new Pool();
+        pool.load(new StringReader(readString(in)));
+        
+        LineNumberReader reader = new LineNumberReader(new StringReader(readString(in)));
+        String line = reader.readLine();
+        int count = Integer.parseInt(line.substring(line.indexOf('=') + 1));
+        for (int i = 0; i < count; i++) {
+            boolean reverted = "revert".equals(reader.readLine());
+            Change change = History.readOneChange(reader, pool);
+            if (reverted) {
+                change.revert(project);
+            } else {
+                change.apply(project);
+            }
+        }
+        
+        project.history.load(project, new LineNumberReader(new StringReader(readString(in))));
+    }
+    
+    static protected boolean isForSnapshot(File file, long snapshotId) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return in.readInt() == MAGIC && in.readLong() == snapshotId;
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * Tells whether a journal has grown enough to be folded into a new snapshot.
+     */
+    static public boolean needsCompaction(File file, File snapshotFile) {
+        long threshold = Math.min(
+            Math.max(snapshotFile.length() / 2, MIN_COMPACTION_LENGTH), MAX_COMPACTION_LENGTH);
+        
+        return file.length() > threshold;
+    }
+    
+    static protected void writeString(DataOutput out, String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    static protected String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
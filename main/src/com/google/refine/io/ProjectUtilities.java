@@ -34,30 +34,124 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package com.google.refine.io;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.refine.ProjectManager;
+import com.google.refine.history.History.UnsavedChange;
+import com.google.refine.model.MappedRowList;
 import com.google.refine.model.Project;
+import com.google.refine.model.ProjectSnapshot;
 import com.google.refine.util.Pool;
 
 
 public class ProjectUtilities {
     final static Logger logger = LoggerFactory.getLogger("project_utilities");
+    
+    // in order of preference when loading
+    final static String[] s_fileNames = { "data.next.bin", "data.bin", "data.temp.bin", "data.old.bin" };
+    final static String[] s_legacyFileNames = { "data.zip", "data.temp.zip", "data.old.zip" };
 
-    synchronized public static void save(Project project) {
-        synchronized (project) {
-            long id = project.id;
+    final static ExecutorService s_compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "project-compactor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    final static Set<Long> s_pendingCompactions = new HashSet<Long>();
+
+    // saves of the same project must not overlap, but those of different projects can
+    final static Object[] s_saveLocks = new Object[64];
+    static {
+        for (int i = 0; i < s_saveLocks.length; i++) {
+            s_saveLocks[i] = new Object();
+        }
+    }
+    
+    static protected Object getSaveLock(long id) {
+        return s_saveLocks[(int) (id ^ (id >>> 32)) & (s_saveLocks.length - 1)];
+    }
+
+    /**
+     * Saves the project, by appending the changes made since it was last saved to its
+     * journal if possible, or else by writing a whole new snapshot of it.
+     */
+    public static void save(final Project project) {
+        long id = project.id;
+        synchronized (getSaveLock(id)) {
             File dir = ((FileProjectManager)ProjectManager.singleton).getProjectDir(id);
+            File file = getSnapshotFile(dir);
+            File journalFile = new File(dir, "data.journal");
+            
+            if (file.exists()) {
+                // changes are small, so they are written out without letting go of the project
+                synchronized (project) {
+                    Date saveTime = new Date();
+                    long changeVersion = project.getChangeVersion();
+                    List<UnsavedChange> changes = project.history.getUnsavedChanges(changeVersion);
+                    if (changes != null) {
+                        try {
+                            if (changes.size() > 0) {
+                                ProjectJournal.append(project, journalFile, file, changes);
+                            }
+                            
+                            project.history.markSaved(changeVersion, changes);
+                            project.setLastSave(saveTime);
+                            
+                            logger.info("Saved {} change(s) to project '{}'", changes.size(), id);
+                            
+                            if (ProjectJournal.needsCompaction(journalFile, file)) {
+                                scheduleCompaction(project);
+                            }
+                            return;
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                            
+                            logger.warn("Failed to append to the journal of project {}, saving it in full", id);
+                        }
+                    }
+                }
+            }
+            
+            saveInFull(project);
+        }
+    }
 
-            File tempFile = new File(dir, "data.temp.zip");
+    /**
+     * Writes a whole new snapshot of the project, folding its journal into it. The
+     * project is only held while its data gets copied, not while it is being written.
+     */
+    public static void saveInFull(Project project) {
+        long id = project.id;
+        synchronized (getSaveLock(id)) {
+            File dir = ((FileProjectManager)ProjectManager.singleton).getProjectDir(id);
+            
+            Date saveTime = new Date();
+            long changeVersion;
+            List<UnsavedChange> changes;
+            ProjectSnapshot snapshot;
             try {
-                saveToFile(project, tempFile);
+                synchronized (project) {
+                    changeVersion = project.getChangeVersion();
+                    changes = project.history.getUnsavedChanges(changeVersion);
+                    snapshot = ProjectSnapshot.capture(project);
+                }
             } catch (Exception e) {
                 e.printStackTrace();
 
@@ -65,8 +159,22 @@ public class ProjectUtilities {
                 return;
             }
 
-            File file = new File(dir, "data.zip");
-            File oldFile = new File(dir, "data.old.zip");
+            File tempFile = new File(dir, "data.temp.bin");
+            try {
+                saveToFile(snapshot, tempFile);
+            } catch (Exception e) {
+                e.printStackTrace();
+
+                logger.warn("Failed to save project {}", id);
+                return;
+            }
+
+            // the rows of a mapped project are read from data.bin for as long as it is loaded, and
+            // some platforms neither rename nor delete mapped files, so its new snapshot goes next to
+            // data.bin and takes its place when the project next gets loaded
+            boolean mapped = project.rows instanceof MappedRowList;
+            File file = new File(dir, mapped ? "data.next.bin" : "data.bin");
+            File oldFile = new File(dir, "data.old.bin");
 
             if (file.exists()) {
                 file.renameTo(oldFile);
@@ -76,67 +184,147 @@ public class ProjectUtilities {
             if (oldFile.exists()) {
                 oldFile.delete();
             }
+            
+            File nextFile = new File(dir, "data.next.bin");
+            if (!mapped && nextFile.exists()) {
+                nextFile.delete();
+            }
+            
+            File journalFile = new File(dir, "data.journal");
+            if (journalFile.exists()) {
+                journalFile.delete();
+            }
+            
+            // the project has now been upgraded from the legacy zipped text format, if it was in it
+            for (String name : s_legacyFileNames) {
+                File legacyFile = new File(dir, name);
+                if (legacyFile.exists()) {
+                    legacyFile.delete();
+                }
+            }
 
-            project.setLastSave();
+            project.history.markSaved(changeVersion, changes);
+            project.setLastSave(saveTime);
 
             logger.info("Saved project '{}'",id);
         }
     }
-
-    protected static void saveToFile(Project project, File file) throws Exception {
-        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
-        try {
-            Pool pool = new Pool();
-
-            out.putNextEntry(new ZipEntry("data.txt"));
-            try {
-                project.saveToOutputStream(out, pool);
-            } finally {
-                out.closeEntry();
+    
+    static protected void scheduleCompaction(final Project project) {
+        synchronized (s_pendingCompactions) {
+            if (!s_pendingCompactions.add(project.id)) {
+                return;
             }
-
-            out.putNextEntry(new ZipEntry("pool.txt"));
-            try {
-                pool.save(out);
-            } finally {
-                out.closeEntry();
+        }
+        
+        s_compactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (s_pendingCompactions) {
+                    s_pendingCompactions.remove(project.id);
+                }
+                saveInFull(project);
             }
+        });
+    }
+
+    protected static void saveToFile(ProjectSnapshot snapshot, File file) throws Exception {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            snapshot.write(out);
         } finally {
             out.close();
         }
     }
 
     static public Project load(File dir, long id) {
-        try {
-            File file = new File(dir, "data.zip");
-            if (file.exists()) {
-                return loadFromFile(file, id);
+        promoteNextSnapshot(dir);
+        
+        for (String name : s_fileNames) {
+            try {
+                File file = new File(dir, name);
+                if (file.exists()) {
+                    // the journal is only replayed if it was written for this snapshot
+                    return replayJournal(loadFromSnapshotFile(file, id), dir, file);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
-
-        try {
-            File file = new File(dir, "data.temp.zip");
-            if (file.exists()) {
-                return loadFromFile(file, id);
+        
+        for (String name : s_legacyFileNames) {
+            try {
+                File file = new File(dir, name);
+                if (file.exists()) {
+                    return loadFromFile(file, id);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
 
-        try {
-            File file = new File(dir, "data.old.zip");
-            if (file.exists()) {
-                return loadFromFile(file, id);
+        return null;
+    }
+    
+    /**
+     * Returns the file holding the project's latest snapshot.
+     */
+    static protected File getSnapshotFile(File dir) {
+        File nextFile = new File(dir, "data.next.bin");
+        return nextFile.exists() ? nextFile : new File(dir, "data.bin");
+    }
+    
+    /**
+     * Moves a snapshot written while the project's data.bin was mapped in place of data.bin,
+     * now that the project is not loaded. If data.bin is still mapped, the snapshot is left
+     * where it is and gets loaded without being mapped.
+     */
+    static protected void promoteNextSnapshot(File dir) {
+        File nextFile = new File(dir, "data.next.bin");
+        if (nextFile.exists()) {
+            File file = new File(dir, "data.bin");
+            if (!file.exists() || file.delete()) {
+                nextFile.renameTo(file);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
+    }
+    
+    static protected Project replayJournal(Project project, File dir, File file) throws Exception {
+        File journalFile = new File(dir, "data.journal");
+        if (journalFile.exists()) {
+            try {
+                if (!ProjectJournal.replay(project, journalFile, file)) {
+                    return project;
+                }
+            } catch (Exception e) {
+                logger.error("Failed to replay the journal of project " + project.id + ", ignoring it", e);
+                return loadFromSnapshotFile(file, project.id);
+            }
+        }
+        
+        project.history.markSaved(project.getChangeVersion());
+        return project;
+    }
 
-        return null;
+    static protected Project loadFromSnapshotFile(File file, long id) throws Exception {
+        // only data.bin gets mapped, as only it is left in place by the saves of a mapped project
+        Object mapped = ProjectManager.singleton.getPreferenceStore().get("project.storage.mapped");
+        if (mapped != null && Boolean.parseBoolean(mapped.toString()) && file.getName().equals("data.bin")) {
+            return ProjectSnapshot.loadMapped(file, id);
+        }
+        
+        InputStream in = new FileInputStream(file);
+        try {
+            return ProjectSnapshot.load(in, id);
+        } finally {
+            in.close();
+        }
     }
 
+    /**
+     * Loads a project saved in the legacy format: a zip file holding the project
+     * as JSON text and the recon pool.
+     */
     static protected Project loadFromFile(
             File file,
             long id
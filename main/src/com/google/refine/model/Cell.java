@@ -51,6 +51,7 @@ import com.google.refine.expr.ExpressionUtils;
 import com.google.refine.expr.HasFields;
 import com.google.refine.util.ParsingUtilities;
 import com.google.refine.util.Pool;
+import com.google.refine.util.StringInterner;
 
 public class Cell implements HasFields, Jsonizable {
     final public Serializable   value;
@@ -130,6 +131,10 @@ public class Cell implements HasFields, Jsonizable {
     }
     
     static public Cell loadStreaming(JsonParser jp, Pool pool) throws Exception {
+        return loadStreaming(jp, pool, null);
+    }
+    
+    static public Cell loadStreaming(JsonParser jp, Pool pool, StringInterner interner) throws Exception {
         JsonToken t = jp.getCurrentToken();
         if (t == JsonToken.VALUE_NULL || t != JsonToken.START_OBJECT) {
             return null;
@@ -158,7 +163,7 @@ public class Cell implements HasFields, Jsonizable {
                 JsonToken token = jp.getCurrentToken();
             
                 if (token == JsonToken.VALUE_STRING) {
-                    value = jp.getText();
+                    value = interner != null ? interner.intern(jp.getText()) : jp.getText();
                 } else if (token == JsonToken.VALUE_NUMBER_INT) {
                     value = jp.getLongValue();
                 } else if (token == JsonToken.VALUE_NUMBER_FLOAT) {
@@ -0,0 +1,185 @@
+/*
+
+Copyright 2010, Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,           
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY           
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package com.google.refine.model;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.refine.util.StringDictionary;
+
+/**
+ * Holds the cells at one cell index for all the rows of a columnar row store.
+ * Each cell is stored as a type tag plus a primitive payload: strings are
+ * dictionary-encoded, numbers, booleans and dates are kept unboxed, and any
+ * other kind of value is kept aside in a sparse map. A NONE tag marks a missing
+ * cell, so the tag array also serves as the column's null map. Recons are only
+ * allocated once the column has any.
+ */
+public class CellVector {
+    static final protected byte NONE = 0;       // no cell at all
+    static final protected byte EMPTY = 1;      // a cell whose value is null
+    static final protected byte STRING = 2;
+    static final protected byte LONG = 3;
+    static final protected byte DOUBLE = 4;
+    static final protected byte BOOLEAN = 5;
+    static final protected byte DATE = 6;
+    static final protected byte OTHER = 7;
+    
+    final protected byte[]                  _types;
+    final protected long[]                  _values;
+    final protected StringDictionary        _strings;
+    protected Recon[]                       _recons;
+    protected Map<Integer, Serializable>    _others;
+    
+    public CellVector(int capacity) {
+        this(new byte[capacity], new long[capacity], new StringDictionary());
+    }
+    
+    protected CellVector(byte[] types, long[] values, StringDictionary strings) {
+        _types = types;
+        _values = values;
+        _strings = strings;
+    }
+    
+    /**
+     * Returns a copy of this vector that later changes to this vector do not affect.
+     * Strings already in the dictionary keep their codes, so the copy shares it.
+     */
+    synchronized public CellVector copy() {
+        CellVector copy = new CellVector(_types.clone(), _values.clone(), _strings);
+        if (_recons != null) {
+            copy._recons = _recons.clone();
+        }
+        if (_others != null) {
+            copy._others = new HashMap<Integer, Serializable>(_others);
+        }
+        return copy;
+    }
+    
+    public int getCapacity() {
+        return _types.length;
+    }
+    
+    /*
+     * A cell's tag and payload are read under the same lock they are written under, as
+     * a cell whose type changes could otherwise be read with its new tag but old payload.
+     */
+    
+    synchronized public boolean hasCell(int slot) {
+        return _types[slot] != NONE;
+    }
+    
+    synchronized public Serializable getValue(int slot) {
+        switch (_types[slot]) {
+        case STRING:
+            return _strings.decode((int) _values[slot]);
+        case LONG:
+            return _values[slot];
+        case DOUBLE:
+            return Double.longBitsToDouble(_values[slot]);
+        case BOOLEAN:
+            return _values[slot] != 0;
+        case DATE:
+            return new Date(_values[slot]);
+        case OTHER:
+            return _others.get(slot);
+        default:
+            return null;
+        }
+    }
+    
+    synchronized public Recon getRecon(int slot) {
+        return _recons != null ? _recons[slot] : null;
+    }
+    
+    synchronized public Cell getCell(int slot) {
+        return _types[slot] == NONE ? null : new Cell(getValue(slot), getRecon(slot));
+    }
+    
+    synchronized public void setCell(int slot, Cell cell) {
+        if (_types[slot] == OTHER) {
+            _others.remove(slot);
+        }
+        
+        if (cell == null) {
+            _types[slot] = NONE;
+            if (_recons != null) {
+                _recons[slot] = null;
+            }
+            return;
+        }
+        
+        if (cell.recon != null && _recons == null) {
+            _recons = new Recon[_types.length];
+        }
+        if (_recons != null) {
+            _recons[slot] = cell.recon;
+        }
+        
+        Serializable v = cell.value;
+        byte type;
+        if (v == null) {
+            type = EMPTY;
+        } else if (v instanceof String) {
+            _values[slot] = _strings.encode((String) v);
+            type = STRING;
+        } else if (v.getClass() == Long.class) {
+            _values[slot] = (Long) v;
+            type = LONG;
+        } else if (v.getClass() == Double.class) {
+            _values[slot] = Double.doubleToRawLongBits((Double) v);
+            type = DOUBLE;
+        } else if (v instanceof Boolean) {
+            _values[slot] = ((Boolean) v) ? 1 : 0;
+            type = BOOLEAN;
+        } else if (v.getClass() == Date.class) {
+            _values[slot] = ((Date) v).getTime();
+            type = DATE;
+        } else {
+            if (_others == null) {
+                _others = new HashMap<Integer, Serializable>();
+            }
+            _others.put(slot, v);
+            type = OTHER;
+        }
+        
+        _types[slot] = type;
+    }
+    
+    public int getDistinctStringCount() {
+        return _strings.size();
+    }
+}
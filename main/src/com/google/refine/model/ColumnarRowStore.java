@@ -0,0 +1,210 @@
+/*
+
+Copyright 2010, Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,           
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY           
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package com.google.refine.model;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the cells of a project's rows column by column, in one CellVector per
+ * cell index, rather than as one list of Cell objects per row. Rows compacted
+ * into a store keep their Row objects, but their cells lists become views onto
+ * the store: Cell objects are only created when a cell is read, and writes go
+ * straight into the vectors. Rows added to the project later on are ordinary
+ * rows until the project is compacted again.
+ */
+public class ColumnarRowStore {
+    final static Logger logger = LoggerFactory.getLogger("columnar_row_store");
+    
+    final protected int[]           _cellCounts;
+    volatile protected CellVector[] _vectors;
+    
+    protected ColumnarRowStore(int slotCount, int cellIndexCount) {
+        _cellCounts = new int[slotCount];
+        _vectors = new CellVector[cellIndexCount];
+    }
+    
+    /**
+     * Moves the cells of all the project's rows into a new columnar store,
+     * replacing each row by one backed by that store.
+     */
+    static public void compact(Project project) {
+        long start = System.currentTimeMillis();
+        
+        synchronized (project) {
+            List<Row> rows = project.rows;
+            int cellIndexCount = 0;
+            for (Row row : rows) {
+                cellIndexCount = Math.max(cellIndexCount, row.cells.size());
+            }
+            
+            ColumnarRowStore store = new ColumnarRowStore(rows.size(), cellIndexCount);
+            for (int r = 0; r < rows.size(); r++) {
+                Row row = rows.get(r);
+                List<Cell> cells = row.cells;
+                for (int c = 0; c < cells.size(); c++) {
+                    store.setCell(r, c, cells.get(c));
+                }
+                store._cellCounts[r] = cells.size();
+                
+                rows.set(r, new Row(store.new CellList(r), row.flagged, row.starred));
+            }
+        }
+        
+        logger.info(
+            "Compacted project {} into columnar storage in {} ms", project.id, System.currentTimeMillis() - start);
+    }
+    
+    static public boolean isCompacted(Row row) {
+        return row.cells instanceof CellList;
+    }
+    
+    /**
+     * Returns a copy of a compacted row that later changes to the row do not affect.
+     * The copy is backed by a copy of the row's store, made once per store and kept in
+     * the given map, so that copying all the rows of a project copies the store's
+     * vectors rather than creating Cell objects for all their cells.
+     */
+    static public Row copyRow(Row row, Map<ColumnarRowStore, ColumnarRowStore> storeCopies) {
+        CellList cells = (CellList) row.cells;
+        ColumnarRowStore store = cells.getStore();
+        
+        ColumnarRowStore copy = storeCopies.get(store);
+        if (copy == null) {
+            copy = store.copy();
+            storeCopies.put(store, copy);
+        }
+        return new Row(copy.new CellList(cells._slot), row.flagged, row.starred);
+    }
+    
+    synchronized protected ColumnarRowStore copy() {
+        ColumnarRowStore copy = new ColumnarRowStore(_cellCounts.length, _vectors.length);
+        System.arraycopy(_cellCounts, 0, copy._cellCounts, 0, _cellCounts.length);
+        for (int i = 0; i < _vectors.length; i++) {
+            if (_vectors[i] != null) {
+                copy._vectors[i] = _vectors[i].copy();
+            }
+        }
+        return copy;
+    }
+    
+    public int getSlotCount() {
+        return _cellCounts.length;
+    }
+    
+    public CellVector getVector(int cellIndex) {
+        CellVector[] vectors = _vectors;
+        return cellIndex < vectors.length ? vectors[cellIndex] : null;
+    }
+    
+    protected Cell getCell(int slot, int cellIndex) {
+        CellVector vector = getVector(cellIndex);
+        return vector != null ? vector.getCell(slot) : null;
+    }
+    
+    synchronized protected void setCell(int slot, int cellIndex, Cell cell) {
+        CellVector vector = getVector(cellIndex);
+        if (vector == null) {
+            if (cell == null) {
+                return;
+            }
+            
+            CellVector[] vectors = _vectors;
+            if (cellIndex >= vectors.length) {
+                vectors = new CellVector[Math.max(cellIndex + 1, vectors.length * 2)];
+                System.arraycopy(_vectors, 0, vectors, 0, _vectors.length);
+            }
+            vector = new CellVector(_cellCounts.length);
+            vectors[cellIndex] = vector;
+            _vectors = vectors;
+        }
+        vector.setCell(slot, cell);
+    }
+    
+    /**
+     * The cells of one row of the store. Cells can be read, replaced and appended,
+     * but not inserted or removed, which matches how Row uses its list.
+     */
+    protected class CellList extends AbstractList<Cell> implements RandomAccess {
+        final protected int _slot;
+        
+        protected CellList(int slot) {
+            _slot = slot;
+        }
+        
+        protected ColumnarRowStore getStore() {
+            return ColumnarRowStore.this;
+        }
+        
+        @Override
+        public int size() {
+            return _cellCounts[_slot];
+        }
+        
+        @Override
+        public Cell get(int index) {
+            checkIndex(index, size());
+            return getCell(_slot, index);
+        }
+        
+        @Override
+        public Cell set(int index, Cell cell) {
+            checkIndex(index, size());
+            Cell old = getCell(_slot, index);
+            setCell(_slot, index, cell);
+            return old;
+        }
+        
+        @Override
+        public void add(int index, Cell cell) {
+            if (index != size()) {
+                throw new UnsupportedOperationException("Cells can only be appended to a columnar row");
+            }
+            setCell(_slot, index, cell);
+            _cellCounts[_slot]++;
+            modCount++;
+        }
+        
+        protected void checkIndex(int index, int size) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+
+Copyright 2010, Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,           
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY           
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package com.google.refine.model;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.refine.util.Pool;
+
+/**
+ * The rows of a project loaded from a memory-mapped snapshot file. Each row is
+ * decoded the first time it is accessed, and then kept, as callers may change it.
+ * Rows can be replaced in place, but inserting or removing rows first decodes all
+ * of them into an ordinary list, after which the mapped file is no longer used.
+ */
+public class MappedRowList extends AbstractList<Row> implements RandomAccess, ProjectSnapshot.StringTable {
+    final protected ByteBuffer                      _buffer;
+    final protected Pool                            _pool;
+    final protected int                             _stringIndexOffset;
+    final protected int                             _rowIndexOffset;
+    final protected AtomicReferenceArray<String>    _strings;
+    final protected AtomicReferenceArray<Row>       _rows;
+    
+    volatile protected List<Row>                    _materializedRows;
+    
+    protected MappedRowList(
+        ByteBuffer buffer, Pool pool, int stringIndexOffset, int stringCount, int rowIndexOffset, int rowCount) {
+        
+        _buffer = buffer;
+        _pool = pool;
+        _stringIndexOffset = stringIndexOffset;
+        _rowIndexOffset = rowIndexOffset;
+        _strings = new AtomicReferenceArray<String>(stringCount);
+        _rows = new AtomicReferenceArray<Row>(rowCount);
+    }
+    
+    @Override
+    public int size() {
+        List<Row> rows = _materializedRows;
+        return rows != null ? rows.size() : _rows.length();
+    }
+    
+    @Override
+    public Row get(int index) {
+        List<Row> rows = _materializedRows;
+        if (rows != null) {
+            return rows.get(index);
+        }
+        
+        Row row = _rows.get(index);
+        if (row == null) {
+            row = decodeRow(index);
+            if (!_rows.compareAndSet(index, null, row)) {
+                row = _rows.get(index);
+            }
+        }
+        return row;
+    }
+    
+    /**
+     * Returns the row at the given index without keeping it in memory if it has not
+     * been accessed yet.
+     */
+    public Row peek(int index) {
+        List<Row> rows = _materializedRows;
+        if (rows != null) {
+            return rows.get(index);
+        }
+        
+        Row row = _rows.get(index);
+        return row != null ? row : decodeRow(index);
+    }
+    
+    /**
+     * Returns the row at the given index if it has been accessed, or null otherwise.
+     */
+    protected Row getDecoded(int index) {
+        List<Row> rows = _materializedRows;
+        return rows != null ? rows.get(index) : _rows.get(index);
+    }
+    
+    /**
+     * Returns the row at the given index of any project's rows, without keeping it in
+     * memory if the rows are mapped and it has not been accessed yet. This is for
+     * going through all rows of a project just to read them.
+     */
+    static public Row peek(List<Row> rows, int index) {
+        return rows instanceof MappedRowList ? ((MappedRowList) rows).peek(index) : rows.get(index);
+    }
+    
+    @Override
+    public Row set(int index, Row row) {
+        List<Row> rows = _materializedRows;
+        if (rows != null) {
+            return rows.set(index, row);
+        }
+        
+        Row old = get(index);
+        _rows.set(index, row);
+        return old;
+    }
+    
+    @Override
+    public void add(int index, Row row) {
+        materialize().add(index, row);
+        modCount++;
+    }
+    
+    @Override
+    public Row remove(int index) {
+        Row row = materialize().remove(index);
+        modCount++;
+        return row;
+    }
+    
+    @Override
+    public void clear() {
+        _materializedRows = new ArrayList<Row>();
+        modCount++;
+    }
+    
+    public boolean isMaterialized() {
+        return _materializedRows != null;
+    }
+    
+    /**
+     * Decodes all the rows not accessed yet, and switches to keeping them in an ordinary list.
+     */
+    synchronized public List<Row> materialize() {
+        if (_materializedRows == null) {
+            int count = _rows.length();
+            List<Row> rows = new ArrayList<Row>(count);
+            for (int i = 0; i < count; i++) {
+                rows.add(get(i));
+            }
+            _materializedRows = rows;
+        }
+        return _materializedRows;
+    }
+    
+    @Override
+    public String getString(int code) throws IOException {
+        String s = _strings.get(code);
+        if (s == null) {
+            DataInputStream in = openAt(_buffer.getLong(_stringIndexOffset + 8 * code));
+            s = ProjectSnapshot.readString(in);
+            if (!_strings.compareAndSet(code, null, s)) {
+                s = _strings.get(code);
+            }
+        }
+        return s;
+    }
+    
+    protected Row decodeRow(int index) {
+        try {
+            DataInputStream in = openAt(_buffer.getLong(_rowIndexOffset + 8 * index));
+            return ProjectSnapshot.readRow(in, this, _pool);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to decode row " + index + " of project snapshot", e);
+        }
+    }
+    
+    protected DataInputStream openAt(long offset) {
+        ByteBuffer buffer = _buffer.duplicate();
+        buffer.position((int) offset);
+        return new DataInputStream(new ProjectSnapshot.ByteBufferInputStream(buffer));
+    }
+}
@@ -47,6 +47,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -59,6 +60,7 @@ import com.google.refine.ProjectMetadata;
 import com.google.refine.RefineServlet;
 import com.google.refine.history.History;
 import com.google.refine.process.ProcessManager;
+import com.google.refine.util.ColumnInterners;
 import com.google.refine.util.ParsingUtilities;
 import com.google.refine.util.Pool;
 
@@ -71,7 +73,7 @@ public class Project {
     }
     
     final public long                       id;
-    final public List<Row>                  rows = new ArrayList<Row>();
+    final public List<Row>                  rows;
     
     final public ColumnModel                columnModel = new ColumnModel();
     final public RecordModel                recordModel = new RecordModel();
@@ -81,6 +83,7 @@ public class Project {
     
     transient public ProcessManager processManager = new ProcessManager();
     transient private Date _lastSave = new Date();
+    transient final private AtomicLong _changeVersion = new AtomicLong();
 
     final static Logger logger = LoggerFactory.getLogger("project");
 
@@ -90,11 +93,17 @@ public class Project {
 
     public Project() {
         id = generateID();
+        rows = new ArrayList<Row>();
         history = new History(this);
     }
 
     protected Project(long id) {
+        this(id, new ArrayList<Row>());
+    }
+    
+    protected Project(long id, List<Row> rows) {
         this.id = id;
+        this.rows = rows;
         this.history = new History(this);
     }
     
@@ -117,19 +126,32 @@ public class Project {
     public void setLastSave(){
         this._lastSave = new Date();
     }
+    
+    /**
+     * Sets the lastSave time to when the data that got saved was taken from the project
+     */
+    public void setLastSave(Date time){
+        this._lastSave = time;
+    }
+
+    /**
+     * Returns a number that changes whenever the project's data changes, so that
+     * anything computed and cached from the data can tell whether it is still current.
+     */
+    public long getChangeVersion() {
+        return _changeVersion.get();
+    }
+    
+    public void incrementChangeVersion() {
+        _changeVersion.incrementAndGet();
+    }
 
     public ProjectMetadata getMetadata() {
         return ProjectManager.singleton.getProjectMetadata(id);
     }
 
     public void saveToOutputStream(OutputStream out, Pool pool) throws IOException {
-        for (OverlayModel overlayModel : overlayModels.values()) {
-            try {
-                overlayModel.onBeforeSave(this);
-            } catch (Exception e) {
-                logger.warn("Error signaling overlay model before saving", e);
-            }
-        }
+        signalBeforeSave();
         
         Writer writer = new OutputStreamWriter(out, "UTF-8");
         try {
@@ -142,6 +164,20 @@ public class Project {
             writer.flush();
         }
         
+        signalAfterSave();
+    }
+    
+    protected void signalBeforeSave() {
+        for (OverlayModel overlayModel : overlayModels.values()) {
+            try {
+                overlayModel.onBeforeSave(this);
+            } catch (Exception e) {
+                logger.warn("Error signaling overlay model before saving", e);
+            }
+        }
+    }
+    
+    protected void signalAfterSave() {
         for (OverlayModel overlayModel : overlayModels.values()) {
             try {
                 overlayModel.onAfterSave(this);
@@ -152,6 +188,18 @@ public class Project {
     }
 
     protected void saveToWriter(Writer writer, Properties options) throws IOException {
+        saveModelsToWriter(writer, options);
+        
+        writer.write("rowCount="); writer.write(Integer.toString(rows.size())); writer.write('\n');
+        for (Row row : rows) {
+            row.save(writer, options); writer.write('\n');
+        }
+    }
+    
+    /**
+     * Writes everything but the rows: the column model, the history and the overlay models.
+     */
+    protected void saveModelsToWriter(Writer writer, Properties options) throws IOException {
         writer.write(RefineServlet.VERSION); writer.write('\n');
         
         writer.write("columnModel=\n"); columnModel.save(writer, options);
@@ -171,11 +219,6 @@ public class Project {
             }
             writer.write('\n');
         }
-        
-        writer.write("rowCount="); writer.write(Integer.toString(rows.size())); writer.write('\n');
-        for (Row row : rows) {
-            row.save(writer, options); writer.write('\n');
-        }
     }
     
     static public Project loadFromInputStream(InputStream is, long id, Pool pool) throws Exception {
@@ -189,10 +232,26 @@ public class Project {
     ) throws Exception {
         long start = System.currentTimeMillis();
         
-        /* String version = */ reader.readLine();
-        
         Project project = new Project(id);
+        ColumnInterners interners = new ColumnInterners();
+        
+        project.loadFromReader(reader, pool, interners);
+        
         int maxCellCount = 0;
+        for (Row row : project.rows) {
+            maxCellCount = Math.max(maxCellCount, row.cells.size());
+        }
+        project.finishLoading(maxCellCount, interners, start);
+
+        return project;
+    }
+    
+    /**
+     * Reads what saveToWriter or saveModelsToWriter wrote, adding any rows found
+     * to this project.
+     */
+    protected void loadFromReader(LineNumberReader reader, Pool pool, ColumnInterners interners) throws Exception {
+        /* String version = */ reader.readLine();
         
         String line;
         while ((line = reader.readLine()) != null) {
@@ -206,18 +265,17 @@ public class Project {
             }
             
             if ("columnModel".equals(field)) {
-                project.columnModel.load(reader);
+                columnModel.load(reader);
             } else if ("history".equals(field)) {
-                project.history.load(project, reader);
+                history.load(this, reader);
             } else if ("rowCount".equals(field)) {
                 int count = Integer.parseInt(value);
 
                 for (int i = 0; i < count; i++) {
                     line = reader.readLine();
                     if (line != null) {
-                        Row row = Row.load(line, pool);
-                        project.rows.add(row);
-                        maxCellCount = Math.max(maxCellCount, row.cells.size());
+                        Row row = Row.load(line, pool, interners);
+                        rows.add(row);
                     }
                 }
             } else if (field.startsWith("overlayModel:")) {
@@ -229,28 +287,33 @@ public class Project {
                         Method loadMethod = klass.getMethod("load", Project.class, JSONObject.class);
                         JSONObject obj = ParsingUtilities.evaluateJsonStringToObject(value);
                     
-                        OverlayModel overlayModel = (OverlayModel) loadMethod.invoke(null, project, obj);
+                        OverlayModel overlayModel = (OverlayModel) loadMethod.invoke(null, this, obj);
                         
-                        project.overlayModels.put(modelName, overlayModel);
+                        overlayModels.put(modelName, overlayModel);
                     } catch (Exception e) {
                         logger.error("Failed to load overlay model " + modelName);
                     }
                 }
             }
         }
-
-        project.columnModel.setMaxCellIndex(maxCellCount - 1);
+    }
+    
+    protected void finishLoading(int maxCellCount, ColumnInterners interners, long start) {
+        columnModel.setMaxCellIndex(maxCellCount - 1);
+        
+        if (interners != null) {
+            interners.logStats(logger, this);
+        }
 
         logger.info(
             "Loaded project {} from disk in {} sec(s)",id,Long.toString((System.currentTimeMillis() - start) / 1000)
         );
 
-        project.update();
-
-        return project;
+        update();
     }
 
     public void update() {
+        incrementChangeVersion();
         columnModel.update();
         recordModel.update(this);
     }
@@ -0,0 +1,609 @@
+/*
+
+Copyright 2010, Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,           
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY           
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package com.google.refine.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.LineNumberReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import com.google.refine.expr.EvalError;
+import com.google.refine.util.Pool;
+
+/**
+ * Saves and loads a whole project in a binary format that can be decoded without
+ * any JSON parsing of the rows. A snapshot is laid out as:
+ * 
+ *   magic number, format version
+ *   id         - a random number telling this snapshot from any other, which the
+ *                project's journal refers to (since version 3)
+ *   models     - the column model, history and overlay models, as saved in text
+ *   pool       - the recons referenced by the rows, as saved in text
+ *   strings    - count, then each distinct string used by the rows
+ *   rows       - count, then each row as its byte length followed by:
+ *                flags byte, cell count, and for each cell a tag byte and its payload
+ *   index      - the file offset of each string, then of each row (since version 2)
+ *   trailer    - offsets of the string and row indices, maximum cell count, magic number
+ *                (since version 2)
+ * 
+ * Strings are written as their UTF-8 byte length followed by the bytes, and
+ * counts, lengths and string references as variable-length integers.
+ * 
+ * The index and trailer let a snapshot file be memory-mapped and its rows decoded
+ * only when they are first accessed, see MappedRowList.
+ */
+public class ProjectSnapshot {
+    static final public int MAGIC = 0x47525053; // "GRPS"
+    static final public int VERSION = 3;
+    static final protected int TRAILER_LENGTH = 24;
+    
+    static final protected Random s_random = new Random();
+    
+    static final protected int ROW_FLAGGED = 1;
+    static final protected int ROW_STARRED = 2;
+    
+    static final protected int CELL_NONE = 0;
+    static final protected int CELL_NULL = 1;
+    static final protected int CELL_STRING = 2;
+    static final protected int CELL_LONG = 3;
+    static final protected int CELL_DOUBLE = 4;
+    static final protected int CELL_TRUE = 5;
+    static final protected int CELL_FALSE = 6;
+    static final protected int CELL_DATE = 7;
+    static final protected int CELL_ERROR = 8;
+    static final protected int CELL_HAS_RECON = 0x80;
+    
+    final protected Project         _project;
+    final protected Pool            _pool;
+    final protected String          _models;
+    final protected Row[]           _rows;
+    final protected MappedRowList   _mappedRows;
+    
+    protected ProjectSnapshot(Project project, Pool pool, String models, Row[] rows, MappedRowList mappedRows) {
+        _project = project;
+        _pool = pool;
+        _models = models;
+        _rows = rows;
+        _mappedRows = mappedRows;
+    }
+    
+    static public void save(Project project, OutputStream os) throws IOException {
+        capture(project).write(os);
+    }
+    
+    /**
+     * Takes a consistent copy of the project's data, which can then be written out
+     * while the project goes on being used and changed. Cells never change, so copying
+     * the list of cells of each row is enough, and rows kept in columnar stores are
+     * copied along with their store, a few arrays per column. Rows of a mapped project
+     * that have not been accessed since it was loaded are not copied, but read again
+     * from the file when written.
+     */
+    static public ProjectSnapshot capture(Project project) throws IOException {
+        synchronized (project) {
+            project.signalBeforeSave();
+            
+            Pool pool = new Pool();
+            Properties options = new Properties();
+            options.setProperty("mode", "save");
+            options.put("pool", pool);
+            
+            StringWriter models = new StringWriter();
+            project.saveModelsToWriter(models, options);
+            
+            List<Row> rows = project.rows;
+            MappedRowList mappedRows = rows instanceof MappedRowList && !((MappedRowList) rows).isMaterialized() ?
+                (MappedRowList) rows : null;
+            
+            Map<ColumnarRowStore, ColumnarRowStore> storeCopies =
+                new IdentityHashMap<ColumnarRowStore, ColumnarRowStore>();
+            
+            Row[] rowCopies = new Row[rows.size()];
+            for (int r = 0; r < rowCopies.length; r++) {
+                Row row = mappedRows != null ? mappedRows.getDecoded(r) : rows.get(r);
+                if (row == null) {
+                    continue;
+                } else if (ColumnarRowStore.isCompacted(row)) {
+                    rowCopies[r] = ColumnarRowStore.copyRow(row, storeCopies);
+                } else {
+                    rowCopies[r] = row.dup();
+                }
+            }
+            
+            return new ProjectSnapshot(project, pool, models.toString(), rowCopies, mappedRows);
+        }
+    }
+    
+    protected Row getRow(int index) {
+        Row row = _rows[index];
+        return row != null ? row : _mappedRows.decodeRow(index);
+    }
+    
+    public void write(OutputStream os) throws IOException {
+        Map<String, Integer> stringCodes = new HashMap<String, Integer>();
+        List<String> strings = new ArrayList<String>();
+        for (int r = 0; r < _rows.length; r++) {
+            for (Cell cell : getRow(r).cells) {
+                if (cell != null) {
+                    String s = getStringPayload(cell.value);
+                    if (s != null && !stringCodes.containsKey(s)) {
+                        stringCodes.put(s, strings.size());
+                        strings.add(s);
+                    }
+                    if (cell.recon != null) {
+                        _pool.pool(cell.recon);
+                    }
+                }
+            }
+        }
+        
+        StringWriter poolWriter = new StringWriter();
+        _pool.save(poolWriter);
+        
+        CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(os, 65536));
+        DataOutputStream out = new DataOutputStream(counter);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(newId());
+        writeString(out, _models);
+        writeString(out, poolWriter.toString());
+        
+        long[] stringOffsets = new long[strings.size()];
+        writeVarInt(out, strings.size());
+        for (int i = 0; i < stringOffsets.length; i++) {
+            stringOffsets[i] = counter.count;
+            writeString(out, strings.get(i));
+        }
+        
+        ByteArrayOutputStream rowBytes = new ByteArrayOutputStream();
+        DataOutputStream rowOut = new DataOutputStream(rowBytes);
+        
+        long[] rowOffsets = new long[_rows.length];
+        int maxCellCount = 0;
+        writeVarInt(out, _rows.length);
+        for (int r = 0; r < rowOffsets.length; r++) {
+            Row row = getRow(r);
+            maxCellCount = Math.max(maxCellCount, row.cells.size());
+            
+            rowBytes.reset();
+            writeRow(rowOut, row, stringCodes);
+            rowOut.flush();
+            
+            writeVarInt(out, rowBytes.size());
+            rowOffsets[r] = counter.count;
+            rowBytes.writeTo(out);
+        }
+        
+        long stringIndexOffset = counter.count;
+        for (long offset : stringOffsets) {
+            out.writeLong(offset);
+        }
+        long rowIndexOffset = counter.count;
+        for (long offset : rowOffsets) {
+            out.writeLong(offset);
+        }
+        
+        out.writeLong(stringIndexOffset);
+        out.writeLong(rowIndexOffset);
+        out.writeInt(maxCellCount);
+        out.writeInt(MAGIC);
+        out.flush();
+        
+        _project.signalAfterSave();
+    }
+    
+    static public Project load(InputStream is, long id) throws Exception {
+        long start = System.currentTimeMillis();
+        
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is, 65536));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a project snapshot");
+        }
+        int version = in.readInt();
+        if (version > VERSION) {
+            throw new IOException("Unsupported project snapshot version " + version);
+        }
+        if (version >= 3) {
+            /* long id = */ in.readLong();
+        }
+        
+        String models = readString(in);
+        Pool pool = new Pool();
+        pool.load(new StringReader(readString(in)));
+        
+        Project project = new Project(id);
+        project.loadFromReader(new LineNumberReader(new StringReader(models)), pool, null);
+        
+        final String[] strings = new String[readVarInt(in)];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = readString(in);
+        }
+        StringTable stringTable = new StringTable() {
+            @Override
+            public String getString(int code) {
+                return strings[code];
+            }
+        };
+        
+        int rowCount = readVarInt(in);
+        int maxCellCount = 0;
+        for (int i = 0; i < rowCount; i++) {
+            /* int length = */ readVarInt(in);
+            Row row = readRow(in, stringTable, pool);
+            project.rows.add(row);
+            maxCellCount = Math.max(maxCellCount, row.cells.size());
+        }
+        
+        project.finishLoading(maxCellCount, null, start);
+        
+        return project;
+    }
+    
+    /**
+     * Loads a project from a snapshot file by mapping the file into memory, decoding
+     * its rows only as they get accessed. Snapshots written before rows were indexed,
+     * and files too large to be mapped at once, are loaded in full instead.
+     */
+    static public Project loadMapped(File file, long id) throws Exception {
+        long start = System.currentTimeMillis();
+        
+        ByteBuffer buffer = null;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size <= Integer.MAX_VALUE) {
+                // the mapping stays valid after the channel is closed
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+        } finally {
+            raf.close();
+        }
+        
+        int version = buffer != null && buffer.limit() >= 8 ? buffer.getInt(4) : 0;
+        if (buffer == null || buffer.limit() < 16 + TRAILER_LENGTH ||
+            buffer.getInt(0) != MAGIC || version < 2 || version > VERSION) {
+            InputStream is = new FileInputStream(file);
+            try {
+                return load(is, id);
+            } finally {
+                is.close();
+            }
+        }
+        
+        int trailer = buffer.limit() - TRAILER_LENGTH;
+        if (buffer.getInt(trailer + 20) != MAGIC) {
+            throw new IOException("Truncated project snapshot");
+        }
+        int stringIndexOffset = (int) buffer.getLong(trailer);
+        int rowIndexOffset = (int) buffer.getLong(trailer + 8);
+        int maxCellCount = buffer.getInt(trailer + 16);
+        
+        ByteBuffer header = buffer.duplicate();
+        header.position(version >= 3 ? 16 : 8);
+        DataInputStream in = new DataInputStream(new ByteBufferInputStream(header));
+        
+        String models = readString(in);
+        Pool pool = new Pool();
+        pool.load(new StringReader(readString(in)));
+        
+        MappedRowList rows = new MappedRowList(
+            buffer,
+            pool,
+            stringIndexOffset,
+            (rowIndexOffset - stringIndexOffset) / 8,
+            rowIndexOffset,
+            (trailer - rowIndexOffset) / 8
+        );
+        
+        Project project = new Project(id, rows);
+        project.loadFromReader(new LineNumberReader(new StringReader(models)), pool, null);
+        project.finishLoading(maxCellCount, null, start);
+        
+        return project;
+    }
+    
+    /**
+     * Reads the id of the snapshot in the given file, or returns 0 if the snapshot
+     * was written before snapshots had ids.
+     */
+    static public long readId(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a project snapshot");
+            }
+            return in.readInt() >= 3 ? in.readLong() : 0;
+        } finally {
+            in.close();
+        }
+    }
+    
+    static protected long newId() {
+        long id;
+        do {
+            id = s_random.nextLong();
+        } while (id == 0);
+        return id;
+    }
+    
+    /**
+     * Where the strings referenced by the cells of the rows being decoded are looked up.
+     */
+    static public interface StringTable {
+        public String getString(int code) throws IOException;
+    }
+    
+    static protected void writeRow(DataOutput out, Row row, Map<String, Integer> stringCodes) throws IOException {
+        out.writeByte((row.flagged ? ROW_FLAGGED : 0) | (row.starred ? ROW_STARRED : 0));
+        
+        List<Cell> cells = row.cells;
+        writeVarInt(out, cells.size());
+        for (int i = 0; i < cells.size(); i++) {
+            writeCell(out, cells.get(i), stringCodes);
+        }
+    }
+    
+    static protected Row readRow(DataInput in, StringTable strings, Pool pool) throws IOException {
+        int flags = in.readByte();
+        int cellCount = readVarInt(in);
+        
+        List<Cell> cells = new ArrayList<Cell>(cellCount);
+        for (int i = 0; i < cellCount; i++) {
+            cells.add(readCell(in, strings, pool));
+        }
+        return new Row(cells, (flags & ROW_FLAGGED) != 0, (flags & ROW_STARRED) != 0);
+    }
+    
+    /**
+     * Returns the string a cell value is saved as, if it is saved as a string at all.
+     * Values of types that the snapshot format has no tag for are saved as strings,
+     * just as they are in the text format.
+     */
+    static public String getStringPayload(Serializable value) {
+        if (value == null || value instanceof Number || value instanceof Boolean ||
+            value instanceof Date || value instanceof Calendar) {
+            return null;
+        } else if (value instanceof EvalError) {
+            return ((EvalError) value).message;
+        } else {
+            return value.toString();
+        }
+    }
+    
+    static protected void writeCell(DataOutput out, Cell cell, Map<String, Integer> stringCodes) throws IOException {
+        int tag = getCellTag(cell);
+        out.writeByte(tag);
+        writeCellPayload(out, cell, tag, stringCodes);
+    }
+    
+    static protected Cell readCell(DataInput in, StringTable strings, Pool pool) throws IOException {
+        return readCellPayload(in, in.readByte() & 0xff, strings, pool);
+    }
+    
+    /**
+     * Returns the tag byte that tells a cell's value type and whether it has a recon.
+     * Tags and payloads can be written separately, e.g., a tag for all the cells of
+     * a column whose values are all of the same type.
+     */
+    static public int getCellTag(Cell cell) {
+        if (cell == null) {
+            return CELL_NONE;
+        }
+        
+        int recon = cell.recon != null ? CELL_HAS_RECON : 0;
+        Serializable v = cell.value;
+        if (v == null) {
+            return CELL_NULL | recon;
+        } else if (v instanceof Double || v instanceof Float) {
+            return CELL_DOUBLE | recon;
+        } else if (v instanceof Number) {
+            return CELL_LONG | recon;
+        } else if (v instanceof Boolean) {
+            return ((Boolean) v ? CELL_TRUE : CELL_FALSE) | recon;
+        } else if (v instanceof Date || v instanceof Calendar) {
+            return CELL_DATE | recon;
+        } else {
+            return (v instanceof EvalError ? CELL_ERROR : CELL_STRING) | recon;
+        }
+    }
+    
+    static public void writeCellPayload(DataOutput out, Cell cell, int tag, Map<String, Integer> stringCodes)
+        throws IOException {
+        
+        switch (tag & ~CELL_HAS_RECON) {
+        case CELL_NONE:
+            return;
+        case CELL_DOUBLE:
+            out.writeDouble(((Number) cell.value).doubleValue());
+            break;
+        case CELL_LONG:
+            out.writeLong(((Number) cell.value).longValue());
+            break;
+        case CELL_DATE:
+            out.writeLong(cell.value instanceof Date ?
+                ((Date) cell.value).getTime() : ((Calendar) cell.value).getTimeInMillis());
+            break;
+        case CELL_STRING:
+        case CELL_ERROR:
+            writeVarInt(out, stringCodes.get(getStringPayload(cell.value)));
+            break;
+        }
+        
+        if (cell.recon != null) {
+            out.writeLong(cell.recon.id);
+        }
+    }
+    
+    static public Cell readCellPayload(DataInput in, int tag, StringTable strings, Pool pool) throws IOException {
+        if (tag == CELL_NONE) {
+            return null;
+        }
+        
+        Serializable value;
+        switch (tag & ~CELL_HAS_RECON) {
+        case CELL_NULL:
+            value = null;
+            break;
+        case CELL_STRING:
+            value = strings.getString(readVarInt(in));
+            break;
+        case CELL_LONG:
+            value = in.readLong();
+            break;
+        case CELL_DOUBLE:
+            value = in.readDouble();
+            break;
+        case CELL_TRUE:
+            value = true;
+            break;
+        case CELL_FALSE:
+            value = false;
+            break;
+        case CELL_DATE:
+            value = new Date(in.readLong());
+            break;
+        case CELL_ERROR:
+            value = new EvalError(strings.getString(readVarInt(in)));
+            break;
+        default:
+            throw new IOException("Unknown cell type " + tag);
+        }
+        
+        Recon recon = null;
+        if ((tag & CELL_HAS_RECON) != 0) {
+            recon = pool.getRecon(Long.toString(in.readLong()));
+        }
+        return new Cell(value, recon);
+    }
+    
+    static public void writeString(DataOutput out, String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+    
+    static public String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+    
+    static public void writeVarInt(DataOutput out, int n) throws IOException {
+        while ((n & ~0x7f) != 0) {
+            out.writeByte((n & 0x7f) | 0x80);
+            n >>>= 7;
+        }
+        out.writeByte(n);
+    }
+    
+    static public int readVarInt(DataInput in) throws IOException {
+        int n = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readByte();
+            n |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return n;
+            }
+        }
+    }
+    
+    static protected class CountingOutputStream extends FilterOutputStream {
+        protected long count;
+        
+        public CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+    
+    static protected class ByteBufferInputStream extends InputStream {
+        final protected ByteBuffer _buffer;
+        
+        public ByteBufferInputStream(ByteBuffer buffer) {
+            _buffer = buffer;
+        }
+        
+        @Override
+        public int read() {
+            return _buffer.hasRemaining() ? _buffer.get() & 0xff : -1;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!_buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, _buffer.remaining());
+            _buffer.get(b, off, len);
+            return len;
+        }
+    }
+}
@@ -64,17 +64,23 @@ public class RecordModel implements Jsonizable {
 
     protected List<RowDependency> _rowDependencies;
     protected List<Record> _records;
+    
+    // the project whose records are yet to be computed, if any
+    volatile protected Project _staleProject;
 
     public RowDependency getRowDependency(int rowIndex) {
+        ensureUpdated();
         return _rowDependencies != null && rowIndex >= 0 && rowIndex < _rowDependencies.size() ?
                 _rowDependencies.get(rowIndex) : null;
     }
 
     public int getRecordCount() {
+        ensureUpdated();
         return _records.size();
     }
 
     public Record getRecord(int recordIndex) {
+        ensureUpdated();
         return _records != null && recordIndex >= 0 && recordIndex < _records.size() ?
                 _records.get(recordIndex) : null;
     }
@@ -91,8 +97,9 @@ public class RecordModel implements Jsonizable {
     }
 
     @Override
-    synchronized public void write(JSONWriter writer, Properties options)
+    public void write(JSONWriter writer, Properties options)
     throws JSONException {
+        ensureUpdated();
 
         writer.object();
         writer.key("hasRecords"); writer.value(_records.size() < _rowDependencies.size());
@@ -104,83 +111,105 @@ public class RecordModel implements Jsonizable {
         int     keyCellIndex;
     }
 
-    synchronized public void update(Project project) {
-        synchronized (project) {
-            List<Row> rows = project.rows;
-            int rowCount = rows.size();
+    /**
+     * Marks the records as needing to be recomputed from the project's rows. This only
+     * happens when they are next needed, so that loading or changing a project does
+     * not have to go through all its rows right away.
+     */
+    public void update(Project project) {
+        _staleProject = project;
+    }
+    
+    protected void ensureUpdated() {
+        Project project = _staleProject;
+        if (project != null) {
+            // same locking order as when changes are applied and the project updated
+            synchronized (project) {
+                synchronized (this) {
+                    if (_staleProject == project) {
+                        compute(project);
+                        _staleProject = null;
+                    }
+                }
+            }
+        }
+    }
 
-            ColumnModel columnModel = project.columnModel;
-            List<KeyedGroup> keyedGroups = computeKeyedGroups(columnModel);
-            int groupCount = keyedGroups.size();
+    protected void compute(Project project) {
+        List<Row> rows = project.rows;
+        int rowCount = rows.size();
 
-            int[] lastNonBlankRowsByGroup = new int[keyedGroups.size()];
-            for (int i = 0; i < lastNonBlankRowsByGroup.length; i++) {
-                lastNonBlankRowsByGroup[i] = -1;
-            }
+        ColumnModel columnModel = project.columnModel;
+        List<KeyedGroup> keyedGroups = computeKeyedGroups(columnModel);
+        int groupCount = keyedGroups.size();
+
+        int[] lastNonBlankRowsByGroup = new int[keyedGroups.size()];
+        for (int i = 0; i < lastNonBlankRowsByGroup.length; i++) {
+            lastNonBlankRowsByGroup[i] = -1;
+        }
 
-            _rowDependencies = new ArrayList<RowDependency>(rowCount);
-
-            int recordIndex = 0;
-            for (int r = 0; r < rowCount; r++) {
-                Row row = rows.get(r);
-                RowDependency rowDependency = new RowDependency();
-
-                for (int g = 0; g < groupCount; g++) {
-                    KeyedGroup group = keyedGroups.get(g);
-
-                    if (!ExpressionUtils.isNonBlankData(row.getCellValue(group.keyCellIndex))) {
-                        int contextRowIndex = lastNonBlankRowsByGroup[g];
-                        if (contextRowIndex >= 0) {
-                            for (int dependentCellIndex : group.cellIndices) {
-                                if (ExpressionUtils.isNonBlankData(row.getCellValue(dependentCellIndex))) {
-                                    setRowDependency(
-                                            project,
-                                            rowDependency,
-                                            dependentCellIndex,
-                                            contextRowIndex,
-                                            group.keyCellIndex
-                                    );
-                                }
+        _rowDependencies = new ArrayList<RowDependency>(rowCount);
+
+        int recordIndex = 0;
+        for (int r = 0; r < rowCount; r++) {
+            Row row = MappedRowList.peek(rows, r);
+            RowDependency rowDependency = new RowDependency();
+
+            for (int g = 0; g < groupCount; g++) {
+                KeyedGroup group = keyedGroups.get(g);
+
+                if (!ExpressionUtils.isNonBlankData(row.getCellValue(group.keyCellIndex))) {
+                    int contextRowIndex = lastNonBlankRowsByGroup[g];
+                    if (contextRowIndex >= 0) {
+                        for (int dependentCellIndex : group.cellIndices) {
+                            if (ExpressionUtils.isNonBlankData(row.getCellValue(dependentCellIndex))) {
+                                setRowDependency(
+                                        project,
+                                        rowDependency,
+                                        dependentCellIndex,
+                                        contextRowIndex,
+                                        group.keyCellIndex
+                                );
                             }
                         }
-                    } else {
-                        lastNonBlankRowsByGroup[g] = r;
                     }
+                } else {
+                    lastNonBlankRowsByGroup[g] = r;
                 }
+            }
 
-                if (rowDependency.cellDependencies != null && rowDependency.cellDependencies.length > 0) {
-                    rowDependency.recordIndex = -1;
-                    rowDependency.contextRows = new ArrayList<Integer>();
-                    for (CellDependency cd : rowDependency.cellDependencies) {
-                        if (cd != null) {
-                            rowDependency.contextRows.add(cd.rowIndex);
-                        }
+            if (rowDependency.cellDependencies != null && rowDependency.cellDependencies.length > 0) {
+                rowDependency.recordIndex = -1;
+                rowDependency.contextRows = new ArrayList<Integer>();
+                for (CellDependency cd : rowDependency.cellDependencies) {
+                    if (cd != null) {
+                        rowDependency.contextRows.add(cd.rowIndex);
                     }
-                    Collections.sort(rowDependency.contextRows);
-                } else {
-                    rowDependency.recordIndex = recordIndex++;
                 }
-
-                _rowDependencies.add(rowDependency);
+                Collections.sort(rowDependency.contextRows);
+            } else {
+                rowDependency.recordIndex = recordIndex++;
             }
 
-            _records = new ArrayList<Record>(recordIndex);
-            if (recordIndex > 0) {
-                recordIndex = 0;
+            _rowDependencies.add(rowDependency);
+        }
 
-                int recordRowIndex = 0;
-                for (int r = 1; r < rowCount; r++) {
-                    RowDependency rd = _rowDependencies.get(r);
-                    if (rd.recordIndex >= 0) {
-                        _records.add(new Record(recordRowIndex, r, recordIndex++));
+        _records = new ArrayList<Record>(recordIndex);
+        if (recordIndex > 0) {
+            recordIndex = 0;
 
-                        recordIndex = rd.recordIndex;
-                        recordRowIndex = r;
-                    }
-                }
+            int recordRowIndex = 0;
+            for (int r = 1; r < rowCount; r++) {
+                RowDependency rd = _rowDependencies.get(r);
+                if (rd.recordIndex >= 0) {
+                    _records.add(new Record(recordRowIndex, r, recordIndex++));
 
-                _records.add(new Record(recordRowIndex, rowCount, recordIndex++));
+                    recordIndex = rd.recordIndex;
+                    recordRowIndex = r;
+                }
             }
+
+            _records.add(new Record(recordRowIndex, rowCount, recordIndex++));
         }
     }
 
@@ -48,6 +48,7 @@ import org.json.JSONWriter;
 import com.google.refine.Jsonizable;
 import com.google.refine.expr.CellTuple;
 import com.google.refine.expr.HasFields;
+import com.google.refine.util.ColumnInterners;
 import com.google.refine.util.Pool;
 
 public class Row implements HasFields, Jsonizable {
@@ -195,11 +196,23 @@ public class Row implements HasFields, Jsonizable {
     }
     
     static public Row load(String s, Pool pool) throws Exception {
+        return load(s, pool, null);
+    }
+    
+    static public Row load(String s, Pool pool, ColumnInterners interners) throws Exception {
         return s.length() == 0 ? null : 
-            loadStreaming(s, pool);
+            loadStreaming(s, pool, interners);
     }
     
     static public Row loadStreaming(String s, Pool pool) throws Exception {
+        return loadStreaming(s, pool, null);
+    }
+    
+    /**
+     * Loads a row, sharing string cell values with the other rows loaded through the
+     * same interners, if any.
+     */
+    static public Row loadStreaming(String s, Pool pool, ColumnInterners interners) throws Exception {
         JsonFactory jsonFactory = new JsonFactory(); 
         JsonParser jp = jsonFactory.createJsonParser(s);
         
@@ -225,7 +238,8 @@ public class Row implements HasFields, Jsonizable {
                 }
                 
                 while (jp.nextToken() != JsonToken.END_ARRAY) {
-                    Cell cell = Cell.loadStreaming(jp, pool);
+                    Cell cell = Cell.loadStreaming(
+                        jp, pool, interners != null ? interners.get(cells.size()) : null);
                     
                     cells.add(cell);
                 }
@@ -33,19 +33,28 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.google.refine.model.changes;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.LineNumberReader;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
+import com.google.refine.history.BinaryChange;
 import com.google.refine.history.Change;
+import com.google.refine.model.Cell;
 import com.google.refine.model.Column;
 import com.google.refine.model.Project;
+import com.google.refine.model.ProjectSnapshot;
 import com.google.refine.model.Row;
 import com.google.refine.util.Pool;
 
-public class MassCellChange implements Change {
+public class MassCellChange implements BinaryChange {
     final protected CellChange[]  _cellChanges;
     final protected String        _commonColumnName;
     final protected boolean       _updateRowContextDependencies;
@@ -162,4 +171,165 @@ public class MassCellChange implements Change {
         
         return change;
     }
+    
+    static final protected int FLAG_COMMON_COLUMN_NAME = 1;
+    static final protected int FLAG_UPDATE_ROW_CONTEXT_DEPENDENCIES = 2;
+    static final protected int FLAG_SINGLE_CELL_INDEX = 4;
+    
+    static final protected int MIXED_CELL_TYPES = 0xff;
+    
+    /**
+     * Saves the cell changes as their row indices, each as the difference from the
+     * previous one, then their cell indices, written once if they are all the same,
+     * then the distinct strings of their cells, then their old cells and their new
+     * cells, each as a column of cell values with one type tag for the whole column
+     * if all its cells share it.
+     */
+    @Override
+    public void save(DataOutput out, Pool pool) throws IOException {
+        boolean singleCellIndex = true;
+        for (CellChange c : _cellChanges) {
+            singleCellIndex &= c.cellIndex == _cellChanges[0].cellIndex;
+        }
+        
+        out.writeByte(
+            (_commonColumnName != null ? FLAG_COMMON_COLUMN_NAME : 0) |
+            (_updateRowContextDependencies ? FLAG_UPDATE_ROW_CONTEXT_DEPENDENCIES : 0) |
+            (singleCellIndex ? FLAG_SINGLE_CELL_INDEX : 0));
+        if (_commonColumnName != null) {
+            ProjectSnapshot.writeString(out, _commonColumnName);
+        }
+        
+        ProjectSnapshot.writeVarInt(out, _cellChanges.length);
+        if (_cellChanges.length == 0) {
+            return;
+        }
+        
+        int previousRow = 0;
+        for (CellChange c : _cellChanges) {
+            int delta = c.row - previousRow;
+            ProjectSnapshot.writeVarInt(out, (delta << 1) ^ (delta >> 31)); // zigzag, for going back
+            previousRow = c.row;
+        }
+        if (singleCellIndex) {
+            ProjectSnapshot.writeVarInt(out, _cellChanges[0].cellIndex);
+        } else {
+            for (CellChange c : _cellChanges) {
+                ProjectSnapshot.writeVarInt(out, c.cellIndex);
+            }
+        }
+        
+        Map<String, Integer> stringCodes = new HashMap<String, Integer>();
+        List<String> strings = new ArrayList<String>();
+        for (CellChange c : _cellChanges) {
+            poolCell(c.oldCell, pool, stringCodes, strings);
+            poolCell(c.newCell, pool, stringCodes, strings);
+        }
+        ProjectSnapshot.writeVarInt(out, strings.size());
+        for (String string : strings) {
+            ProjectSnapshot.writeString(out, string);
+        }
+        
+        Cell[] cells = new Cell[_cellChanges.length];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = _cellChanges[i].oldCell;
+        }
+        writeCells(out, cells, stringCodes);
+        
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = _cellChanges[i].newCell;
+        }
+        writeCells(out, cells, stringCodes);
+    }
+    
+    static public Change load(DataInput in, Pool pool) throws Exception {
+        int flags = in.readByte();
+        String commonColumnName = (flags & FLAG_COMMON_COLUMN_NAME) != 0 ?
+            ProjectSnapshot.readString(in) : null;
+        boolean updateRowContextDependencies = (flags & FLAG_UPDATE_ROW_CONTEXT_DEPENDENCIES) != 0;
+        
+        int count = ProjectSnapshot.readVarInt(in);
+        CellChange[] cellChanges = new CellChange[count];
+        if (count > 0) {
+            int[] rows = new int[count];
+            int row = 0;
+            for (int i = 0; i < count; i++) {
+                int n = ProjectSnapshot.readVarInt(in);
+                row += (n >>> 1) ^ -(n & 1);
+                rows[i] = row;
+            }
+            
+            int[] cellIndices = new int[count];
+            if ((flags & FLAG_SINGLE_CELL_INDEX) != 0) {
+                Arrays.fill(cellIndices, ProjectSnapshot.readVarInt(in));
+            } else {
+                for (int i = 0; i < count; i++) {
+                    cellIndices[i] = ProjectSnapshot.readVarInt(in);
+                }
+            }
+            
+            final String[] strings = new String[ProjectSnapshot.readVarInt(in)];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = ProjectSnapshot.readString(in);
+            }
+            ProjectSnapshot.StringTable stringTable = new ProjectSnapshot.StringTable() {
+                @Override
+                public String getString(int code) {
+                    return strings[code];
+                }
+            };
+            
+            Cell[] oldCells = readCells(in, count, stringTable, pool);
+            Cell[] newCells = readCells(in, count, stringTable, pool);
+            for (int i = 0; i < count; i++) {
+                cellChanges[i] = new CellChange(rows[i], cellIndices[i], oldCells[i], newCells[i]);
+            }
+        }
+        
+        return new MassCellChange(cellChanges, commonColumnName, updateRowContextDependencies);
+    }
+    
+    static protected void poolCell(Cell cell, Pool pool, Map<String, Integer> stringCodes, List<String> strings) {
+        if (cell != null) {
+            String s = ProjectSnapshot.getStringPayload(cell.value);
+            if (s != null && !stringCodes.containsKey(s)) {
+                stringCodes.put(s, strings.size());
+                strings.add(s);
+            }
+            if (cell.recon != null) {
+                pool.pool(cell.recon);
+            }
+        }
+    }
+    
+    static protected void writeCells(DataOutput out, Cell[] cells, Map<String, Integer> stringCodes)
+        throws IOException {
+        
+        int[] tags = new int[cells.length];
+        boolean mixed = false;
+        for (int i = 0; i < cells.length; i++) {
+            tags[i] = ProjectSnapshot.getCellTag(cells[i]);
+            mixed |= tags[i] != tags[0];
+        }
+        
+        out.writeByte(mixed ? MIXED_CELL_TYPES : tags[0]);
+        for (int i = 0; i < cells.length; i++) {
+            if (mixed) {
+                out.writeByte(tags[i]);
+            }
+            ProjectSnapshot.writeCellPayload(out, cells[i], tags[i], stringCodes);
+        }
+    }
+    
+    static protected Cell[] readCells(DataInput in, int count, ProjectSnapshot.StringTable strings, Pool pool)
+        throws IOException {
+        
+        Cell[] cells = new Cell[count];
+        int columnTag = in.readByte() & 0xff;
+        for (int i = 0; i < count; i++) {
+            int tag = columnTag == MIXED_CELL_TYPES ? in.readByte() & 0xff : columnTag;
+            cells[i] = ProjectSnapshot.readCellPayload(in, tag, strings, pool);
+        }
+        return cells;
+    }
 }
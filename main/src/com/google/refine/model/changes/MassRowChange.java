@@ -37,6 +37,7 @@ import java.io.IOException;
 import java.io.LineNumberReader;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 
@@ -45,20 +46,66 @@ import com.google.refine.model.Project;
 import com.google.refine.model.Row;
 import com.google.refine.util.Pool;
 
+/**
+ * Replaces spans of rows with other rows, leaving all other rows of the project alone.
+ * Only the rows of the spans are kept, and saved, so an operation that touches a few
+ * rows of a large project does not hold on to two copies of all its rows.
+ */
 public class MassRowChange implements Change {
-    final protected List<Row> _newRows;
-    protected List<Row>       _oldRows;
+    /**
+     * Rows replacing the oldRowCount rows starting at index start, where start is
+     * an index into the rows as they are before the change is applied.
+     */
+    static public class RowSpan {
+        final public int       start;
+        final public int       oldRowCount;
+        final public List<Row> newRows;
+        protected List<Row>    _oldRows;
+        
+        public RowSpan(int start, int oldRowCount, List<Row> newRows) {
+            this.start = start;
+            this.oldRowCount = oldRowCount;
+            this.newRows = newRows;
+        }
+    }
     
+    final protected int           _oldRowCount;
+    protected List<Row>           _allNewRows;
+    protected List<RowSpan>       _spans;
+    
+    /**
+     * Replaces all rows of the project with the given rows.
+     */
     public MassRowChange(List<Row> newRows) {
-        _newRows = newRows;
+        _oldRowCount = -1;
+        _allNewRows = newRows;
+    }
+    
+    /**
+     * Replaces the given spans of rows, which must be in order and must not overlap,
+     * in a project that has oldRowCount rows.
+     */
+    public MassRowChange(int oldRowCount, List<RowSpan> spans) {
+        _oldRowCount = oldRowCount;
+        _spans = spans;
     }
     
     @Override
     public void apply(Project project) {
         synchronized (project) {
-            _oldRows = new ArrayList<Row>(project.rows);
-            project.rows.clear();
-            project.rows.addAll(_newRows);
+            if (_spans == null) {
+                _spans = Collections.singletonList(new RowSpan(0, project.rows.size(), _allNewRows));
+                _allNewRows = null;
+            } else if (_oldRowCount >= 0 && _oldRowCount != project.rows.size()) {
+                throw new IllegalStateException(
+                    "Expected " + _oldRowCount + " rows but the project has " + project.rows.size());
+            }
+            
+            for (RowSpan span : _spans) {
+                span._oldRows = new ArrayList<Row>(
+                    project.rows.subList(span.start, span.start + span.oldRowCount));
+            }
+            splice(project.rows, _spans, false);
             
             project.update();
         }
@@ -67,24 +114,75 @@ public class MassRowChange implements Change {
     @Override
     public void revert(Project project) {
         synchronized (project) {
-            project.rows.clear();
-            project.rows.addAll(_oldRows);
+            splice(project.rows, _spans, true);
             
             project.update();
         }
     }
+    
+    /**
+     * Replaces the old rows of the spans with their new rows, or the other way around.
+     * Rows are only copied when the spans change the number of rows.
+     */
+    static protected void splice(List<Row> rows, List<RowSpan> spans, boolean revert) {
+        int delta = 0;
+        boolean sameSizes = true;
+        for (RowSpan span : spans) {
+            delta += span.newRows.size() - span.oldRowCount;
+            sameSizes = sameSizes && span.newRows.size() == span.oldRowCount;
+        }
+        
+        if (sameSizes) {
+            for (RowSpan span : spans) {
+                List<Row> replacement = revert ? span._oldRows : span.newRows;
+                for (int i = 0; i < replacement.size(); i++) {
+                    rows.set(span.start + i, replacement.get(i));
+                }
+            }
+            return;
+        }
+        
+        List<Row> result = new ArrayList<Row>(rows.size() + (revert ? -delta : delta));
+        int from = 0;
+        int offset = 0;
+        for (RowSpan span : spans) {
+            int start = revert ? span.start + offset : span.start;
+            int count = revert ? span.newRows.size() : span.oldRowCount;
+            
+            result.addAll(rows.subList(from, start));
+            result.addAll(revert ? span._oldRows : span.newRows);
+            
+            from = start + count;
+            offset += span.newRows.size() - span.oldRowCount;
+        }
+        result.addAll(rows.subList(from, rows.size()));
+        
+        rows.clear();
+        rows.addAll(result);
+    }
 
     @Override
     public void save(Writer writer, Properties options) throws IOException {
-        writer.write("newRowCount="); writer.write(Integer.toString(_newRows.size())); writer.write('\n');
-        for (Row row : _newRows) {
-            row.save(writer, options);
-            writer.write('\n');
+        int rowCount = _oldRowCount;
+        if (rowCount < 0) {
+            rowCount = _spans.get(0).oldRowCount; // all rows were replaced
         }
-        writer.write("oldRowCount="); writer.write(Integer.toString(_oldRows.size())); writer.write('\n');
-        for (Row row : _oldRows) {
-            row.save(writer, options);
-            writer.write('\n');
+        writer.write("rowCount="); writer.write(Integer.toString(rowCount)); writer.write('\n');
+        writer.write("spanCount="); writer.write(Integer.toString(_spans.size())); writer.write('\n');
+        for (RowSpan span : _spans) {
+            writer.write("span=");
+            writer.write(Integer.toString(span.start)); writer.write(',');
+            writer.write(Integer.toString(span.oldRowCount)); writer.write(',');
+            writer.write(Integer.toString(span.newRows.size())); writer.write('\n');
+            
+            for (Row row : span._oldRows) {
+                row.save(writer, options);
+                writer.write('\n');
+            }
+            for (Row row : span.newRows) {
+                row.save(writer, options);
+                writer.write('\n');
+            }
         }
         writer.write("/ec/\n"); // end of change marker
     }
@@ -92,38 +190,55 @@ public class MassRowChange implements Change {
     static public Change load(LineNumberReader reader, Pool pool) throws Exception {
         List<Row> oldRows = null;
         List<Row> newRows = null;
+        List<RowSpan> spans = null;
+        int rowCount = -1;
         
         String line;
         while ((line = reader.readLine()) != null && !"/ec/".equals(line)) {
             int equal = line.indexOf('=');
             CharSequence field = line.subSequence(0, equal);
             
-            if ("oldRowCount".equals(field)) {
-                int count = Integer.parseInt(line.substring(equal + 1));
+            if ("rowCount".equals(field)) {
+                rowCount = Integer.parseInt(line.substring(equal + 1));
+            } else if ("spanCount".equals(field)) {
+                spans = new ArrayList<RowSpan>(Integer.parseInt(line.substring(equal + 1)));
+            } else if ("span".equals(field)) {
+                String[] counts = line.substring(equal + 1).split(",");
+                int start = Integer.parseInt(counts[0]);
+                int oldRowCount = Integer.parseInt(counts[1]);
+                int newRowCount = Integer.parseInt(counts[2]);
                 
-                oldRows = new ArrayList<Row>(count);
-                for (int i = 0; i < count; i++) {
-                    line = reader.readLine();
-                    if (line != null) {
-                        oldRows.add(Row.load(line, pool));
-                    }
-                }
+                List<Row> spanOldRows = loadRows(reader, oldRowCount, pool);
+                RowSpan span = new RowSpan(start, oldRowCount, loadRows(reader, newRowCount, pool));
+                span._oldRows = spanOldRows;
+                spans.add(span);
+            } else if ("oldRowCount".equals(field)) {
+                // written before changes recorded spans: all rows, before and after
+                oldRows = loadRows(reader, Integer.parseInt(line.substring(equal + 1)), pool);
             } else if ("newRowCount".equals(field)) {
-                int count = Integer.parseInt(line.substring(equal + 1));
-                
-                newRows = new ArrayList<Row>(count);
-                for (int i = 0; i < count; i++) {
-                    line = reader.readLine();
-                    if (line != null) {
-                        newRows.add(Row.load(line, pool));
-                    }
-                }
+                newRows = loadRows(reader, Integer.parseInt(line.substring(equal + 1)), pool);
             }
         }
         
-        MassRowChange change = new MassRowChange(newRows);
-        change._oldRows = oldRows;
+        if (spans == null) {
+            rowCount = oldRows.size();
+            
+            RowSpan span = new RowSpan(0, oldRows.size(), newRows);
+            span._oldRows = oldRows;
+            spans = Collections.singletonList(span);
+        }
         
-        return change;
+        return new MassRowChange(rowCount, spans);
+    }
+    
+    static protected List<Row> loadRows(LineNumberReader reader, int count, Pool pool) throws Exception {
+        List<Row> rows = new ArrayList<Row>(count);
+        for (int i = 0; i < count; i++) {
+            String line = reader.readLine();
+            if (line != null) {
+                rows.add(Row.load(line, pool));
+            }
+        }
+        return rows;
     }
 }
@@ -49,6 +49,7 @@ import com.google.refine.model.Column;
 import com.google.refine.model.Project;
 import com.google.refine.model.Row;
 import com.google.refine.model.changes.MassRowChange;
+import com.google.refine.model.changes.MassRowChange.RowSpan;
 import com.google.refine.operations.OperationRegistry;
 
 public class MultiValuedCellJoinOperation extends AbstractOperation {
@@ -106,14 +107,13 @@ public class MultiValuedCellJoinOperation extends AbstractOperation {
         }
         int keyCellIndex = keyColumn.getCellIndex();
         
-        List<Row> newRows = new ArrayList<Row>();
+        List<RowSpan> spans = new ArrayList<RowSpan>();
         
         int oldRowCount = project.rows.size();
         for (int r = 0; r < oldRowCount; r++) {
             Row oldRow = project.rows.get(r);
             
             if (oldRow.isCellBlank(keyCellIndex)) {
-                newRows.add(oldRow.dup());
                 continue;
             }
             
@@ -123,10 +123,10 @@ public class MultiValuedCellJoinOperation extends AbstractOperation {
             }
             
             if (r2 == r + 1) {
-                newRows.add(oldRow.dup());
                 continue;
             }
             
+            List<Row> newRows = new ArrayList<Row>(r2 - r);
             StringBuffer sb = new StringBuffer();
             for (int r3 = r; r3 < r2; r3++) {
                 Object value = project.rows.get(r3).getCellValue(cellIndex);
@@ -151,6 +151,8 @@ public class MultiValuedCellJoinOperation extends AbstractOperation {
                 }
             }
             
+            spans.add(new RowSpan(r, r2 - r, newRows));
+            
             r = r2 - 1; // r will be incremented by the for loop anyway
         }
         
@@ -159,7 +161,7 @@ public class MultiValuedCellJoinOperation extends AbstractOperation {
             project, 
             getBriefDescription(null), 
             this, 
-            new MassRowChange(newRows)
+            new MassRowChange(oldRowCount, spans)
         );
     }
 
@@ -49,6 +49,7 @@ import com.google.refine.model.Column;
 import com.google.refine.model.Project;
 import com.google.refine.model.Row;
 import com.google.refine.model.changes.MassRowChange;
+import com.google.refine.model.changes.MassRowChange.RowSpan;
 import com.google.refine.operations.OperationRegistry;
 
 public class MultiValuedCellSplitOperation extends AbstractOperation {
@@ -111,13 +112,12 @@ public void write(JSONWriter writer, Properties options)
         }
         int keyCellIndex = keyColumn.getCellIndex();
         
-        List<Row> newRows = new ArrayList<Row>();
+        List<RowSpan> spans = new ArrayList<RowSpan>();
         
         int oldRowCount = project.rows.size();
         for (int r = 0; r < oldRowCount; r++) {
             Row oldRow = project.rows.get(r);
             if (oldRow.isCellBlank(cellIndex)) {
-                newRows.add(oldRow.dup());
                 continue;
             }
             
@@ -131,10 +131,11 @@ public void write(JSONWriter writer, Properties options)
             }
             
             if (values.length < 2) {
-                newRows.add(oldRow.dup());
                 continue;
             }
             
+            List<Row> newRows = new ArrayList<Row>(values.length);
+            
             // First value goes into the same row
             {
                 Row firstNewRow = oldRow.dup();
@@ -168,6 +169,8 @@ public void write(JSONWriter writer, Properties options)
                 newRows.add(newRow);
             }
             
+            spans.add(new RowSpan(r, r2 - r, newRows));
+            
             r = r2 - 1; // r will be incremented by the for loop anyway
         }
         
@@ -176,7 +179,7 @@ public void write(JSONWriter writer, Properties options)
             project, 
             getBriefDescription(null), 
             this, 
-            new MassRowChange(newRows)
+            new MassRowChange(oldRowCount, spans)
         );
     }
 }
@@ -49,6 +49,7 @@ import com.google.refine.model.RecordModel.CellDependency;
 import com.google.refine.model.RecordModel.RowDependency;
 import com.google.refine.model.Row;
 import com.google.refine.model.changes.MassRowChange;
+import com.google.refine.model.changes.MassRowChange.RowSpan;
 import com.google.refine.operations.OperationRegistry;
 
 public class DenormalizeOperation extends AbstractOperation {
@@ -77,7 +78,9 @@ public void write(JSONWriter writer, Properties options)
 
     @Override
     protected HistoryEntry createHistoryEntry(Project project, long historyEntryID) throws Exception {
-        List<Row> newRows = new ArrayList<Row>();
+        List<RowSpan> spans = new ArrayList<RowSpan>();
+        List<Row> newRows = null; // consecutive changed rows, starting at row index start
+        int start = 0;
         
         List<Row> oldRows = project.rows;
         for (int r = 0; r < oldRows.size(); r++) {
@@ -103,7 +106,19 @@ public void write(JSONWriter writer, Properties options)
                 }
             }
             
-            newRows.add(newRow != null ? newRow : oldRow);
+            if (newRow != null) {
+                if (newRows == null) {
+                    newRows = new ArrayList<Row>();
+                    start = r;
+                }
+                newRows.add(newRow);
+            } else if (newRows != null) {
+                spans.add(new RowSpan(start, newRows.size(), newRows));
+                newRows = null;
+            }
+        }
+        if (newRows != null) {
+            spans.add(new RowSpan(start, newRows.size(), newRows));
         }
         
         return new HistoryEntry(
@@ -111,7 +126,7 @@ public void write(JSONWriter writer, Properties options)
             project,
             getBriefDescription(project),
             DenormalizeOperation.this,
-            new MassRowChange(newRows)
+            new MassRowChange(oldRows.size(), spans)
         );
     }
 }
@@ -39,94 +39,49 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import com.google.refine.expr.EvalError;
+import com.google.refine.browsing.Engine;
 import com.google.refine.model.Project;
 import com.google.refine.sorting.Criterion.KeyMaker;
 
 abstract public class BaseSorter {
+    static final protected int s_insertionSortThreshold = 8;
+
     protected Criterion[] _criteria;
     protected KeyMaker[] _keyMakers;
-    protected ComparatorWrapper[] _comparatorWrappers;
-    protected List<Object[]> _keys;
-
-    public class ComparatorWrapper {
-        final public int criterionIndex;
-        final protected int multiplier;
-
-        public ComparatorWrapper(int criterionIndex) {
-            this.criterionIndex = criterionIndex;
-            this.multiplier = _criteria[criterionIndex].reverse ? -1 : 1;
-        }
-
-        public Object getKey(Project project, Object o, int index) {
-            while (index >= _keys.size()) {
-                _keys.add(null);
-            }
-
-            Object[] keys = _keys.get(index);
-            if (keys == null) {
-                keys = makeKeys(project, o, index);
-                _keys.set(index, keys);
-            }
-            return keys[criterionIndex];
-        }
-
-        public int compare(Project project, Object o1, int i1, Object o2, int i2) {
-            Criterion c = _criteria[criterionIndex];
-            Object key1 = getKey(project, o1, i1);
-            Object key2 = getKey(project, o2, i2);
-
-            if (key1 == null) {
-                if (key2 == null) {
-                    return 0;
-                } else if (key2 instanceof EvalError) {
-                    return c.blankPosition - c.errorPosition;
-                } else {
-                    return c.blankPosition;
-                }
-            } else if (key1 instanceof EvalError) {
-                if (key2 == null) {
-                    return c.errorPosition - c.blankPosition;
-                } else if (key2 instanceof EvalError) {
-                    return 0;
-                } else {
-                    return c.errorPosition;
-                }
-            } else {
-                if (key2 == null) {
-                    return -c.blankPosition;
-                } else if (key2 instanceof EvalError) {
-                    return -c.errorPosition;
-                } else {
-                    return _keyMakers[criterionIndex].compareKeys(key1, key2) * multiplier;
-                }
-            }
-        }
-    }
+    protected String _config;
 
     public void initializeFromJSON(Project project, JSONObject obj) throws JSONException {
+        _config = obj.toString();
         if (obj.has("criteria") && !obj.isNull("criteria")) {
             JSONArray a = obj.getJSONArray("criteria");
             int count = a.length();
 
             _criteria = new Criterion[count];
             _keyMakers = new KeyMaker[count];
-            _comparatorWrappers = new ComparatorWrapper[count];
 
             for (int i = 0; i < count; i++) {
                 JSONObject obj2 = a.getJSONObject(i);
 
                 _criteria[i] = createCriterionFromJSON(project, obj2);
                 _keyMakers[i] = _criteria[i].createKeyMaker();
-                _comparatorWrappers[i] = new ComparatorWrapper(i);
             }
         } else {
             _criteria = new Criterion[0];
             _keyMakers = new KeyMaker[0];
-            _comparatorWrappers = new ComparatorWrapper[0];
         }
     }
 
+    /**
+     * @param engine
+     * @return a key for caching the sort order of what the engine lets through, or null
+     *         if it cannot be cached
+     */
+    protected String getCacheKey(Engine engine) {
+        String engineKey = engine.getConfigKey();
+        return engineKey == null || _config == null ? null :
+            getClass().getName() + "\n" + _config + "\n" + engineKey;
+    }
+
     public boolean hasCriteria() {
         return _criteria != null && _criteria.length > 0;
     }
@@ -155,19 +110,75 @@ abstract public class BaseSorter {
     abstract protected Object makeKey(
             Project project, KeyMaker keyMaker, Criterion c, Object o, int index);
 
-    protected Object[] makeKeys(Project project, Object o, int index) {
-        Object[] keys = new Object[_keyMakers.length];
-        for (int i = 0; i < keys.length; i++) {
-            keys[i] = makeKey(project, _keyMakers[i], _criteria[i], o, index);
+    /**
+     * Sort items by all criteria. Each item's key for each criterion is computed just
+     * once, up front, and then the items' positions are merge sorted, so the order is
+     * stable and comparing two items touches only primitive arrays or collation keys.
+     * 
+     * @param project
+     * @param items rows or records
+     * @param indices their row or record indices
+     * @return positions in items, in sorted order
+     */
+    protected int[] sortItems(Project project, List<?> items, int[] indices) {
+        int count = items.size();
+        SortKeys[] sortKeys = new SortKeys[_keyMakers.length];
+        for (int c = 0; c < sortKeys.length; c++) {
+            sortKeys[c] = _keyMakers[c].createSortKeys(count);
+            for (int i = 0; i < count; i++) {
+                sortKeys[c].set(i, makeKey(project, _keyMakers[c], _criteria[c], items.get(i), indices[i]));
+            }
         }
-        return keys;
+        
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        mergeSort(sortKeys, order, new int[count], 0, count);
+        return order;
     }
 
-    protected int compare(Project project, Object o1, int i1, Object o2, int i2) {
-        int c = 0;
-        for (int i = 0; c == 0 && i < _comparatorWrappers.length; i++) {
-            c = _comparatorWrappers[i].compare(project, o1, i1, o2, i2);
+    static protected int compare(SortKeys[] sortKeys, int i, int j) {
+        for (SortKeys keys : sortKeys) {
+            int c = keys.compare(i, j);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    static protected void mergeSort(SortKeys[] sortKeys, int[] a, int[] temp, int from, int to) {
+        if (to - from <= s_insertionSortThreshold) {
+            for (int i = from + 1; i < to; i++) {
+                int v = a[i];
+                int j = i - 1;
+                while (j >= from && compare(sortKeys, a[j], v) > 0) {
+                    a[j + 1] = a[j];
+                    j--;
+                }
+                a[j + 1] = v;
+            }
+            return;
+        }
+        
+        int middle = (from + to) >>> 1;
+        mergeSort(sortKeys, a, temp, from, middle);
+        mergeSort(sortKeys, a, temp, middle, to);
+        if (compare(sortKeys, a[middle - 1], a[middle]) <= 0) {
+            return; // already in order
+        }
+        
+        System.arraycopy(a, from, temp, from, to - from);
+        int i = from, j = middle, k = from;
+        while (i < middle && j < to) {
+            a[k++] = compare(sortKeys, temp[j], temp[i]) < 0 ? temp[j++] : temp[i++];
+        }
+        while (i < middle) {
+            a[k++] = temp[i++];
+        }
+        while (j < to) {
+            a[k++] = temp[j++];
         }
-        return c;
     }
 }
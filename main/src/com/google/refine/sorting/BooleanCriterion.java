@@ -60,6 +60,20 @@ public class BooleanCriterion extends Criterion {
             public int compareKeys(Object key1, Object key2) {
                 return ((Boolean) key1).compareTo((Boolean) key2);
             }
+
+            @Override
+            public SortKeys createSortKeys(int count) {
+                return new SortKeys.LongKeys(BooleanCriterion.this, count) {
+                    @Override
+                    protected boolean setValue(int i, Object key) {
+                        if (key instanceof Boolean) {
+                            _values[i] = ((Boolean) key).booleanValue() ? 1 : 0;
+                            return true;
+                        }
+                        return false;
+                    }
+                };
+            }
         };
     }
 }
@@ -122,6 +122,13 @@ abstract public class Criterion {
 
         abstract public int compareKeys(Object key1, Object key2);
 
+        /**
+         * Create the storage for the keys of a number of items being sorted.
+         */
+        public SortKeys createSortKeys(int count) {
+            return new SortKeys.ObjectKeys(Criterion.this, this, count);
+        }
+
         abstract protected Object makeKey(Object value);
     }
     abstract public KeyMaker createKeyMaker();
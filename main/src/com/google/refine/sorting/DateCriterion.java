@@ -63,6 +63,20 @@ public class DateCriterion extends Criterion {
             public int compareKeys(Object key1, Object key2) {
                 return ((Date) key1).compareTo((Date) key2);
             }
+
+            @Override
+            public SortKeys createSortKeys(int count) {
+                return new SortKeys.LongKeys(DateCriterion.this, count) {
+                    @Override
+                    protected boolean setValue(int i, Object key) {
+                        if (key instanceof Date) {
+                            _values[i] = ((Date) key).getTime();
+                            return true;
+                        }
+                        return false;
+                    }
+                };
+            }
         };
     }
 }
@@ -78,6 +78,11 @@ public class NumberCriterion extends Criterion {
                 double d2 = ((Number) key2).doubleValue();
                 return d1 < d2 ? -1 : (d1 > d2 ? 1 : 0);
             }
+
+            @Override
+            public SortKeys createSortKeys(int count) {
+                return new SortKeys.DoubleKeys(NumberCriterion.this, count);
+            }
         };
     }
 }
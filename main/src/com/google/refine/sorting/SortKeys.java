@@ -0,0 +1,168 @@
+/*
+
+Copyright 2010, Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,           
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY           
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+
+package com.google.refine.sorting;
+
+import com.google.refine.expr.EvalError;
+
+/**
+ * The keys of one sorting criterion for all the items being sorted, worked out once
+ * and stored in a form that is cheap to compare, so that sorting doesn't compute or
+ * unbox anything in its inner loop. Whether each item's key is a blank, an error or
+ * an actual value is kept apart from the values themselves.
+ */
+abstract public class SortKeys {
+    static final protected byte VALUE = 0;
+    static final protected byte BLANK = 1;
+    static final protected byte ERROR = 2;
+    
+    final protected byte[] _kinds;
+    final protected int    _blankPosition;
+    final protected int    _errorPosition;
+    final protected int    _multiplier;
+    
+    protected SortKeys(Criterion criterion, int count) {
+        _kinds = new byte[count];
+        _blankPosition = criterion.blankPosition;
+        _errorPosition = criterion.errorPosition;
+        _multiplier = criterion.reverse ? -1 : 1;
+    }
+    
+    /**
+     * Store the key of the i-th item.
+     */
+    public void set(int i, Object key) {
+        if (key == null) {
+            _kinds[i] = BLANK;
+        } else if (key instanceof EvalError) {
+            _kinds[i] = ERROR;
+        } else {
+            _kinds[i] = setValue(i, key) ? VALUE : BLANK;
+        }
+    }
+    
+    /**
+     * Compare the keys of the i-th and j-th items. Blanks and errors go where the
+     * criterion puts them regardless of whether it is reversed.
+     */
+    public int compare(int i, int j) {
+        byte kind1 = _kinds[i];
+        byte kind2 = _kinds[j];
+        if (kind1 == VALUE && kind2 == VALUE) {
+            return compareValues(i, j) * _multiplier;
+        }
+        return getPosition(kind1) - getPosition(kind2);
+    }
+    
+    protected int getPosition(byte kind) {
+        return kind == BLANK ? _blankPosition : (kind == ERROR ? _errorPosition : 0);
+    }
+    
+    /**
+     * @return false if the key cannot be stored, in which case it is taken for a blank
+     */
+    abstract protected boolean setValue(int i, Object key);
+    
+    abstract protected int compareValues(int i, int j);
+    
+    static public class DoubleKeys extends SortKeys {
+        final protected double[] _values;
+        
+        public DoubleKeys(Criterion criterion, int count) {
+            super(criterion, count);
+            _values = new double[count];
+        }
+        
+        @Override
+        protected boolean setValue(int i, Object key) {
+            if (key instanceof Number) {
+                _values[i] = ((Number) key).doubleValue();
+                return true;
+            }
+            return false;
+        }
+        
+        @Override
+        protected int compareValues(int i, int j) {
+            double d1 = _values[i];
+            double d2 = _values[j];
+            return d1 < d2 ? -1 : (d1 > d2 ? 1 : 0);
+        }
+    }
+    
+    /**
+     * Keys that are stored as longs, e.g., dates as milliseconds and booleans as 0 or 1.
+     */
+    abstract static public class LongKeys extends SortKeys {
+        final protected long[] _values;
+        
+        public LongKeys(Criterion criterion, int count) {
+            super(criterion, count);
+            _values = new long[count];
+        }
+        
+        @Override
+        protected int compareValues(int i, int j) {
+            long l1 = _values[i];
+            long l2 = _values[j];
+            return l1 < l2 ? -1 : (l1 > l2 ? 1 : 0);
+        }
+    }
+    
+    /**
+     * Keys that are objects compared by the criterion's key maker, or else already
+     * reduced to something quicker to compare, such as collation keys.
+     */
+    static public class ObjectKeys extends SortKeys {
+        final protected Object[]            _values;
+        final protected Criterion.KeyMaker  _keyMaker;
+        
+        public ObjectKeys(Criterion criterion, Criterion.KeyMaker keyMaker, int count) {
+            super(criterion, count);
+            _values = new Object[count];
+            _keyMaker = keyMaker;
+        }
+        
+        @Override
+        protected boolean setValue(int i, Object key) {
+            _values[i] = key;
+            return true;
+        }
+        
+        @Override
+        protected int compareValues(int i, int j) {
+            return _keyMaker.compareKeys(_values[i], _values[j]);
+        }
+    }
+}
@@ -34,11 +34,11 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package com.google.refine.sorting;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
+import com.google.refine.browsing.Engine;
 import com.google.refine.browsing.RecordVisitor;
+import com.google.refine.browsing.util.FacetCache;
 import com.google.refine.model.Project;
 import com.google.refine.model.Record;
 import com.google.refine.sorting.Criterion.KeyMaker;
@@ -55,32 +55,78 @@ public class SortingRecordVisitor extends BaseSorter implements RecordVisitor {
     public void start(Project project) {
         int count = project.recordModel.getRecordCount();
         _records = new ArrayList<Record>(count);
-        _keys = new ArrayList<Object[]>(count);
     }
 
     @Override
     public void end(Project project) {
         _visitor.start(project);
 
-        Collections.sort(_records, new Comparator<Record>() {
-            Project project;
+        sortRecords(project);
+        for (Record record : _records) {
+            _visitor.visit(project, record);
+        }
+
+        _visitor.end(project);
+    }
 
-            Comparator<Record> init(Project project) {
-                this.project = project;
-                return this;
+    /**
+     * Sort the records that the engine lets through, reusing the order found last time
+     * for the same criteria, facets and version of the project's data.
+     * 
+     * @param project
+     * @param engine
+     * @return the indices of the filtered records, in sorted order
+     */
+    public int[] sort(Project project, Engine engine) {
+        String key = getCacheKey(engine);
+        FacetCache cache = FacetCache.getCache(project);
+        long version = project.getChangeVersion();
+        int[] indices = key == null ? null : cache.getSortedIndices(project, key);
+        if (indices == null) {
+            engine.getFilteredRecords().accept(project, new RecordVisitor() {
+                @Override
+                public void start(Project project) {
+                    SortingRecordVisitor.this.start(project);
+                }
+
+                @Override
+                public boolean visit(Project project, Record record) {
+                    return SortingRecordVisitor.this.visit(project, record);
+                }
+
+                @Override
+                public void end(Project project) {
+                    // nothing to do
+                }
+            });
+
+            sortRecords(project);
+            indices = new int[_records.size()];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = _records.get(i).recordIndex;
             }
+            _records = null;
 
-            @Override
-            public int compare(Record o1, Record o2) {
-                return SortingRecordVisitor.this.compare(project, o1, o1.recordIndex, o2, o2.recordIndex);
+            if (key != null) {
+                cache.putSortedIndices(key, version, indices);
             }
-        }.init(project));
+        }
+        return indices;
+    }
 
-        for (Record record : _records) {
-            _visitor.visit(project, record);
+    protected void sortRecords(Project project) {
+        int count = _records.size();
+        int[] indices = new int[count];
+        for (int i = 0; i < count; i++) {
+            indices[i] = _records.get(i).recordIndex;
         }
 
-        _visitor.end(project);
+        int[] order = sortItems(project, _records, indices);
+        List<Record> sorted = new ArrayList<Record>(count);
+        for (int i : order) {
+            sorted.add(_records.get(i));
+        }
+        _records = sorted;
     }
 
     @Override
@@ -34,11 +34,11 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package com.google.refine.sorting;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
+import com.google.refine.browsing.Engine;
 import com.google.refine.browsing.RowVisitor;
+import com.google.refine.browsing.util.FacetCache;
 import com.google.refine.model.Project;
 import com.google.refine.model.Row;
 import com.google.refine.sorting.Criterion.KeyMaker;
@@ -65,32 +65,81 @@ public class SortingRowVisitor extends BaseSorter implements RowVisitor {
     public void start(Project project) {
         int count = project.rows.size();
         _indexedRows = new ArrayList<IndexedRow>(count);
-        _keys = new ArrayList<Object[]>(count);
     }
 
     @Override
     public void end(Project project) {
         _visitor.start(project);
 
-        Collections.sort(_indexedRows, new Comparator<IndexedRow>() {
-            Project project;
+        sortIndexedRows(project);
+        for (IndexedRow indexedRow : _indexedRows) {
+            _visitor.visit(project, indexedRow.index, indexedRow.row);
+        }
+
+        _visitor.end(project);
+    }
 
-            Comparator<IndexedRow> init(Project project) {
-                this.project = project;
-                return this;
+    /**
+     * Sort the rows that the engine lets through, reusing the order found last time
+     * for the same criteria, facets and version of the project's data.
+     * 
+     * @param project
+     * @param engine
+     * @return the indices of the filtered rows, in sorted order
+     */
+    public int[] sort(Project project, Engine engine) {
+        String key = getCacheKey(engine);
+        FacetCache cache = FacetCache.getCache(project);
+        long version = project.getChangeVersion();
+        int[] indices = key == null ? null : cache.getSortedIndices(project, key);
+        if (indices == null) {
+            engine.getAllFilteredRows().accept(project, new RowVisitor() {
+                @Override
+                public void start(Project project) {
+                    SortingRowVisitor.this.start(project);
+                }
+
+                @Override
+                public boolean visit(Project project, int rowIndex, Row row) {
+                    return SortingRowVisitor.this.visit(project, rowIndex, row);
+                }
+
+                @Override
+                public void end(Project project) {
+                    // nothing to do
+                }
+            });
+
+            sortIndexedRows(project);
+            indices = new int[_indexedRows.size()];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = _indexedRows.get(i).index;
             }
+            _indexedRows = null;
 
-            @Override
-            public int compare(IndexedRow o1, IndexedRow o2) {
-                return SortingRowVisitor.this.compare(project, o1.row, o1.index, o2.row, o2.index);
+            if (key != null) {
+                cache.putSortedIndices(key, version, indices);
             }
-        }.init(project));
+        }
+        return indices;
+    }
 
-        for (IndexedRow indexedRow : _indexedRows) {
-            _visitor.visit(project, indexedRow.index, indexedRow.row);
+    protected void sortIndexedRows(Project project) {
+        int count = _indexedRows.size();
+        List<Row> rows = new ArrayList<Row>(count);
+        int[] indices = new int[count];
+        for (int i = 0; i < count; i++) {
+            IndexedRow indexedRow = _indexedRows.get(i);
+            rows.add(indexedRow.row);
+            indices[i] = indexedRow.index;
         }
 
-        _visitor.end(project);
+        int[] order = sortItems(project, rows, indices);
+        List<IndexedRow> sorted = new ArrayList<IndexedRow>(count);
+        for (int i : order) {
+            sorted.add(_indexedRows.get(i));
+        }
+        _indexedRows = sorted;
     }
 
     @Override
@@ -33,7 +33,10 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.google.refine.sorting;
 
+import java.text.CollationKey;
 import java.text.Collator;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -78,6 +81,32 @@ public class StringCriterion extends Criterion {
             public int compareKeys(Object key1, Object key2) {
                 return collator.compare(key1, key2);
             }
+
+            @Override
+            public SortKeys createSortKeys(int count) {
+                // collation keys cost a little to make, so they are made once per distinct
+                // string, but then compare as plain bytes
+                return new SortKeys.ObjectKeys(StringCriterion.this, this, count) {
+                    final Map<String, CollationKey> collationKeys = new HashMap<String, CollationKey>();
+
+                    @Override
+                    protected boolean setValue(int i, Object key) {
+                        String s = key.toString();
+                        CollationKey collationKey = collationKeys.get(s);
+                        if (collationKey == null) {
+                            collationKey = collator.getCollationKey(s);
+                            collationKeys.put(s, collationKey);
+                        }
+                        _values[i] = collationKey;
+                        return true;
+                    }
+
+                    @Override
+                    protected int compareValues(int i, int j) {
+                        return ((CollationKey) _values[i]).compareTo((CollationKey) _values[j]);
+                    }
+                };
+            }
         };
     }
 }
@@ -0,0 +1,104 @@
+/*
+
+Copyright 2010, Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,           
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY           
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package com.google.refine.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+
+import com.google.refine.model.Column;
+import com.google.refine.model.Project;
+
+/**
+ * One string interner per cell index, used while a project's cells are being
+ * created in bulk, by importers or when a project is loaded.
+ */
+public class ColumnInterners {
+    final protected List<StringInterner> _interners = new ArrayList<StringInterner>();
+    
+    synchronized public StringInterner get(int cellIndex) {
+        while (_interners.size() <= cellIndex) {
+            _interners.add(null);
+        }
+        
+        StringInterner interner = _interners.get(cellIndex);
+        if (interner == null) {
+            interner = new StringInterner();
+            _interners.set(cellIndex, interner);
+        }
+        return interner;
+    }
+    
+    public String intern(int cellIndex, String s) {
+        return get(cellIndex).intern(s);
+    }
+    
+    synchronized public long getSavedBytes() {
+        long bytes = 0;
+        for (StringInterner interner : _interners) {
+            if (interner != null) {
+                bytes += interner.getSavedBytes();
+            }
+        }
+        return bytes;
+    }
+    
+    /**
+     * Logs the dictionary hit rate and estimated memory savings of each column, at debug
+     * level, as this happens for every table read, previews included.
+     */
+    synchronized public void logStats(Logger logger, Project project) {
+        if (!logger.isDebugEnabled()) {
+            return;
+        }
+        
+        for (int i = 0; i < _interners.size(); i++) {
+            StringInterner interner = _interners.get(i);
+            if (interner != null && interner.getLookupCount() > 0) {
+                Column column = project.columnModel.getColumnByCellIndex(i);
+                logger.debug(
+                    "Column '{}': {} distinct of {} strings, {}% dictionary hits, ~{} KB saved",
+                    new Object[] {
+                        column != null ? column.getName() : Integer.toString(i),
+                        interner.getDistinctCount(),
+                        interner.getLookupCount(),
+                        Math.round(interner.getHitRate() * 100),
+                        interner.getSavedBytes() / 1024
+                    }
+                );
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+
+Copyright 2010, Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,           
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY           
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package com.google.refine.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps each distinct string to a small integer code and back, so that a column
+ * holding many repetitions of few values stores each of them only once.
+ * 
+ * Lookups by code are not synchronized and may run concurrently with additions,
+ * as codes already handed out always stay valid.
+ */
+public class StringDictionary {
+    final protected Map<String, Integer> _codes = new HashMap<String, Integer>();
+    volatile protected String[] _strings = new String[16];
+    protected int _size;
+    
+    synchronized public int encode(String s) {
+        Integer code = _codes.get(s);
+        if (code != null) {
+            return code;
+        }
+        
+        String[] strings = _strings;
+        if (_size == strings.length) {
+            strings = new String[_size * 2];
+            System.arraycopy(_strings, 0, strings, 0, _size);
+        }
+        strings[_size] = s;
+        _strings = strings;
+        _codes.put(s, _size);
+        return _size++;
+    }
+    
+    public String decode(int code) {
+        return _strings[code];
+    }
+    
+    synchronized public int size() {
+        return _size;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+
+Copyright 2010, Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,           
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY           
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package com.google.refine.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hands back one shared instance for each distinct string it is given, so that a
+ * column repeating a few values over many rows keeps only one copy of each value.
+ * 
+ * Columns whose values turn out to be mostly distinct (identifiers, free text)
+ * gain nothing from this, so the interner stops remembering new strings once it
+ * has seen enough of them with too few repeats.
+ */
+public class StringInterner {
+    static final protected int TRIAL_LOOKUPS = 1000;
+    static final protected double MIN_HIT_RATE = 0.1;
+    static final protected int MAX_DISTINCT = 100000;
+    
+    // rough per-instance cost of a String object and its character array
+    static final protected int STRING_OVERHEAD = 40;
+    
+    final protected Map<String, String> _strings = new HashMap<String, String>();
+    protected boolean _full;
+    
+    protected long _lookups;
+    protected long _hits;
+    protected long _savedBytes;
+    
+    synchronized public String intern(String s) {
+        _lookups++;
+        
+        String t = _strings.get(s);
+        if (t != null) {
+            _hits++;
+            if (t != s) {
+                _savedBytes += STRING_OVERHEAD + 2 * s.length();
+            }
+            return t;
+        }
+        
+        if (!_full) {
+            if (_strings.size() >= MAX_DISTINCT ||
+                (_lookups >= TRIAL_LOOKUPS && _hits < _lookups * MIN_HIT_RATE)) {
+                _full = true;
+            } else {
+                _strings.put(s, s);
+            }
+        }
+        return s;
+    }
+    
+    synchronized public long getLookupCount() {
+        return _lookups;
+    }
+    
+    synchronized public long getHitCount() {
+        return _hits;
+    }
+    
+    synchronized public double getHitRate() {
+        return _lookups > 0 ? (double) _hits / _lookups : 0;
+    }
+    
+    synchronized public int getDistinctCount() {
+        return _strings.size();
+    }
+    
+    /**
+     * Estimates how many bytes of string data were not allocated thanks to interning.
+     */
+    synchronized public long getSavedBytes() {
+        return _savedBytes;
+    }
+}
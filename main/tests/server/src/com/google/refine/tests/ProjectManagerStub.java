@@ -104,6 +104,12 @@ public class ProjectManagerStub extends ProjectManager {
         super.saveProjects(allModified);
     }
 
+    //Overridden to make public for testing
+    @Override
+    public void evictProjects(long keepID){
+        super.evictProjects(keepID);
+    }
+
     @Override
     protected void saveWorkspace() {
         // empty
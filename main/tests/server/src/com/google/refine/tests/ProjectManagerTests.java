@@ -45,6 +45,8 @@ import java.util.Date;
 import java.util.GregorianCalendar;
 
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.slf4j.LoggerFactory;
 import org.testng.Assert;
 import org.testng.annotations.AfterMethod;
@@ -54,6 +56,7 @@ import org.testng.annotations.Test;
 
 import com.google.refine.ProjectMetadata;
 import com.google.refine.model.Project;
+import com.google.refine.model.Row;
 import com.google.refine.tests.model.ProjectStub;
 
 public class ProjectManagerTests extends RefineTest {
@@ -193,6 +196,70 @@ public class ProjectManagerTests extends RefineTest {
     }
     //TODO test canSaveAllModifiedWithRaceCondition
 
+    @Test
+    public void canEvictLeastRecentlyUsed(){
+        Project project1 = spy(new ProjectStub(1));
+        ProjectMetadata metadata1 = mock(ProjectMetadata.class);
+        whenGetSaveTimes(project1, metadata1);
+        Project project2 = spy(new ProjectStub(2));
+        ProjectMetadata metadata2 = mock(ProjectMetadata.class);
+        whenGetSaveTimes(project2, metadata2);
+        for (int i = 0; i < 10; i++) {
+            project1.rows.add(new Row(1));
+            project2.rows.add(new Row(1));
+        }
+
+        Mockito.doReturn(Long.MAX_VALUE).when(SUT).getProjectCacheBudget();
+        registerProject(project1, metadata1);
+        registerProject(project2, metadata2);
+        Assert.assertSame(SUT.getProject(1), project1); // project2 is now the least recently used
+
+        Mockito.doReturn(SUT.getProjectCacheSize() - 1).when(SUT).getProjectCacheBudget();
+        SUT.evictProjects(-1);
+
+        verify(SUT, times(1)).saveProject(project2);
+        verify(SUT, never()).saveProject(project1);
+        verify(project2, times(1)).dispose();
+        Assert.assertEquals(SUT.getCacheEvictions(), 1);
+        Assert.assertEquals(SUT.getCacheHits(), 1);
+        Assert.assertSame(SUT.getProject(1), project1);
+        Assert.assertNull(SUT.getProject(2));
+        Assert.assertEquals(SUT.getCacheMisses(), 1);
+    }
+
+    @Test
+    public void keepsProjectEditedWhileBeingEvicted(){
+        final Project project1 = spy(new ProjectStub(1));
+        ProjectMetadata metadata1 = mock(ProjectMetadata.class);
+        whenGetSaveTimes(project1, metadata1);
+        Project project2 = spy(new ProjectStub(2));
+        ProjectMetadata metadata2 = mock(ProjectMetadata.class);
+        whenGetSaveTimes(project2, metadata2);
+        for (int i = 0; i < 10; i++) {
+            project1.rows.add(new Row(1));
+            project2.rows.add(new Row(1));
+        }
+
+        Mockito.doReturn(Long.MAX_VALUE).when(SUT).getProjectCacheBudget();
+        registerProject(project1, metadata1);
+        registerProject(project2, metadata2);
+        Mockito.doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                project1.incrementChangeVersion(); // an edit made while the project is being saved
+                return null;
+            }
+        }).when(SUT).saveProject(project1);
+
+        Mockito.doReturn(SUT.getProjectCacheSize() - 1).when(SUT).getProjectCacheBudget();
+        SUT.evictProjects(2);
+
+        verify(SUT, times(1)).saveProject(project1);
+        verify(project1, never()).dispose();
+        Assert.assertEquals(SUT.getCacheEvictions(), 0);
+        Assert.assertSame(SUT.getProject(1), project1);
+    }
+
     //-------------helpers-------------
 
     protected void registerProject(){
@@ -0,0 +1,284 @@
+/*
+
+Copyright 2010, Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,           
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY           
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package com.google.refine.tests.browsing;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONWriter;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.ProjectManager;
+import com.google.refine.browsing.Engine;
+import com.google.refine.browsing.RowVisitor;
+import com.google.refine.browsing.facets.Facet;
+import com.google.refine.browsing.util.FacetCache;
+import com.google.refine.browsing.util.FilteredIndex;
+import com.google.refine.expr.Evaluable;
+import com.google.refine.expr.MetaParser;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Column;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+import com.google.refine.tests.ProjectManagerStub;
+import com.google.refine.tests.RefineTest;
+import com.google.refine.util.ParsingUtilities;
+
+public class EngineTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    // dependencies
+    Project project;
+
+    @BeforeMethod
+    public void SetUp() throws Exception {
+        ProjectManager.singleton = new ProjectManagerStub();
+        
+        project = new Project();
+        project.columnModel.addColumn(0, new Column(0, "type"), false);
+        project.columnModel.addColumn(1, new Column(1, "wheels"), false);
+        
+        String[][] data = {
+            { "car", "4" },
+            { "car", "4" },
+            { "bicycle", "2" },
+            { "tricycle", "3" },
+            { "truck", "6" },
+            { "truck", "18" },
+            { "bicycle", "" },
+        };
+        for (String[] values : data) {
+            Row row = new Row(2);
+            for (int i = 0; i < values.length; i++) {
+                row.setCell(i, values[i].length() == 0 ? null : new Cell(values[i], null));
+            }
+            project.rows.add(row);
+        }
+        project.update();
+    }
+
+    @AfterMethod
+    public void TearDown() {
+        ProjectManager.singleton = null;
+        project = null;
+    }
+
+    @Test
+    public void computeFacetsRowBased() throws Exception {
+        assertFacetsMatchSeparateScans(createEngineConfig("row-based"));
+    }
+
+    @Test
+    public void computeFacetsRecordBased() throws Exception {
+        assertFacetsMatchSeparateScans(createEngineConfig("record-based"));
+    }
+
+    @Test
+    public void computeFacetsAppliesOtherFacetsOnly() throws Exception {
+        Engine engine = new Engine(project);
+        engine.initializeFromJSON(createEngineConfig("row-based"));
+        engine.computeFacets();
+        
+        JSONObject o = ParsingUtilities.evaluateJsonStringToObject(write(engine));
+        JSONObject typeFacet = o.getJSONArray("facets").getJSONObject(0);
+        
+        // only the "wheels" selection applies to the "type" facet: 2 cars, 1 bicycle
+        Assert.assertEquals(typeFacet.getJSONArray("choices").length(), 2);
+    }
+
+    @Test
+    public void computeFacetsAfterDataChange() throws Exception {
+        JSONObject config = createEngineConfig("row-based");
+        
+        Engine engine = new Engine(project);
+        engine.initializeFromJSON(config);
+        engine.computeFacets();
+        
+        // turn the tricycle into a bicycle, which the "type" facet selects
+        project.rows.get(3).setCell(0, new Cell("bicycle", null));
+        project.rows.get(3).setCell(1, new Cell("2", null));
+        project.update();
+        
+        engine = new Engine(project);
+        engine.initializeFromJSON(config);
+        engine.computeFacets();
+        
+        JSONObject o = ParsingUtilities.evaluateJsonStringToObject(write(engine));
+        JSONArray choices = o.getJSONArray("facets").getJSONObject(2).getJSONArray("choices");
+        for (int i = 0; i < choices.length(); i++) {
+            JSONObject choice = choices.getJSONObject(i);
+            if ("2".equals(choice.getJSONObject("v").getString("v"))) {
+                Assert.assertEquals(choice.getInt("c"), 2);
+            }
+            Assert.assertFalse("3".equals(choice.getJSONObject("v").getString("v")));
+        }
+        
+        assertFacetsMatchSeparateScans(config);
+    }
+
+    @Test
+    public void filteredIndexMatchesFilteredRows() throws Exception {
+        Engine engine = new Engine(project);
+        engine.initializeFromJSON(createEngineConfig("row-based"));
+        
+        final List<Integer> expected = new ArrayList<Integer>();
+        engine.getAllFilteredRows().accept(project, new RowVisitor() {
+            @Override
+            public void start(Project project) {
+            }
+            @Override
+            public boolean visit(Project project, int rowIndex, Row row) {
+                expected.add(rowIndex);
+                return false;
+            }
+            @Override
+            public void end(Project project) {
+            }
+        });
+        
+        FilteredIndex index = engine.getFilteredIndex();
+        Assert.assertEquals(index.size(), expected.size());
+        for (int n = 0; n < expected.size(); n++) {
+            Assert.assertEquals(index.get(n), (int) expected.get(n));
+        }
+        Assert.assertEquals(index.get(expected.size()), -1);
+        Assert.assertSame(engine.getFilteredIndex(), index);
+        
+        project.rows.get(3).setCell(0, new Cell("bicycle", null));
+        project.rows.get(3).setCell(1, new Cell("2", null));
+        project.update();
+        Assert.assertEquals(engine.getFilteredIndex().size(), expected.size() + 1);
+    }
+
+    @Test
+    public void expressionsReadingTheTimeAreNotCached() throws Exception {
+        String expression = "if(now() == null, null, value)";
+        JSONObject config = ParsingUtilities.evaluateJsonStringToObject(
+            "{\"mode\":\"row-based\",\"facets\":[" +
+                createListFacetConfig("wheels", "\"4\"") + "," +
+                createExpressionListFacetConfig("type", expression, "\"car\"") +
+            "]}");
+        
+        Engine engine = new Engine(project);
+        engine.initializeFromJSON(config);
+        Assert.assertNull(engine.getConfigKey());
+        
+        FilteredIndex index = engine.getFilteredIndex();
+        Assert.assertEquals(index.size(), 2);
+        Assert.assertNotSame(engine.getFilteredIndex(), index);
+        
+        FacetCache cache = FacetCache.getCache(project);
+        Evaluable eval = MetaParser.parse(expression);
+        Assert.assertFalse(FacetCache.isCacheable(eval));
+        Assert.assertNotSame(
+            cache.getRowValues(project, expression, eval, "type", 0),
+            cache.getRowValues(project, expression, eval, "type", 0));
+        
+        eval = MetaParser.parse("value");
+        Assert.assertTrue(FacetCache.isCacheable(eval));
+        Assert.assertSame(
+            cache.getRowValues(project, "value", eval, "type", 0),
+            cache.getRowValues(project, "value", eval, "type", 0));
+    }
+
+    protected JSONObject createEngineConfig(String mode) throws Exception {
+        return ParsingUtilities.evaluateJsonStringToObject(
+            "{\"mode\":\"" + mode + "\",\"facets\":[" +
+                createListFacetConfig("type", "\"car\"", "\"bicycle\"") + "," +
+                createListFacetConfig("wheels", "\"2\"", "\"4\"") + "," +
+                createListFacetConfig("wheels") +
+            "]}");
+    }
+
+    protected String createListFacetConfig(String columnName, String... selection) {
+        return createExpressionListFacetConfig(columnName, "value", selection);
+    }
+
+    protected String createExpressionListFacetConfig(String columnName, String expression, String... selection) {
+        StringBuffer sb = new StringBuffer();
+        sb.append("{\"type\":\"list\",\"name\":\"" + columnName + "\",\"columnName\":\"" + columnName +
+            "\",\"expression\":" + JSONObject.quote(expression) + ",\"selection\":[");
+        for (int i = 0; i < selection.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"v\":{\"v\":" + selection[i] + ",\"l\":" + selection[i] + "}}");
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    protected void assertFacetsMatchSeparateScans(JSONObject config) throws Exception {
+        Engine engine = new Engine(project);
+        engine.initializeFromJSON(config);
+        engine.computeFacets();
+        
+        Engine expected = new Engine(project) {
+            @Override
+            public void computeFacets() {
+                for (Facet facet : _facets) {
+                    if (_mode == Mode.RowBased) {
+                        facet.computeChoices(_project, getFilteredRows(facet));
+                    } else {
+                        facet.computeChoices(_project, getFilteredRecords(facet));
+                    }
+                }
+            }
+        };
+        expected.initializeFromJSON(config);
+        expected.computeFacets();
+        
+        Assert.assertEquals(write(engine), write(expected));
+    }
+
+    protected String write(Engine engine) throws Exception {
+        StringWriter writer = new StringWriter();
+        engine.write(new JSONWriter(writer), new Properties());
+        return writer.toString();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+
+Copyright 2010, Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,           
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY           
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package com.google.refine.tests.browsing;
+
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.browsing.RowFilter;
+import com.google.refine.browsing.util.ConjunctiveFilteredRows;
+import com.google.refine.browsing.util.ExpressionNominalValueGrouper;
+import com.google.refine.browsing.util.ParallelFilteredRows;
+import com.google.refine.expr.MetaParser;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Column;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+import com.google.refine.tests.RefineTest;
+
+public class ParallelFilteredRowsTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    // dependencies
+    Project project;
+
+    @BeforeMethod
+    public void SetUp() throws Exception {
+        project = new Project();
+        project.columnModel.addColumn(0, new Column(0, "letter"), false);
+        
+        String[] letters = { "a", "b", "c", "", "d" };
+        for (int i = 0; i < 100000; i++) {
+            Row row = new Row(1);
+            String letter = letters[i % letters.length];
+            if (letter.length() > 0) {
+                row.setCell(0, new Cell(letter, null));
+            }
+            project.rows.add(row);
+        }
+    }
+
+    @AfterMethod
+    public void TearDown() {
+        project = null;
+    }
+
+    @Test
+    public void groupInParallel() throws Exception {
+        ExpressionNominalValueGrouper expected = createGrouper();
+        new ConjunctiveFilteredRows().accept(project, expected);
+        
+        ExpressionNominalValueGrouper grouper = createGrouper();
+        ParallelFilteredRows.visitInParallel(project, grouper, new RowFilter() {
+            @Override
+            public boolean filterRow(Project project, int rowIndex, Row row) {
+                return true;
+            }
+        });
+        
+        Assert.assertEquals(grouper.choices.size(), 4);
+        Assert.assertEquals(grouper.blankCount, expected.blankCount);
+        for (Object key : expected.choices.keySet()) {
+            Assert.assertEquals(grouper.choices.get(key).count, expected.choices.get(key).count);
+        }
+    }
+
+    @Test
+    public void groupFilteredRowsInParallel() throws Exception {
+        ExpressionNominalValueGrouper grouper = createGrouper();
+        ParallelFilteredRows.visitInParallel(project, grouper, new RowFilter() {
+            @Override
+            public boolean filterRow(Project project, int rowIndex, Row row) {
+                return rowIndex % 10 < 5;
+            }
+        });
+        
+        Assert.assertEquals(grouper.choices.get("a").count, 10000);
+        Assert.assertEquals(grouper.choices.get("d").count, 10000);
+        Assert.assertEquals(grouper.blankCount, 10000);
+    }
+
+    protected ExpressionNominalValueGrouper createGrouper() throws Exception {
+        return new ExpressionNominalValueGrouper(MetaParser.parse("value"), "letter", 0);
+    }
+}
@@ -42,12 +42,22 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.Test;
 
+import com.google.refine.ProjectManager;
 import com.google.refine.expr.EvalError;
 import com.google.refine.expr.Evaluable;
 import com.google.refine.expr.ExpressionUtils;
 import com.google.refine.expr.MetaParser;
 import com.google.refine.expr.ParsingException;
+import com.google.refine.expr.WrappedCell;
+import com.google.refine.grel.CompiledEvaluable;
+import com.google.refine.grel.ExpressionCompiler;
+import com.google.refine.grel.Parser;
+import com.google.refine.grel.ast.LiteralExpr;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Column;
 import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+import com.google.refine.tests.ProjectManagerStub;
 import com.google.refine.tests.RefineTest;
 
 public class GrelTests extends RefineTest {
@@ -166,6 +176,101 @@ public class GrelTests extends RefineTest {
             parseEval(bindings, test);
         }
     }
+    @Test
+    public void testBindRows() throws ParsingException {
+        Evaluable eval = MetaParser.parse("grel:value.trim() + rowIndex");
+        Evaluable loop = MetaParser.parse("grel:forEach([1, 2], value, value).join(\",\") + cell.value");
+        
+        for (int r = 0; r < 3; r++) {
+            Row row = new Row(1);
+            row.setCell(0, new Cell(" a" + r + " ", null));
+            
+            ExpressionUtils.bind(bindings, row, r, "column", row.getCell(0));
+            Assert.assertEquals(eval.evaluate(bindings), "a" + r + r);
+            Assert.assertEquals(loop.evaluate(bindings).toString(), "1,2 a" + r + " ");
+            Assert.assertEquals(bindings.get("value"), " a" + r + " ");
+            Assert.assertSame(((WrappedCell) bindings.get("cell")).cell, row.getCell(0));
+        }
+        
+        ExpressionUtils.bind(bindings, new Row(1), 3, "column", null);
+        Assert.assertNull(bindings.get("value"));
+        Assert.assertNull(bindings.get("cell"));
+    }
+    
+    @Test
+    public void testConstantFolding() throws ParsingException {
+        Assert.assertTrue(MetaParser.parse("grel:1 + 2 * 3") instanceof LiteralExpr);
+        Assert.assertTrue(MetaParser.parse("grel:\" ABC \".trim().toLowercase() == \"abc\"") instanceof LiteralExpr);
+        Assert.assertEquals(MetaParser.parse("grel:\"A\".toLowercase() + value").toString(), "\"a\" + value");
+        Assert.assertFalse(MetaParser.parse("grel:now().toString()") instanceof LiteralExpr);
+        Assert.assertFalse(MetaParser.parse("grel:[1, 2].length()") instanceof LiteralExpr);
+    }
+    
+    @Test
+    public void testCompiledExpressions() throws Exception {
+        project.columnModel.addColumn(0, new Column(0, "c"), false);
+        
+        String tests[] = {
+            "value.trim().toLowercase()",
+            "value.length() * 60 + 1 > 100",
+            "cell.value + rowIndex",
+            "cells.c.value == value",
+            "if(value.length() > 3, \"long\", \"short\")",
+            "forEach(value.split(\" \"), v, v.toUppercase()).join(\"-\")",
+            "value.toNumber() * 2.5",
+            "value.noSuchField",
+            "row.index - 1",
+            "null",
+        };
+        String[] values = { " Ab ", "12", "x y z", "" };
+        
+        for (String test : tests) {
+            Evaluable interpreted = new Parser(test).getExpression();
+            Evaluable compiled = ExpressionCompiler.compile(interpreted);
+            if (!(interpreted instanceof LiteralExpr)) {
+                Assert.assertTrue(compiled instanceof CompiledEvaluable, test);
+            }
+            
+            for (int r = 0; r < values.length; r++) {
+                Row row = new Row(1);
+                row.setCell(0, new Cell(values[r], null));
+                ExpressionUtils.bind(bindings, row, r, "c", row.getCell(0));
+                
+                Assert.assertEquals(
+                    String.valueOf(compiled.evaluate(bindings)),
+                    String.valueOf(interpreted.evaluate(bindings)),
+                    test + " on " + values[r]);
+            }
+        }
+    }
+    
+    @Test
+    public void testParseIsCached() throws ParsingException {
+        long hits = MetaParser.getHitCount();
+        
+        Evaluable eval = MetaParser.parse("grel:value + \"cached\"");
+        Assert.assertSame(MetaParser.parse("grel:value + \"cached\""), eval);
+        Assert.assertSame(MetaParser.parse("value + \"cached\""), eval);
+        Assert.assertEquals(MetaParser.getHitCount(), hits + 2);
+    }
+    
+    @Test
+    public void testCompilationPreferenceTakesEffect() throws ParsingException {
+        String expression = "grel:value + \"compiled\"";
+        ProjectManager.singleton = new ProjectManagerStub();
+        try {
+            Assert.assertFalse(MetaParser.parse(expression) instanceof CompiledEvaluable);
+            
+            ProjectManager.singleton.getPreferenceStore().put("expressions.grel.compile", "true");
+            Assert.assertTrue(MetaParser.parse(expression) instanceof CompiledEvaluable);
+            
+            ProjectManager.singleton.getPreferenceStore().put("expressions.grel.compile", "false");
+            Assert.assertFalse(MetaParser.parse(expression) instanceof CompiledEvaluable);
+        } finally {
+            ProjectManager.singleton = null;
+        }
+    }
+    
     private void parseEval(Properties bindings, String[] test)
             throws ParsingException {
         Evaluable eval = MetaParser.parse("grel:" + test[0]);
@@ -38,6 +38,17 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.LineNumberReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
 import org.mockito.Mockito;
 import org.slf4j.LoggerFactory;
 import org.testng.Assert;
@@ -48,9 +59,19 @@ import org.testng.annotations.Test;
 
 import com.google.refine.ProjectManager;
 import com.google.refine.ProjectMetadata;
+import com.google.refine.expr.EvalError;
+import com.google.refine.history.Change;
 import com.google.refine.history.History;
 import com.google.refine.history.HistoryEntry;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Column;
 import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+import com.google.refine.model.changes.CellChange;
+import com.google.refine.model.changes.MassCellChange;
+import com.google.refine.model.changes.MassRowChange;
+import com.google.refine.model.changes.MassRowChange.RowSpan;
+import com.google.refine.util.Pool;
 import com.google.refine.tests.RefineTest;
 
 
@@ -99,4 +120,92 @@ public class HistoryTests extends RefineTest {
         verify(projectMetadata, times(1)).updateModified();
         Assert.assertEquals(SUT.getLastPastEntries(1).get(0), entry);
     }
+
+    @Test
+    public void canSaveAndLoadBinaryChanges() throws Exception {
+        CellChange[] cellChanges = new CellChange[1000];
+        for (int i = 0; i < cellChanges.length; i++) {
+            Cell oldCell;
+            switch (i % 6) {
+            case 0: oldCell = null; break;
+            case 1: oldCell = new Cell(null, null); break;
+            case 2: oldCell = new Cell((long) i, null); break;
+            case 3: oldCell = new Cell(i / 7.0, null); break;
+            case 4: oldCell = new Cell(new Date(i * 1000L), null); break;
+            default: oldCell = new Cell(new EvalError("error " + (i % 3)), null);
+            }
+            int row = i % 2 == 0 ? i * 3 : i * 3 - 10; // not in order
+            cellChanges[i] = new CellChange(row, 2, oldCell, new Cell("value " + (i % 10), null));
+        }
+        MassCellChange change = new MassCellChange(cellChanges, "column", false);
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        History.writeOneBinaryChange(out, change, new Pool());
+        Change change2 = History.readOneBinaryChange(new ByteArrayInputStream(out.toByteArray()), new Pool());
+        
+        Assert.assertEquals(saveAsText(change2), saveAsText(change));
+        Assert.assertTrue(out.size() < saveAsText(change).length() / 4);
+    }
+    
+    @Test
+    public void canApplyAndRevertRowSpans() throws Exception {
+        Project project = new Project();
+        project.columnModel.addColumn(0, new Column(0, "column"), false);
+        for (int i = 0; i < 10; i++) {
+            project.rows.add(makeRow("row " + i));
+        }
+        List<Row> oldRows = new ArrayList<Row>(project.rows);
+        
+        List<RowSpan> spans = new ArrayList<RowSpan>();
+        spans.add(new RowSpan(2, 1, Arrays.asList(makeRow("a"), makeRow("b"))));
+        spans.add(new RowSpan(5, 2, Arrays.asList(makeRow("c"))));
+        spans.add(new RowSpan(9, 1, new ArrayList<Row>()));
+        MassRowChange change = new MassRowChange(10, spans);
+        
+        change.apply(project);
+        Assert.assertEquals(rowValues(project),
+            "[row 0, row 1, a, b, row 3, row 4, c, row 7, row 8]");
+        Assert.assertSame(project.rows.get(5), oldRows.get(4));
+        
+        change.revert(project);
+        Assert.assertEquals(project.rows, oldRows);
+        
+        String text = saveAsText(change);
+        Change change2 = MassRowChange.load(new LineNumberReader(new StringReader(text)), new Pool());
+        Assert.assertEquals(saveAsText(change2), text);
+        
+        change2.apply(project);
+        Assert.assertEquals(rowValues(project),
+            "[row 0, row 1, a, b, row 3, row 4, c, row 7, row 8]");
+        change2.revert(project);
+        Assert.assertEquals(rowValues(project), rowValues(oldRows));
+    }
+    
+    static private Row makeRow(String value) {
+        Row row = new Row(1);
+        row.setCell(0, new Cell(value, null));
+        return row;
+    }
+    
+    static private String rowValues(Project project) {
+        return rowValues(project.rows);
+    }
+    
+    static private String rowValues(List<Row> rows) {
+        List<Object> values = new ArrayList<Object>();
+        for (Row row : rows) {
+            values.add(row.getCellValue(0));
+        }
+        return values.toString();
+    }
+    
+    static private String saveAsText(Change change) throws Exception {
+        Properties options = new Properties();
+        options.setProperty("mode", "save");
+        options.put("pool", new Pool());
+        
+        StringWriter writer = new StringWriter();
+        change.save(writer, options);
+        return writer.toString();
+    }
 }
@@ -38,16 +38,26 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.zip.GZIPOutputStream;
 
+import org.apache.tools.bzip2.CBZip2OutputStream;
 import org.slf4j.LoggerFactory;
 import org.testng.Assert;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.Test;
 
 import com.google.refine.importers.ImporterUtilities;
+import com.google.refine.importers.ImporterUtilities.MultiFileReadingProgress;
+import com.google.refine.importing.ImportingUtilities;
 import com.google.refine.model.Cell;
 import com.google.refine.model.Project;
 import com.google.refine.model.Row;
@@ -68,6 +78,45 @@ public class ImporterUtilitiesTests extends RefineTest {
         Assert.assertEquals(response, END_QUOTES_SHOULD_BE_RETAINED);
     }
 
+    @Test
+    public void parseCellValueAsParsersWould(){
+        String[] texts = {
+            "0", "-12", "+7", " 42 ", "123456789012345678", "1234567890123456789", "99999999999999999999",
+            "1.5", "-.5", "1.", ".", "-", "+", "1e10", "1E-3", "1e", "1e+", "2.5f", "3D", "1.5x",
+            "0x1p3", "0x10", "NaN", "Infinity", "-Infinity", "1e400", "1,000", "12a", "abc", "",
+            "\u0661\u0662\u0663", "1\u0662", "\u4e00"
+        };
+        for (String text : texts) {
+            Assert.assertEquals(ImporterUtilities.parseCellValue(text), parseWithExceptions(text), text);
+        }
+    }
+
+    @Test
+    public void parseCellValueWithPlusSign(){
+        // a long from Java 7 on and a double before, as Long.parseLong only accepts the sign since Java 7
+        Object value = ImporterUtilities.parseCellValue("+5");
+        Assert.assertTrue(value instanceof Number);
+        Assert.assertEquals(((Number) value).doubleValue(), 5.0);
+    }
+
+    protected Object parseWithExceptions(String text) {
+        String text2 = text.trim();
+        if (text2.length() > 0) {
+            try {
+                return Long.parseLong(text2);
+            } catch (NumberFormatException e) {
+            }
+            try {
+                double d = Double.parseDouble(text2);
+                if (!Double.isInfinite(d) && !Double.isNaN(d)) {
+                    return d;
+                }
+            } catch (NumberFormatException e) {
+            }
+        }
+        return text;
+    }
+
     @Test
     public void getIntegerOption(){
         Properties options = mock(Properties.class);
@@ -157,4 +206,60 @@ public class ImporterUtilitiesTests extends RefineTest {
         Assert.assertEquals( project.columnModel.columns.get(2).getName(), "Column");
     }
 
+    @Test
+    public void openAndTrackFileDecompresses() throws IOException {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < 10000; i++) {
+            sb.append("line ").append(i).append('\n');
+        }
+        byte[] content = sb.toString().getBytes("UTF-8");
+        
+        File plainFile = File.createTempFile("data", ".txt");
+        OutputStream os = new FileOutputStream(plainFile);
+        os.write(content);
+        os.close();
+        
+        File gzipFile = File.createTempFile("data", ".txt.gz");
+        os = new GZIPOutputStream(new FileOutputStream(gzipFile));
+        os.write(content);
+        os.close();
+        
+        File bzip2File = File.createTempFile("data", ".txt.bz2");
+        os = new FileOutputStream(bzip2File);
+        os.write('B');
+        os.write('Z');
+        os = new CBZip2OutputStream(os);
+        os.write(content);
+        os.close();
+        
+        for (File file : new File[] { plainFile, gzipFile, bzip2File }) {
+            final long[] lastBytesRead = new long[] { 0 };
+            InputStream is = ImporterUtilities.openAndTrackFile(file.getName(), file, new MultiFileReadingProgress() {
+                @Override
+                public void startFile(String fileSource) {
+                }
+                @Override
+                public void readingFile(String fileSource, long bytesRead) {
+                    lastBytesRead[0] = bytesRead;
+                }
+                @Override
+                public void endFile(String fileSource, long bytesRead) {
+                }
+            });
+            
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = is.read(buffer)) > 0) {
+                bos.write(buffer, 0, n);
+            }
+            is.close();
+            
+            Assert.assertEquals(new String(bos.toByteArray(), "UTF-8"), sb.toString(), file.getName());
+            Assert.assertEquals(lastBytesRead[0], file.length(), file.getName());
+            Assert.assertEquals(ImportingUtilities.isCompressedFile(file), file != plainFile);
+            file.delete();
+        }
+    }
+
 }
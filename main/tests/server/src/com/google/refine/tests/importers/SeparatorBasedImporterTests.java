@@ -0,0 +1,274 @@
+/*
+
+Copyright 2010, Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,           
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY           
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package com.google.refine.tests.importers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONObject;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.ProjectMetadata;
+import com.google.refine.importers.ImporterUtilities.MultiFileReadingProgress;
+import com.google.refine.importers.SeparatorBasedImporter;
+import com.google.refine.importing.ImportingJob;
+import com.google.refine.model.Project;
+import com.google.refine.tests.RefineTest;
+import com.google.refine.util.JSONUtilities;
+
+/**
+ * Tests of reading whole files with the separator-based importer. Unlike ImporterTest,
+ * the job gets a directory of its own without going through the ImportingManager.
+ */
+public class SeparatorBasedImporterTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    // dependencies
+    Project project;
+    ProjectMetadata metadata;
+    ImportingJob job;
+
+    //System Under Test
+    SeparatorBasedImporter SUT = null;
+
+    @BeforeMethod
+    public void SetUp() throws Exception {
+        File dir = File.createTempFile("import", "");
+        dir.delete();
+        
+        project = new Project();
+        metadata = new ProjectMetadata();
+        job = new ImportingJob(1, dir);
+        SUT = new SeparatorBasedImporter();
+    }
+
+    @AfterMethod
+    public void TearDown() {
+        SUT = null;
+        job.dispose();
+        job = null;
+        metadata = null;
+        project = null;
+    }
+
+    @Test
+    public void readInParallelChunks() throws Exception {
+        StringBuffer sb = new StringBuffer("id,name,note\n");
+        for (int i = 0; i < 1000; i++) {
+            sb.append(i).append(",name ").append(i).append(",\"multi\nline, \"\"").append(i).append("\"\"\"\n");
+        }
+        String input = sb.toString();
+        
+        File file = new File(job.getRawDataDir(), "data.csv");
+        FileUtils.writeStringToFile(file, input, "UTF-8");
+        JSONObject fileRecord = new JSONObject();
+        JSONUtilities.safePut(fileRecord, "location", "data.csv");
+        JSONUtilities.safePut(fileRecord, "encoding", "UTF-8");
+        
+        JSONObject options = new JSONObject();
+        JSONUtilities.safePut(options, "separator", ",");
+        JSONUtilities.safePut(options, "headerLines", 1);
+        JSONUtilities.safePut(options, "guessCellValueTypes", true);
+        JSONUtilities.safePut(options, "processQuotes", true);
+        
+        SeparatorBasedImporter parallelImporter = new SeparatorBasedImporter() {
+            @Override
+            protected boolean canParseInParallel(File file, Charset charset, int limit, JSONObject options) {
+                return true;
+            }
+            
+            @Override
+            protected long getChunkSize() {
+                return 1000;
+            }
+        };
+        parallelImporter.parseOneFile(project, metadata, job, fileRecord, -1, options,
+            new ArrayList<Exception>(), new MultiFileReadingProgress() {
+                @Override
+                public void startFile(String fileSource) {
+                }
+                @Override
+                public void readingFile(String fileSource, long bytesRead) {
+                }
+                @Override
+                public void endFile(String fileSource, long bytesRead) {
+                }
+            });
+        
+        Project expected = new Project();
+        SUT.parseOneFile(expected, metadata, job, "file-source", new StringReader(input), -1, options,
+            new ArrayList<Exception>());
+        
+        Assert.assertEquals(project.columnModel.columns.size(), 3);
+        Assert.assertEquals(project.columnModel.columns.get(2).getName(), "note");
+        Assert.assertEquals(project.rows.size(), expected.rows.size());
+        for (int r = 0; r < expected.rows.size(); r++) {
+            for (int c = 0; c < 3; c++) {
+                Assert.assertEquals(
+                    project.rows.get(r).getCellValue(project.columnModel.columns.get(c).getCellIndex()),
+                    expected.rows.get(r).getCellValue(expected.columnModel.columns.get(c).getCellIndex()));
+            }
+        }
+        Assert.assertEquals(project.rows.get(999).cells.get(1).value, 999L);
+        Assert.assertEquals(project.rows.get(999).cells.get(3).value, "multi\nline, \"999\"");
+    }
+
+    @Test
+    public void readFilesConcurrently() throws Exception {
+        job.config = new JSONObject(); // for progress reports
+        
+        List<JSONObject> fileRecords = new ArrayList<JSONObject>();
+        for (int f = 0; f < 5; f++) {
+            StringBuffer sb = new StringBuffer(f % 2 == 0 ? "id,name\n" : "name,id,extra\n");
+            for (int i = 0; i < 100; i++) {
+                if (f % 2 == 0) {
+                    sb.append(i).append(",name ").append(f).append("\n");
+                } else {
+                    sb.append("name ").append(f).append(",").append(i).append(",x\n");
+                }
+            }
+            FileUtils.writeStringToFile(new File(job.getRawDataDir(), "data" + f + ".csv"), sb.toString(), "UTF-8");
+            
+            JSONObject fileRecord = new JSONObject();
+            JSONUtilities.safePut(fileRecord, "location", "data" + f + ".csv");
+            JSONUtilities.safePut(fileRecord, "fileName", "data" + f + ".csv");
+            fileRecords.add(fileRecord);
+        }
+        
+        JSONObject options = new JSONObject();
+        JSONUtilities.safePut(options, "separator", ",");
+        JSONUtilities.safePut(options, "headerLines", 1);
+        JSONUtilities.safePut(options, "includeFileSources", true);
+        
+        SeparatorBasedImporter concurrentImporter = new SeparatorBasedImporter() {
+            @Override
+            protected boolean canParseConcurrently(List<JSONObject> fileRecords, JSONObject options) {
+                return true;
+            }
+        };
+        concurrentImporter.parse(project, metadata, job, fileRecords, "text/line-based/*sv", -1, options,
+            new ArrayList<Exception>());
+        
+        Project expected = new Project();
+        SeparatorBasedImporter sequentialImporter = new SeparatorBasedImporter() {
+            @Override
+            protected boolean canParseConcurrently(List<JSONObject> fileRecords, JSONObject options) {
+                return false;
+            }
+        };
+        sequentialImporter.parse(expected, metadata, job, fileRecords, "text/line-based/*sv", -1, options,
+            new ArrayList<Exception>());
+        
+        project.update();
+        expected.update();
+        Assert.assertEquals(project.columnModel.getColumnNames(), expected.columnModel.getColumnNames());
+        Assert.assertEquals(project.rows.size(), 500);
+        Assert.assertEquals(project.rows.size(), expected.rows.size());
+        for (int r = 0; r < expected.rows.size(); r++) {
+            for (int c = 0; c < expected.columnModel.columns.size(); c++) {
+                Assert.assertEquals(
+                    project.rows.get(r).getCellValue(project.columnModel.columns.get(c).getCellIndex()),
+                    expected.rows.get(r).getCellValue(expected.columnModel.columns.get(c).getCellIndex()));
+            }
+        }
+    }
+
+    @Test
+    public void previewFromCachedRows() throws Exception {
+        StringBuffer sb = new StringBuffer("id,name\n");
+        for (int i = 0; i < 1000; i++) {
+            sb.append(i).append(",name ").append(i).append("\n");
+        }
+        File file = new File(job.getRawDataDir(), "data.csv");
+        FileUtils.writeStringToFile(file, sb.toString(), "UTF-8");
+        
+        JSONObject fileRecord = new JSONObject();
+        JSONUtilities.safePut(fileRecord, "location", "data.csv");
+        
+        JSONObject options = new JSONObject();
+        JSONUtilities.safePut(options, "separator", ",");
+        JSONUtilities.safePut(options, "headerLines", 1);
+        
+        MultiFileReadingProgress progress = new MultiFileReadingProgress() {
+            @Override
+            public void startFile(String fileSource) {
+            }
+            @Override
+            public void readingFile(String fileSource, long bytesRead) {
+            }
+            @Override
+            public void endFile(String fileSource, long bytesRead) {
+            }
+        };
+        SUT.parseOneFile(project, metadata, job, fileRecord, 10, options, new ArrayList<Exception>(), progress);
+        Assert.assertEquals(project.rows.size(), 10);
+        
+        // later previews with other table options don't need the file
+        Assert.assertTrue(file.delete());
+        
+        JSONUtilities.safePut(options, "headerLines", 0);
+        JSONUtilities.safePut(options, "skipDataLines", 5);
+        JSONUtilities.safePut(options, "guessCellValueTypes", false);
+        Project project2 = new Project();
+        List<Exception> exceptions = new ArrayList<Exception>();
+        SUT.parseOneFile(project2, metadata, job, fileRecord, 10, options, exceptions, progress);
+        Assert.assertTrue(exceptions.isEmpty());
+        Assert.assertEquals(project2.rows.size(), 10);
+        Assert.assertEquals(project2.rows.get(0).cells.get(1).value, "4");
+        
+        // but does when more rows are needed than were kept
+        JSONUtilities.safePut(options, "skipDataLines", 500);
+        try {
+            SUT.parseOneFile(new Project(), metadata, job, fileRecord, 10, options, exceptions, progress);
+            Assert.fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+
+Copyright 2010, Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,           
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY           
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package com.google.refine.tests.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.ProjectManager;
+import com.google.refine.ProjectMetadata;
+import com.google.refine.history.HistoryEntry;
+import com.google.refine.io.FileProjectManager;
+import com.google.refine.io.ProjectUtilities;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Column;
+import com.google.refine.model.MappedRowList;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+import com.google.refine.model.changes.CellChange;
+import com.google.refine.tests.RefineTest;
+
+public class ProjectUtilitiesTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    // dependencies
+    File workspaceDir;
+    File projectDir;
+    Project project;
+
+    @BeforeMethod
+    public void SetUp() throws Exception {
+        workspaceDir = File.createTempFile("workspace", "");
+        workspaceDir.delete();
+        ProjectManager.singleton = new FileProjectManager(workspaceDir) {};
+        
+        project = new Project();
+        project.columnModel.addColumn(0, new Column(0, "name"), false);
+        for (int i = 0; i < 3; i++) {
+            Row row = new Row(1);
+            row.setCell(0, new Cell("row " + i, null));
+            project.rows.add(row);
+        }
+        project.update();
+        
+        ProjectManager.singleton.registerProject(project, new ProjectMetadata());
+        projectDir = ((FileProjectManager) ProjectManager.singleton).getProjectDir(project.id);
+    }
+
+    @AfterMethod
+    public void TearDown() {
+        ProjectManager.singleton = null;
+        project = null;
+        delete(workspaceDir);
+    }
+
+    @Test
+    public void saveChangesToJournal() throws Exception {
+        ProjectUtilities.save(project);
+        File snapshotFile = new File(projectDir, "data.bin");
+        File journalFile = new File(projectDir, "data.journal");
+        long snapshotLength = snapshotFile.length();
+        Assert.assertFalse(journalFile.exists());
+        
+        HistoryEntry first = addCellChange(0, "first");
+        ProjectUtilities.save(project);
+        Assert.assertTrue(journalFile.exists());
+        Assert.assertEquals(snapshotFile.length(), snapshotLength);
+        
+        addCellChange(1, "second");
+        project.history.undoRedo(first.id);
+        addCellChange(2, "third");
+        ProjectUtilities.save(project);
+        
+        Project loaded = ProjectUtilities.load(projectDir, project.id);
+        Assert.assertEquals(loaded.rows.get(0).getCellValue(0), "first");
+        Assert.assertEquals(loaded.rows.get(1).getCellValue(0), "row 1");
+        Assert.assertEquals(loaded.rows.get(2).getCellValue(0), "third");
+        Assert.assertEquals(loaded.history.getLastPastEntries(0).size(), 2);
+        Assert.assertEquals(loaded.history.getLastPastEntries(0).get(0).id, first.id);
+        
+        ProjectUtilities.saveInFull(project);
+        Assert.assertFalse(journalFile.exists());
+        
+        loaded = ProjectUtilities.load(projectDir, project.id);
+        Assert.assertEquals(loaded.rows.get(2).getCellValue(0), "third");
+    }
+
+    @Test
+    public void saveInFullAfterUntrackedChanges() throws Exception {
+        ProjectUtilities.save(project);
+        File journalFile = new File(projectDir, "data.journal");
+        
+        project.rows.get(0).setCell(0, new Cell("untracked", null));
+        project.update();
+        ProjectUtilities.save(project);
+        Assert.assertFalse(journalFile.exists());
+        
+        Project loaded = ProjectUtilities.load(projectDir, project.id);
+        Assert.assertEquals(loaded.rows.get(0).getCellValue(0), "untracked");
+    }
+
+    @Test
+    public void journalSurvivesCopying() throws Exception {
+        ProjectUtilities.save(project);
+        addCellChange(0, "first");
+        ProjectUtilities.save(project);
+        
+        // copies, as when a project is imported, do not keep the files' modification times
+        File copyDir = new File(workspaceDir, "copy");
+        copyDir.mkdirs();
+        for (String name : new String[] { "data.bin", "data.journal" }) {
+            File copy = new File(copyDir, name);
+            copy(new File(projectDir, name), copy);
+            copy.setLastModified(System.currentTimeMillis() - 60000);
+        }
+        
+        Project loaded = ProjectUtilities.load(copyDir, project.id);
+        Assert.assertEquals(loaded.rows.get(0).getCellValue(0), "first");
+    }
+
+    @Test
+    public void saveInFullLeavesMappedSnapshotInPlace() throws Exception {
+        ProjectUtilities.save(project);
+        ProjectManager.singleton.getPreferenceStore().put("project.storage.mapped", "true");
+        
+        Project mapped = ProjectUtilities.load(projectDir, project.id);
+        Assert.assertTrue(mapped.rows instanceof MappedRowList);
+        
+        mapped.rows.get(0).setCell(0, new Cell("changed", null));
+        mapped.update();
+        ProjectUtilities.saveInFull(mapped);
+        Assert.assertTrue(new File(projectDir, "data.next.bin").exists());
+        Assert.assertEquals(mapped.rows.get(1).getCellValue(0), "row 1");
+        
+        Project loaded = ProjectUtilities.load(projectDir, project.id);
+        Assert.assertFalse(new File(projectDir, "data.next.bin").exists());
+        Assert.assertEquals(loaded.rows.get(0).getCellValue(0), "changed");
+    }
+
+    protected void copy(File from, File to) throws Exception {
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                byte[] buffer = new byte[4096];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    protected HistoryEntry addCellChange(int rowIndex, String value) {
+        Cell oldCell = project.rows.get(rowIndex).getCell(0);
+        HistoryEntry entry = new HistoryEntry(
+            HistoryEntry.allocateID(), project, "Edit", null,
+            new CellChange(rowIndex, 0, oldCell, new Cell(value, null)));
+        project.history.addEntry(entry);
+        return entry;
+    }
+
+    protected void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+
+Copyright 2010, Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,           
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY           
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package com.google.refine.tests.model;
+
+import java.io.StringWriter;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.model.Cell;
+import com.google.refine.model.ColumnarRowStore;
+import com.google.refine.model.Project;
+import com.google.refine.model.Recon;
+import com.google.refine.model.Row;
+import com.google.refine.tests.RefineTest;
+import com.google.refine.util.Pool;
+
+public class ColumnarRowStoreTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    // dependencies
+    Project project;
+    Recon recon;
+
+    @BeforeMethod
+    public void SetUp() {
+        project = new Project();
+        recon = new Recon(1, null, null);
+        
+        Row row = new Row(6);
+        row.setCell(0, new Cell("status", null));
+        row.setCell(1, new Cell(42L, null));
+        row.setCell(2, new Cell(2.5, null));
+        row.setCell(3, new Cell(true, null));
+        row.setCell(4, new Cell(new Date(1000000000000L), null));
+        row.setCell(5, new Cell(7, recon));
+        row.flagged = true;
+        project.rows.add(row);
+        
+        row = new Row(3);
+        row.setCell(0, new Cell("status", null));
+        row.setCell(2, new Cell(null, recon));
+        row.starred = true;
+        project.rows.add(row);
+    }
+
+    @AfterMethod
+    public void TearDown() {
+        project = null;
+        recon = null;
+    }
+
+    @Test
+    public void compactKeepsRows() {
+        String before = save(project);
+        
+        ColumnarRowStore.compact(project);
+        
+        Assert.assertTrue(ColumnarRowStore.isCompacted(project.rows.get(0)));
+        Assert.assertEquals(save(project), before);
+        
+        Row row = project.rows.get(0);
+        Assert.assertTrue(row.flagged);
+        Assert.assertEquals(row.cells.size(), 6);
+        Assert.assertEquals(row.getCellValue(1), 42L);
+        Assert.assertEquals(row.getCellValue(5), 7);
+        Assert.assertSame(row.getCell(5).recon, recon);
+        
+        row = project.rows.get(1);
+        Assert.assertTrue(row.starred);
+        Assert.assertEquals(row.cells.size(), 3);
+        Assert.assertNull(row.getCell(1));
+        Assert.assertNull(row.getCellValue(2));
+        Assert.assertSame(row.getCell(2).recon, recon);
+    }
+
+    @Test
+    public void compactedRowsCanBeChanged() {
+        ColumnarRowStore.compact(project);
+        
+        Row row = project.rows.get(1);
+        row.setCell(0, new Cell("other", null));
+        row.setCell(1, new Cell(3.0, null));
+        row.setCell(8, new Cell("far", null));
+        
+        Assert.assertEquals(row.cells.size(), 9);
+        Assert.assertEquals(row.getCellValue(0), "other");
+        Assert.assertEquals(row.getCellValue(1), 3.0);
+        Assert.assertNull(row.getCell(5));
+        Assert.assertEquals(row.getCellValue(8), "far");
+        
+        Assert.assertEquals(project.rows.get(0).getCellValue(0), "status");
+        Assert.assertEquals(project.rows.get(0).cells.size(), 6);
+        
+        Row copy = row.dup();
+        Assert.assertFalse(ColumnarRowStore.isCompacted(copy));
+        Assert.assertEquals(copy.getCellValue(8), "far");
+    }
+
+    @Test
+    public void copiedRowsKeepTheirCells() {
+        ColumnarRowStore.compact(project);
+        
+        Map<ColumnarRowStore, ColumnarRowStore> storeCopies =
+            new IdentityHashMap<ColumnarRowStore, ColumnarRowStore>();
+        Row copy0 = ColumnarRowStore.copyRow(project.rows.get(0), storeCopies);
+        Row copy1 = ColumnarRowStore.copyRow(project.rows.get(1), storeCopies);
+        Assert.assertEquals(storeCopies.size(), 1);
+        Assert.assertTrue(ColumnarRowStore.isCompacted(copy0));
+        Assert.assertTrue(copy0.flagged);
+        Assert.assertTrue(copy1.starred);
+        
+        project.rows.get(0).setCell(1, new Cell("changed", null));
+        project.rows.get(1).setCell(8, new Cell("far", null));
+        
+        Assert.assertEquals(copy0.getCellValue(1), 42L);
+        Assert.assertSame(copy0.getCell(5).recon, recon);
+        Assert.assertEquals(copy1.cells.size(), 3);
+        Assert.assertEquals(copy1.getCellValue(0), "status");
+    }
+
+    protected String save(Project project) {
+        Properties options = new Properties();
+        options.setProperty("mode", "save");
+        options.put("pool", new Pool());
+        
+        StringWriter writer = new StringWriter();
+        for (Row row : project.rows) {
+            row.save(writer, options);
+            writer.write('\n');
+        }
+        return writer.toString();
+    }
+}
@@ -0,0 +1,185 @@
+/*
+
+Copyright 2010, Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,           
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY           
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package com.google.refine.tests.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.Date;
+import java.util.Properties;
+
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.ProjectManager;
+import com.google.refine.expr.EvalError;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Column;
+import com.google.refine.model.MappedRowList;
+import com.google.refine.model.Project;
+import com.google.refine.model.ProjectSnapshot;
+import com.google.refine.model.Recon;
+import com.google.refine.model.Row;
+import com.google.refine.tests.ProjectManagerStub;
+import com.google.refine.tests.RefineTest;
+import com.google.refine.util.Pool;
+
+public class ProjectSnapshotTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    // dependencies
+    Project project;
+
+    @BeforeMethod
+    public void SetUp() throws Exception {
+        ProjectManager.singleton = new ProjectManagerStub();
+        
+        project = new Project();
+        project.columnModel.addColumn(0, new Column(0, "name"), false);
+        project.columnModel.addColumn(1, new Column(1, "value"), false);
+        project.columnModel.addColumn(2, new Column(2, "other"), false);
+        
+        Recon recon = new Recon(1, "http://example.com/ids", "http://example.com/schema");
+        recon.judgment = Recon.Judgment.New;
+        
+        Row row = new Row(3);
+        row.setCell(0, new Cell("Zürich", recon));
+        row.setCell(1, new Cell(42L, null));
+        row.setCell(2, new Cell(new Date(1000000000000L), null));
+        row.flagged = true;
+        project.rows.add(row);
+        
+        row = new Row(3);
+        row.setCell(0, new Cell("Zürich", null));
+        row.setCell(1, new Cell(-0.5, null));
+        row.setCell(2, new Cell(new EvalError("oops"), null));
+        row.starred = true;
+        project.rows.add(row);
+        
+        row = new Row(3);
+        row.setCell(1, new Cell(false, null));
+        row.setCell(2, new Cell(null, recon));
+        project.rows.add(row);
+        
+        project.update();
+    }
+
+    @AfterMethod
+    public void TearDown() {
+        ProjectManager.singleton = null;
+        project = null;
+    }
+
+    @Test
+    public void saveAndLoad() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ProjectSnapshot.save(project, out);
+        
+        Project loaded = ProjectSnapshot.load(new ByteArrayInputStream(out.toByteArray()), project.id);
+        
+        Assert.assertEquals(loaded.columnModel.columns.size(), 3);
+        Assert.assertEquals(loaded.columnModel.getColumnByCellIndex(1).getName(), "value");
+        Assert.assertEquals(save(loaded), save(project));
+        
+        Assert.assertSame(loaded.rows.get(1).getCellValue(0), loaded.rows.get(0).getCellValue(0));
+        Assert.assertEquals(loaded.rows.get(0).getCell(0).recon.judgment, Recon.Judgment.New);
+        Assert.assertSame(loaded.rows.get(2).getCell(2).recon, loaded.rows.get(0).getCell(0).recon);
+        Assert.assertNull(loaded.rows.get(2).getCell(0));
+        Assert.assertTrue(loaded.rows.get(1).getCellValue(2) instanceof EvalError);
+    }
+
+    @Test
+    public void loadMapped() throws Exception {
+        File file = File.createTempFile("project", ".bin");
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                ProjectSnapshot.save(project, out);
+            } finally {
+                out.close();
+            }
+            
+            Project loaded = ProjectSnapshot.loadMapped(file, project.id);
+            MappedRowList rows = (MappedRowList) loaded.rows;
+            
+            Assert.assertEquals(rows.size(), 3);
+            Assert.assertEquals(loaded.columnModel.getMaxCellIndex(), 2);
+            Assert.assertEquals(loaded.recordModel.getRecordCount(), 2);
+            Assert.assertEquals(save(loaded), save(project));
+            Assert.assertSame(rows.get(1), rows.get(1));
+            
+            rows.get(1).flagged = true;
+            Assert.assertTrue(rows.get(1).flagged);
+            Assert.assertFalse(rows.isMaterialized());
+            
+            rows.remove(0);
+            Assert.assertTrue(rows.isMaterialized());
+            Assert.assertEquals(rows.size(), 2);
+            Assert.assertTrue(rows.get(0).flagged);
+            Assert.assertEquals(rows.get(0).getCellValue(1), -0.5);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(expectedExceptions = java.io.IOException.class)
+    public void rejectOtherFormats() throws Exception {
+        ProjectSnapshot.load(new ByteArrayInputStream("1.0\ncolumnModel=\n".getBytes("UTF-8")), project.id);
+    }
+
+    protected String save(Project project) {
+        Properties options = new Properties();
+        options.setProperty("mode", "save");
+        options.put("pool", new Pool());
+        
+        StringWriter writer = new StringWriter();
+        for (Row row : project.rows) {
+            row.save(writer, options);
+            writer.write('\n');
+        }
+        return writer.toString();
+    }
+}
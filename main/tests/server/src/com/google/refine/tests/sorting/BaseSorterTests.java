@@ -0,0 +1,186 @@
+/*
+
+Copyright 2010, Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,           
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY           
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package com.google.refine.tests.sorting;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.ProjectManager;
+import com.google.refine.browsing.Engine;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Column;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+import com.google.refine.sorting.SortingRecordVisitor;
+import com.google.refine.sorting.SortingRowVisitor;
+import com.google.refine.tests.ProjectManagerStub;
+import com.google.refine.tests.RefineTest;
+import com.google.refine.util.ParsingUtilities;
+
+public class BaseSorterTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    // dependencies
+    Project project;
+
+    @BeforeMethod
+    public void SetUp() {
+        ProjectManager.singleton = new ProjectManagerStub();
+        project = new Project();
+    }
+
+    @AfterMethod
+    public void TearDown() {
+        ProjectManager.singleton = null;
+        project = null;
+    }
+
+    @Test
+    public void sortNumbers() throws Exception {
+        createColumn("number", 5, null, 12L, "2.5", "x", 1, -4, 100, null, 7.5, 0, 3);
+        
+        Assert.assertEquals(sortRows("{\"column\":\"number\",\"valueType\":\"number\"}"),
+            "[6, 10, 5, 3, 11, 0, 9, 2, 7, 1, 8, 4]");
+        // blanks and errors go where they are put, whether or not the values are reversed
+        Assert.assertEquals(sortRows(
+            "{\"column\":\"number\",\"valueType\":\"number\",\"reverse\":true,\"blankPosition\":-1,\"errorPosition\":-2}"),
+            "[4, 1, 8, 7, 2, 9, 0, 11, 3, 5, 10, 6]");
+    }
+
+    @Test
+    public void sortDates() throws Exception {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(new Date(5000));
+        createColumn("date", new Date(30000), null, new Date(10000), "soon", new Date(20000),
+            calendar, new Date(40000), new Date(10000), null, new Date(0));
+        
+        Assert.assertEquals(sortRows("{\"column\":\"date\",\"valueType\":\"date\"}"),
+            "[9, 5, 2, 7, 4, 0, 6, 1, 8, 3]");
+        Assert.assertEquals(sortRows(
+            "{\"column\":\"date\",\"valueType\":\"date\",\"reverse\":true,\"blankPosition\":-1,\"errorPosition\":3}"),
+            "[1, 8, 6, 0, 4, 2, 7, 5, 9, 3]");
+    }
+
+    @Test
+    public void sortBooleans() throws Exception {
+        createColumn("boolean", true, false, null, "true", "no", 5, false, true, "", false);
+        
+        Assert.assertEquals(sortRows("{\"column\":\"boolean\",\"valueType\":\"boolean\"}"),
+            "[1, 4, 6, 9, 0, 3, 7, 2, 8, 5]");
+        Assert.assertEquals(sortRows("{\"column\":\"boolean\",\"valueType\":\"boolean\",\"reverse\":true}"),
+            "[0, 3, 7, 1, 4, 6, 9, 2, 8, 5]");
+    }
+
+    @Test
+    public void sortStringsCaseSensitively() throws Exception {
+        createColumn("name", "B", "a", "b", "A", "c", "C", "a", "B", "A");
+        
+        // strings differing only by case are equal, so they stay in the order of the rows
+        Assert.assertEquals(sortRows("{\"column\":\"name\",\"valueType\":\"string\"}"),
+            "[1, 3, 6, 8, 0, 2, 7, 4, 5]");
+        Assert.assertEquals(sortRows("{\"column\":\"name\",\"valueType\":\"string\",\"caseSensitive\":true}"),
+            "[1, 6, 3, 8, 2, 0, 7, 4, 5]");
+    }
+
+    @Test
+    public void sortByCriteriaInTurn() throws Exception {
+        createColumn("type", "car", "truck", "bicycle", "car", "truck", "bicycle", "car", "tricycle", "truck", "bicycle");
+        createColumn("wheels", "4", "6", "2", "3", "18", "2", "4", "3", "6", "1");
+        
+        // ties keep the order of the rows
+        Assert.assertEquals(sortRows("{\"column\":\"wheels\",\"valueType\":\"number\"}"),
+            "[9, 2, 5, 3, 7, 0, 6, 1, 8, 4]");
+        Assert.assertEquals(sortRows(
+            "{\"column\":\"type\",\"valueType\":\"string\"}," +
+            "{\"column\":\"wheels\",\"valueType\":\"number\",\"reverse\":true}"),
+            "[2, 5, 9, 0, 6, 3, 7, 4, 1, 8]");
+    }
+
+    @Test
+    public void sortRecords() throws Exception {
+        createColumn("name", "x", null, "y", "z", null, "w");
+        createColumn("number", 5, 1, 3, null, 10, null);
+        
+        Assert.assertEquals(sortRecords("{\"column\":\"name\",\"valueType\":\"string\"}"), "[3, 0, 1, 2]");
+        // a record sorts by the lowest of its rows' values, or the highest when reversed
+        Assert.assertEquals(sortRecords("{\"column\":\"number\",\"valueType\":\"number\"}"), "[0, 1, 2, 3]");
+        Assert.assertEquals(sortRecords("{\"column\":\"number\",\"valueType\":\"number\",\"reverse\":true}"),
+            "[2, 0, 1, 3]");
+    }
+
+    protected void createColumn(String columnName, Serializable... values) throws Exception {
+        int cellIndex = project.columnModel.columns.size();
+        project.columnModel.setMaxCellIndex(cellIndex);
+        project.columnModel.addColumn(cellIndex, new Column(cellIndex, columnName), false);
+        for (int i = 0; i < values.length; i++) {
+            if (i == project.rows.size()) {
+                project.rows.add(new Row(2));
+            }
+            project.rows.get(i).setCell(cellIndex, values[i] == null ? null : new Cell(values[i], null));
+        }
+        project.update();
+    }
+
+    protected String sortRows(String criteria) throws Exception {
+        SortingRowVisitor srv = new SortingRowVisitor(null);
+        srv.initializeFromJSON(project, ParsingUtilities.evaluateJsonStringToObject("{\"criteria\":[" + criteria + "]}"));
+        return Arrays.toString(srv.sort(project, createEngine("row-based")));
+    }
+
+    protected String sortRecords(String criteria) throws Exception {
+        SortingRecordVisitor srv = new SortingRecordVisitor(null);
+        srv.initializeFromJSON(project, ParsingUtilities.evaluateJsonStringToObject("{\"criteria\":[" + criteria + "]}"));
+        return Arrays.toString(srv.sort(project, createEngine("record-based")));
+    }
+
+    protected Engine createEngine(String mode) throws Exception {
+        Engine engine = new Engine(project);
+        engine.initializeFromJSON(ParsingUtilities.evaluateJsonStringToObject("{\"mode\":\"" + mode + "\",\"facets\":[]}"));
+        return engine;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+
+Copyright 2010, Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,           
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY           
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+
+package com.google.refine.tests.sorting;
+
+import java.util.Arrays;
+
+import org.json.JSONObject;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.ProjectManager;
+import com.google.refine.browsing.Engine;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Column;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+import com.google.refine.sorting.SortingRowVisitor;
+import com.google.refine.tests.ProjectManagerStub;
+import com.google.refine.tests.RefineTest;
+import com.google.refine.util.ParsingUtilities;
+
+public class SortingRowVisitorTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    // dependencies
+    Project project;
+    Engine engine;
+    JSONObject sorting;
+
+    @BeforeMethod
+    public void SetUp() throws Exception {
+        ProjectManager.singleton = new ProjectManagerStub();
+        
+        project = new Project();
+        project.columnModel.addColumn(0, new Column(0, "name"), false);
+        String[] names = { "delta", "alpha", "charlie", "bravo" };
+        for (String name : names) {
+            Row row = new Row(1);
+            row.setCell(0, new Cell(name, null));
+            project.rows.add(row);
+        }
+        project.update();
+        
+        engine = new Engine(project);
+        engine.initializeFromJSON(ParsingUtilities.evaluateJsonStringToObject("{\"mode\":\"row-based\",\"facets\":[]}"));
+        sorting = ParsingUtilities.evaluateJsonStringToObject(
+            "{\"criteria\":[{\"column\":\"name\",\"valueType\":\"string\",\"reverse\":false}]}");
+    }
+
+    @AfterMethod
+    public void TearDown() {
+        ProjectManager.singleton = null;
+        project = null;
+        engine = null;
+    }
+
+    @Test
+    public void sortReusesCachedOrder() throws Exception {
+        int[] indices = createSorter().sort(project, engine);
+        Assert.assertEquals(Arrays.toString(indices), "[1, 3, 2, 0]");
+        Assert.assertSame(createSorter().sort(project, engine), indices);
+        
+        project.rows.get(0).setCell(0, new Cell("aardvark", null));
+        project.update();
+        
+        Assert.assertEquals(Arrays.toString(createSorter().sort(project, engine)), "[0, 1, 3, 2]");
+    }
+
+    protected SortingRowVisitor createSorter() throws Exception {
+        SortingRowVisitor srv = new SortingRowVisitor(null);
+        srv.initializeFromJSON(project, sorting);
+        return srv;
+    }
+}
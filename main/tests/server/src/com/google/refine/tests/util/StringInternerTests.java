@@ -0,0 +1,92 @@
+/*
+
+Copyright 2010, Google Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+    * Neither the name of Google Inc. nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,           
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY           
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package com.google.refine.tests.util;
+
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.model.Row;
+import com.google.refine.tests.RefineTest;
+import com.google.refine.util.ColumnInterners;
+import com.google.refine.util.Pool;
+import com.google.refine.util.StringInterner;
+
+public class StringInternerTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    @Test
+    public void internRepeatedValues() {
+        StringInterner interner = new StringInterner();
+        String first = interner.intern(new String("open"));
+        String second = interner.intern(new String("open"));
+        interner.intern("closed");
+        
+        Assert.assertSame(second, first);
+        Assert.assertEquals(interner.getLookupCount(), 3);
+        Assert.assertEquals(interner.getHitCount(), 1);
+        Assert.assertEquals(interner.getDistinctCount(), 2);
+        Assert.assertTrue(interner.getSavedBytes() > 0);
+    }
+
+    @Test
+    public void stopRememberingDistinctValues() {
+        StringInterner interner = new StringInterner();
+        for (int i = 0; i < 5000; i++) {
+            interner.intern("id" + i);
+        }
+        
+        Assert.assertTrue(interner.getDistinctCount() < 5000);
+        Assert.assertEquals(interner.getHitRate(), 0.0);
+    }
+
+    @Test
+    public void loadRowsWithSharedValues() throws Exception {
+        ColumnInterners interners = new ColumnInterners();
+        Pool pool = new Pool();
+        Row row1 = Row.load("{\"cells\":[{\"v\":\"France\"},{\"v\":\"open\"}]}", pool, interners);
+        Row row2 = Row.load("{\"cells\":[{\"v\":\"France\"},{\"v\":\"open\"}]}", pool, interners);
+        
+        Assert.assertSame(row2.getCellValue(0), row1.getCellValue(0));
+        Assert.assertSame(row2.getCellValue(1), row1.getCellValue(1));
+        Assert.assertEquals(interners.get(0).getHitCount(), 1);
+        Assert.assertEquals(interners.get(1).getHitCount(), 1);
+    }
+}